@@ -0,0 +1,255 @@
+/*
+ * This file is part of one of the Data-Cockpit libraries.
+ * 
+ * Copyright (C) 2024 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE (EPFL)
+ * 
+ * Author - Sébastien Rumley (sebastien.rumley@hefr.ch)
+ * 
+ * This open source release is made with the authorization of the EPFL,
+ * the institution where the author was originally employed.
+ * The author is currently affiliated with the HEIA-FR, which is the actual publisher.
+ * 
+ * The Data-Cockpit program is free software, you can redistribute it and/or modify
+ * it under the terms of GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The Data-Cockpit program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ * Contributor list -
+ */
+package ch.heiafr.isc.datacockpit.database;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Executions sealed together and published at once. A batch never changes
+ * once created and points to the batch published before it, so the last
+ * batch is a consistent view of the whole store. The batches of a chain
+ * share the memory their data points use outside of the heap, freed once
+ * the collector is cleared and no reader goes through them anymore.
+ */
+class Batch {
+
+	final Batch previous;
+	final OffHeapMemory memory;
+	// the tables, null once they are in the buffer (see getTables())
+	private volatile ShapeTable[] tables;
+	// holds the tables kept off the heap, spilled to a file or too small
+	// to be kept as they are
+	private volatile TableBuffer buffer;
+	// on the heap and not spilled yet, the batches kept off the heap or
+	// read from a mapped file never are
+	private volatile boolean resident;
+	// of the tables of this batch only, null if computed from the tables
+	// when needed, as for the batches of many small tables
+	private final PropertyCatalog.Summary[] summaries;
+	// of this batch and the previous ones, only kept by the last batch it
+	// was computed for and by the first one (see catalog())
+	private volatile PropertyCatalog catalog;
+	// per property id, the value index of each table (null for the tables
+	// without the property), built when a query plan needs it
+	private volatile ValueIndex[][] indexes = new ValueIndex[0][];
+	final int totalDataPoints;
+	final int totalExecutions;
+	final long estimatedBytes;
+	// position in the chain, and id of the tail the batch was sealed from
+	final long seq;
+	final long source;
+
+	/**
+	 * @param tables the tables, null if they are in the buffer
+	 * @param buffer the buffer holding the tables, or null
+	 */
+	Batch(Batch previous, ShapeTable[] tables, TableBuffer buffer, int executions, PropertyCatalog.Summary[] summaries, int dataPoints, long source) {
+		this.previous = previous;
+		this.seq = (previous == null) ? 0 : previous.seq + 1;
+		this.memory = (previous == null) ? new OffHeapMemory() : previous.memory;
+		this.source = source;
+		this.tables = tables;
+		this.buffer = buffer;
+		this.resident = (buffer == null) ? isOnHeap(tables) : buffer.isOnHeap();
+		this.summaries = (buffer != null && buffer.isSparse()) ? null : summaries;
+		this.catalog = (previous == null) ? PropertyCatalog.EMPTY.extend(summaries()) : null;
+		this.estimatedBytes = (buffer == null) ? getEstimatedBytes(tables) : buffer.getEstimatedBytes();
+		this.totalDataPoints = dataPoints + (previous == null ? 0 : previous.totalDataPoints);
+		this.totalExecutions = executions + (previous == null ? 0 : previous.totalExecutions);
+	}
+
+	/**
+	 * @return the first batch of a new chain, empty
+	 */
+	static Batch root() {
+		return new Batch(null, new ShapeTable[0], null, 0, new PropertyCatalog.Summary[0], 0, -1);
+	}
+
+	private static boolean isOnHeap(ShapeTable[] tables) {
+		for (ShapeTable t : tables) {
+			if (!t.isOnHeap()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static long getEstimatedBytes(ShapeTable[] tables) {
+		long bytes = 0;
+		for (ShapeTable t : tables) {
+			bytes += t.getEstimatedBytes();
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return the tables, always in the same order. Those in the buffer are
+	 * views created at each call.
+	 */
+	ShapeTable[] getTables() {
+		ShapeTable[] t = tables;
+		// the buffer is set before the tables are dropped
+		return (t != null) ? t : buffer.getTables();
+	}
+
+	PropertyCatalog.Summary[] summaries() {
+		return (summaries != null) ? summaries : PropertyCatalog.summarize(getTables());
+	}
+
+	boolean isResident() {
+		return resident;
+	}
+
+	boolean isIndexed(int propId) {
+		ValueIndex[][] i = indexes;
+		return propId < i.length && i[propId] != null;
+	}
+
+	/**
+	 * @return the value index of each table for the property, built the
+	 * first time. The indexes are kept on the heap, also for spilled batches.
+	 */
+	synchronized ValueIndex[] index(int propId) {
+		if (isIndexed(propId)) {
+			return indexes[propId];
+		}
+		ShapeTable[] t = getTables();
+		ValueIndex[] index = new ValueIndex[t.length];
+		for (int i = 0 ; i < t.length ; i++) {
+			int pos = t[i].shape.positionOf(propId);
+			if (pos >= 0) {
+				index[i] = ValueIndex.build(t[i], pos);
+			}
+		}
+		ValueIndex[][] copy = Arrays.copyOf(indexes, Math.max(indexes.length, propId + 1));
+		copy[propId] = index;
+		indexes = copy;
+		return index;
+	}
+
+	long getIndexBytes() {
+		long total = 0;
+		for (ValueIndex[] index : indexes) {
+			if (index != null) {
+				for (ValueIndex i : index) {
+					total += (i == null) ? 0 : i.getEstimatedBytes();
+				}
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * @return the catalog of this batch and of the previous ones. It is
+	 * computed from the closest previous batch still holding its catalog,
+	 * adding the summaries of the batches in between, and that batch then
+	 * lets its own go: the published batches do not each keep a copy of the
+	 * summaries of all the shapes.
+	 */
+	PropertyCatalog catalog() {
+		PropertyCatalog c = catalog;
+		if (c != null) {
+			return c;
+		}
+		ArrayList<PropertyCatalog.Summary> added = new ArrayList<PropertyCatalog.Summary>();
+		Batch from = this;
+		PropertyCatalog base;
+		// the first batch of the chain always has its catalog
+		while ((base = from.catalog) == null) {
+			added.addAll(Arrays.asList(from.summaries()));
+			from = from.previous;
+		}
+		c = base.extend(added.toArray(new PropertyCatalog.Summary[added.size()]));
+		catalog = c;
+		if (from != this && from.previous != null) {
+			from.catalog = null;
+		}
+		return c;
+	}
+
+	/**
+	 * @return the number of data points of this batch (not of the previous
+	 * ones) defining the property
+	 */
+	int countDefining(int propId) {
+		ShapeTable[] t = tables;
+		if (t == null) {
+			return buffer.countDefining(propId);
+		}
+		int count = 0;
+		for (ShapeTable table : t) {
+			if (table.shape.positionOf(propId) >= 0) {
+				count += table.rows;
+			}
+		}
+		return count;
+	}
+
+	int countTablesDefining(int propId) {
+		ShapeTable[] t = tables;
+		if (t == null) {
+			return buffer.countTablesDefining(propId);
+		}
+		int count = 0;
+		for (ShapeTable table : t) {
+			if (table.shape.positionOf(propId) >= 0) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Moves the value ids of this batch to a memory-mapped spill file, from
+	 * which the queries read them in place. The file is deleted with the
+	 * memory of the chain.
+	 */
+	void spill(File directory) throws IOException {
+		buffer = TableBuffer.spill(getTables(), memory, directory);
+		tables = null;
+		resident = false;
+	}
+
+	/**
+	 * @return this batch and the previous ones, oldest first
+	 */
+	Batch[] chain() {
+		int size = 0;
+		for (Batch b = this ; b != null ; b = b.previous) {
+			size++;
+		}
+		Batch[] chain = new Batch[size];
+		for (Batch b = this ; b != null ; b = b.previous) {
+			chain[--size] = b;
+		}
+		return chain;
+	}
+
+}
@@ -0,0 +1,710 @@
+/*
+ * This file is part of one of the Data-Cockpit libraries.
+ *
+ * Copyright (C) 2024 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE (EPFL)
+ *
+ * Author - Sébastien Rumley (sebastien.rumley@hefr.ch)
+ *
+ * This open source release is made with the authorization of the EPFL,
+ * the institution where the author was originally employed.
+ * The author is currently affiliated with the HEIA-FR, which is the actual publisher.
+ *
+ * The Data-Cockpit program is free software, you can redistribute it and/or modify
+ * it under the terms of GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The Data-Cockpit program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Contributor list -
+ */
+package ch.heiafr.isc.datacockpit.database;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.Vector;
+
+import ch.heiafr.isc.datacockpit.general_libraries.results.*;
+import ch.heiafr.isc.datacockpit.general_libraries.utils.Pair;
+import ch.heiafr.isc.datacockpit.general_libraries.utils.PairList;
+
+/**
+ * Column oriented alternative to the SmartDataPointCollector. Instead of one
+ * object (and two hash maps) per data point, each property is stored as one
+ * column: a float[] for numeric values, a dictionary coded int[] for string
+ * values and a BitSet telling which data points define the property.
+ *
+ * Both collectors answer the same queries with the same results, so they can
+ * be fed with the same executions and compared (see toString()). The rows are
+ * grouped by criteria combination in one pass over them, for all the metrics
+ * of a chart at once; the aggregated series are then computed from the
+ * points.
+ */
+public class ColumnarDataPointCollector extends AbstractInOutDataManager implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private TreeMap<String, Column> columns;
+	private int rows;
+	private int executions;
+
+	public ColumnarDataPointCollector() {
+		clear();
+	}
+
+	@Override
+	public void addDataPoint(DataPoint dp) {
+		Execution e = new Execution();
+		e.addDataPoint(dp);
+		this.addExecution(e);
+	}
+
+	public synchronized void addExecution(Execution e) {
+		if (e == null) {
+			throw new NullPointerException("A null execution has been submitted to the DB");
+		}
+		for (DataPoint dp : e.getDataPoints()) {
+			for (Property p : dp.getProperties()) {
+				Column c = columns.get(p.getName());
+				if (c == null) {
+					c = new Column(p);
+					columns.put(c.name, c);
+				}
+				c.set(rows, p);
+			}
+			rows++;
+		}
+		executions++;
+	}
+
+	/**
+	 * Stores the executions while holding the lock only once
+	 */
+	@Override
+	public synchronized void addExecutions(Collection<Execution> executions) {
+		for (Execution e : executions) {
+			addExecution(e);
+		}
+	}
+
+	public synchronized void clear() {
+		columns = new TreeMap<String, Column>(String.CASE_INSENSITIVE_ORDER);
+		rows = 0;
+		executions = 0;
+	}
+
+	public synchronized List<String> getMetrics() {
+		List<String> met = new ArrayList<String>();
+		for (Column c : columns.values()) {
+			if (c.isNumbersOnly()) {
+				met.add(c.name);
+			}
+		}
+		return met;
+	}
+
+	public synchronized Set<String> getParameters() {
+		TreeSet<String> set = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+		set.addAll(columns.keySet());
+		return set;
+	}
+
+	public synchronized boolean isInput(String param) {
+		if (param == null) {
+			return false;
+		}
+		Column c = columns.get(param);
+		if (c == null) {
+			return false;
+		}
+		return c.result == false;
+	}
+
+	public synchronized Set<String> getPossibleValuesOfGivenProperty(String property) {
+		Column c = columns.get(property);
+		if (c == null) {
+			return Collections.emptySet();
+		}
+		return c.getValues(c.present.cardinality() < rows);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public synchronized Vector[] getVariableAndConstantPropertiesForGivenMetric(String s) {
+		Column metric = columns.get(s);
+		if (metric == null) {
+			return new Vector[]{};
+		}
+		Vector<String> toRet1 = new Vector<String>();
+		for (Column c : columns.values()) {
+			if (c != metric && c.present.intersects(metric.present)) {
+				toRet1.add(c.name);
+			}
+		}
+		int first = metric.present.nextSetBit(0);
+		if (first < 0) return new Vector[]{toRet1, new Vector(), null};
+
+		TreeMap<String, String> constants = new TreeMap<String, String>();
+		for (String stri : toRet1) {
+			Column c = columns.get(stri);
+			long ref = c.code(first);
+			boolean rem = true;
+			for (int row = metric.present.nextSetBit(first + 1) ; row >= 0 ; row = metric.present.nextSetBit(row + 1)) {
+				long t = c.code(row);
+				if (t == Column.ABSENT || t != ref) {
+					rem = false;
+					break;
+				}
+			}
+			if (rem) {
+				constants.put(stri, c.value(first));
+			}
+		}
+		toRet1.removeAll(constants.keySet());
+
+		Collections.sort(toRet1);
+
+		Vector<String> s1 = new Vector<String>();
+		Vector<String> s2 = new Vector<String>();
+		for (Map.Entry<String, String> ent : constants.entrySet()) {
+			s1.add(ent.getKey());
+			s2.add(ent.getValue());
+		}
+		return new Vector[]{toRet1, s1, s2};
+	}
+
+	public List<DataSeries> getChartValues(DataRetrievalOptions p, String methodName) {
+		return getChartValues(p, new String[]{methodName}).get(0);
+	}
+
+	/**
+	 * Fills the series of all the metrics in one pass over the rows
+	 */
+	@Override
+	public synchronized List<List<DataSeries>> getChartValues(DataRetrievalOptions p, String[] methodNames) {
+		String xAxis = p.xAxisProperty;
+		CriteriumSet cs = p.getCriteriumSet();
+		Map<String, List<String>> filters = p.getFilters();
+		List<List<DataSeries>> toRet = new ArrayList<List<DataSeries>>(methodNames.length);
+		for (int m = 0 ; m < methodNames.length ; m++) {
+			toRet.add(new ArrayList<DataSeries>(0));
+		}
+
+		Column xColumn = null;
+		if (xAxis.equals("")) {
+			boolean check = false;
+			// checking if CONSTANT is the unique criterium
+			for (List<Criterium> lc : cs) {
+				for (Criterium c : lc) {
+					if (c.getName().equals(CONSTANT)) {
+						check = true;
+					}
+				}
+			}
+			if (!check) {
+				return toRet;
+			}
+		} else {
+			xColumn = columns.get(xAxis);
+			if (xColumn == null) return toRet;
+			boolean def = false;
+			for (List<Criterium> lc : cs) {
+				for (Criterium c : lc) {
+					Column critColumn = columns.get(c.getName());
+					if (c.getName().equals(CONSTANT) ||
+							(critColumn != null && critColumn != xColumn && critColumn.present.intersects(xColumn.present))) {
+						def = true;
+					}
+				}
+			}
+			if (!def) {
+				return toRet;
+			}
+		}
+
+		cs.setPossibleValues(this);
+
+		Column[] metrics = new Column[methodNames.length];
+		BitSet rowsWithMetric = new BitSet();
+		for (int m = 0 ; m < metrics.length ; m++) {
+			metrics[m] = columns.get(methodNames[m]);
+			if (metrics[m] != null) {
+				rowsWithMetric.or(metrics[m].present);
+			}
+		}
+		if (rowsWithMetric.isEmpty()) {
+			return toRet;
+		}
+
+		ColumnFilter[] filterList = resolveFilters(filters);
+		GroupBy groupBy = new GroupBy(cs, filters);
+		SmartDataPointCollector.LocalDataSeries[][] dat = new SmartDataPointCollector.LocalDataSeries[metrics.length][groupBy.combinations];
+
+		for (int row = rowsWithMetric.nextSetBit(0) ; row >= 0 ; row = rowsWithMetric.nextSetBit(row + 1)) {
+			if (xColumn != null && !xColumn.present.get(row)) {
+				continue;
+			}
+			if (!accept(filterList, row)) {
+				continue;
+			}
+			int j = groupBy.combinationOf(row);
+			if (j < 0) {
+				continue;
+			}
+			String x = (xColumn == null) ? "CONSTANT" : xColumn.value(row);
+			for (int m = 0 ; m < metrics.length ; m++) {
+				if (metrics[m] != null && metrics[m].present.get(row)) {
+					if (dat[m][j] == null) {
+						dat[m][j] = new SmartDataPointCollector.LocalDataSeries(groupBy.combination(j));
+					}
+					dat[m][j].addPoint(x, metrics[m].floatValue(row));
+				}
+			}
+		}
+
+		for (int m = 0 ; m < metrics.length ; m++) {
+			for (SmartDataPointCollector.LocalDataSeries d : dat[m]) {
+				if (d != null) {
+					toRet.get(m).add(d);
+				}
+			}
+		}
+		return toRet;
+	}
+
+	/**
+	 * Aggregates the series of all the metrics, filled in one pass
+	 */
+	@Override
+	public List<List<AggregatedDataSeries>> getAggregatedChartValues(DataRetrievalOptions p, String[] methodNames) {
+		List<List<AggregatedDataSeries>> toRet = new ArrayList<List<AggregatedDataSeries>>(methodNames.length);
+		for (List<DataSeries> l : getChartValues(p, methodNames)) {
+			toRet.add(AggregatedDataSeries.aggregate(l, p.is95));
+		}
+		return toRet;
+	}
+
+	private ColumnFilter[] resolveFilters(Map<String, List<String>> filters) {
+		if (filters == null) {
+			return new ColumnFilter[0];
+		}
+		ColumnFilter[] list = new ColumnFilter[filters.size()];
+		int i = 0;
+		for (Map.Entry<String, List<String>> prop : filters.entrySet()) {
+			list[i++] = new ColumnFilter(columns.get(prop.getKey()), prop.getValue());
+		}
+		return list;
+	}
+
+	private boolean accept(ColumnFilter[] filterList, int row) {
+		for (ColumnFilter f : filterList) {
+			if (!f.accept(row)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public synchronized int getNumberOfStoredDataPoints() {
+		return rows;
+	}
+
+	public synchronized long getEstimatedBytes() {
+		long total = 0;
+		for (Column c : columns.values()) {
+			total += c.getEstimatedBytes();
+		}
+		return total;
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%1$-40s %2$20s", "getNumberOfDataPoints", rows));
+		sb.append("\r\n");
+		sb.append(String.format("%1$-40s %2$20s", "getNumberOfExecutions", executions));
+		sb.append("\r\n");
+		sb.append(String.format("%1$-40s %2$20s", "getNumberOfProperties", columns.size()));
+		sb.append("\r\n\r\n");
+		for (Column c : columns.values()) {
+			sb.append(String.format("%1$-40s %2$20s %3$s", c.name + "Bytes", c.getEstimatedBytes(), c.getEncoding()));
+			sb.append("\r\n");
+		}
+		sb.append(String.format("%1$-40s %2$20s", "getEstimatedBytes", getEstimatedBytes()));
+		sb.append("\r\n");
+		return sb.toString();
+	}
+
+	/**
+	 * A filter of the DataRetrievalOptions, with the accepted values translated
+	 * into column codes once per query
+	 */
+	private static class ColumnFilter {
+		private final Column column;
+		private final boolean wildcard;
+		private final long[] codes;
+
+		ColumnFilter(Column column, List<String> values) {
+			this.column = column;
+			this.wildcard = values.contains(SmartDataPointCollector.WC);
+			this.codes = new long[values.size()];
+			for (int i = 0 ; i < codes.length ; i++) {
+				codes[i] = (column == null) ? Column.NO_MATCH : column.codeOf(values.get(i));
+			}
+		}
+
+		boolean accept(int row) {
+			long code = (column == null) ? Column.ABSENT : column.code(row);
+			if (code == Column.ABSENT) {
+				return wildcard;
+			}
+			for (long c : codes) {
+				if (c == code) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Groups the rows by criteria combination in a single pass, as the
+	 * GroupBy of the SmartDataPointCollector: the value of a row for each
+	 * criterion is translated into the index of this value among the
+	 * possible ones of the criterion, and the index of the combination is
+	 * computed from them, in the order in which the CriteriaIterator
+	 * enumerates the combinations (first criterion first).
+	 */
+	private class GroupBy {
+		// per criterion, null for CONSTANT or unknown properties
+		private final Column[] critColumns;
+		// per criterion, value id to index among the possible values (-1 if none)
+		private final int[][] indexOfValue;
+		// per criterion, the index for the rows not defining the property
+		// (the wildcard, -1 if it cannot match)
+		private final int[] undefinedIndex;
+		private final int[] strides;
+		private final CriteriumSet cs;
+		final int combinations;
+
+		GroupBy(CriteriumSet cs, Map<String, List<String>> filters) {
+			this.cs = cs;
+			ArrayList<Criterium> criteria = new ArrayList<Criterium>();
+			for (List<Criterium> l : cs) {
+				criteria.addAll(l);
+			}
+			critColumns = new Column[criteria.size()];
+			indexOfValue = new int[criteria.size()][];
+			undefinedIndex = new int[criteria.size()];
+			strides = new int[criteria.size()];
+			int total = 1;
+			for (int i = 0 ; i < critColumns.length ; i++) {
+				Criterium c = criteria.get(i);
+				List<String> values = c.getPossibleValues();
+				strides[i] = total;
+				total *= values.size();
+				undefinedIndex[i] = -1;
+				if (c.getName().equals(CONSTANT)) {
+					undefinedIndex[i] = values.indexOf(CONSTANT);
+					continue;
+				}
+				List<String> filter = (filters == null) ? null : filters.get(c.getName());
+				if (filter == null || filter.contains(SmartDataPointCollector.WC)) {
+					undefinedIndex[i] = values.indexOf(SmartDataPointCollector.WC);
+				}
+				Column column = columns.get(c.getName());
+				if (column == null) {
+					continue;
+				}
+				critColumns[i] = column;
+				int[] index = new int[0];
+				for (int k = 0 ; k < values.size() ; k++) {
+					int id = values.get(k).equals(SmartDataPointCollector.WC) ? -1 : column.valueIdOf(values.get(k));
+					if (id >= 0) {
+						if (id >= index.length) {
+							int length = index.length;
+							index = Arrays.copyOf(index, Math.max(id + 1, 2 * length));
+							Arrays.fill(index, length, index.length, -1);
+						}
+						index[id] = k;
+					}
+				}
+				indexOfValue[i] = index;
+			}
+			combinations = total;
+		}
+
+		/**
+		 * @return the index of the combination of this row, -1 if it does
+		 * not belong to any
+		 */
+		int combinationOf(int row) {
+			int key = 0;
+			for (int i = 0 ; i < critColumns.length ; i++) {
+				int id = (critColumns[i] == null) ? -1 : critColumns[i].valueId(row);
+				int k;
+				if (id < 0) {
+					k = undefinedIndex[i];
+				} else {
+					int[] index = indexOfValue[i];
+					k = (id < index.length) ? index[id] : -1;
+				}
+				if (k < 0) {
+					return -1;
+				}
+				key += k * strides[i];
+			}
+			return key;
+		}
+
+		/**
+		 * @return the combination of this index, as returned by the
+		 * CriteriaIterator
+		 */
+		List<PairList<String, String>> combination(int key) {
+			List<PairList<String, String>> ret = new ArrayList<PairList<String, String>>(cs.size());
+			int index = 0;
+			for (List<Criterium> l : cs) {
+				PairList<String, String> lp = new PairList<String, String>(l.size());
+				for (Criterium c : l) {
+					int size = c.getPossibleValues().size();
+					lp.add(new Pair<String, String>(c.getName(), c.getPossibleValue((key / strides[index]) % size)));
+					index++;
+				}
+				ret.add(lp);
+			}
+			return ret;
+		}
+	}
+}
+
+/**
+ * Values of one property over all data points. A row is either undefined
+ * (bit not set in present), numeric (codes[row] == 0) or a string whose
+ * dictionary index is codes[row] - 1. The codes array is only allocated once
+ * the first string value shows up.
+ */
+class Column implements Serializable {
+
+	private static final long serialVersionUID = 2L;
+
+	static final long ABSENT = -1L;
+	static final long NO_MATCH = -2L;
+	// numeric codes are the bits of the double value, string codes are NaN
+	// patterns doubleToLongBits never returns
+	private static final long STRING_FLAG = 0xfff0000000000000L;
+	private static final int INITIAL_CAPACITY = 64;
+
+	final String name;
+	final String unit;
+	final boolean result;
+	private boolean numbersOnly = true;
+
+	BitSet present = new BitSet();
+	// both allocated with the first value of their kind
+	private NumberArray numbers;
+	// 0 for numbers, otherwise the string id + 1
+	private PackedIntArray codes;
+
+	private ArrayList<String> strings = new ArrayList<String>();
+	private TreeMap<String, Integer> stringCodes = new TreeMap<String, Integer>();
+	// the distinct numbers in the order they first appear, sorted when listed
+	private NumberArray distinctNumbers = new NumberArray(INITIAL_CAPACITY);
+	private NumberDictionary numberIds = new NumberDictionary();
+
+	Column(Property p) {
+		this.name = p.getName();
+		this.unit = p.getUnit();
+		this.result = p instanceof ResultProperty;
+	}
+
+	void set(int row, Property p) {
+		present.set(row);
+		if (!p.isString()) {
+			double d = SmartDataPointCollector.numericValue(p);
+			if (numbers == null) {
+				numbers = new NumberArray(Math.max(INITIAL_CAPACITY, row + 1));
+			}
+			numbers.set(row, d);
+			if (numberIds.get(d, distinctNumbers) < 0) {
+				int id = numberIds.size();
+				distinctNumbers.set(id, d);
+				numberIds.add(id, distinctNumbers);
+			}
+			if (codes != null) {
+				codes.set(row, 0);
+			}
+		} else {
+			String value = p.getValue();
+			if (value == null) {
+				value = SmartDataPointCollector.NULL;
+			}
+			Integer id = stringCodes.get(value);
+			if (id == null) {
+				strings.add(value);
+				id = strings.size();
+				stringCodes.put(value, id);
+			}
+			if (codes == null) {
+				codes = new PackedIntArray(Math.max(INITIAL_CAPACITY, row + 1));
+			}
+			codes.set(row, id);
+			numbersOnly = false;
+		}
+	}
+
+	boolean isNumbersOnly() {
+		return numbersOnly;
+	}
+
+	/**
+	 * @return a code which is equal for two rows if and only if their values are equal
+	 */
+	long code(int row) {
+		if (!present.get(row)) {
+			return ABSENT;
+		}
+		int c = (codes == null) ? 0 : codes.get(row);
+		if (c != 0) {
+			return STRING_FLAG | c;
+		}
+		return Double.doubleToLongBits(numbers.get(row));
+	}
+
+	/**
+	 * @return the code a row holding this value would have, or NO_MATCH if no row can hold it
+	 */
+	long codeOf(String value) {
+		Integer id = stringCodes.get(value);
+		if (id != null) {
+			return STRING_FLAG | id;
+		}
+		try {
+			double d = Double.parseDouble(value);
+			if (SmartDataPointCollector.formatNumber(d).equals(value)) {
+				return Double.doubleToLongBits(d);
+			}
+		}
+		catch (NumberFormatException e) {}
+		return NO_MATCH;
+	}
+
+	/**
+	 * @return the id of the value of this row among the distinct values of
+	 * the column, -1 if the row does not define it. Numbers have even ids
+	 * and strings odd ones, so that both stay dense.
+	 */
+	int valueId(int row) {
+		if (!present.get(row)) {
+			return -1;
+		}
+		int c = (codes == null) ? 0 : codes.get(row);
+		if (c != 0) {
+			return 2 * c - 1;
+		}
+		return 2 * numberIds.get(numbers.get(row), distinctNumbers);
+	}
+
+	/**
+	 * @return the id valueId returns for the rows holding this value, -1 if
+	 * no row holds it
+	 */
+	int valueIdOf(String value) {
+		Integer id = stringCodes.get(value);
+		if (id != null) {
+			return 2 * id - 1;
+		}
+		try {
+			double d = Double.parseDouble(value);
+			if (SmartDataPointCollector.formatNumber(d).equals(value)) {
+				int n = numberIds.get(d, distinctNumbers);
+				return (n < 0) ? -1 : 2 * n;
+			}
+		}
+		catch (NumberFormatException e) {}
+		return -1;
+	}
+
+	String value(int row) {
+		if (!present.get(row)) {
+			return null;
+		}
+		int c = (codes == null) ? 0 : codes.get(row);
+		if (c != 0) {
+			return strings.get(c - 1);
+		}
+		return SmartDataPointCollector.formatNumber(numbers.get(row));
+	}
+
+	float floatValue(int row) {
+		int c = (codes == null) ? 0 : codes.get(row);
+		if (c != 0) {
+			return Float.parseFloat(strings.get(c - 1));
+		}
+		return (float)numbers.get(row);
+	}
+
+	/**
+	 * @return how the values are stored, for the statistics
+	 */
+	String getEncoding() {
+		String s = (numbers == null) ? "" : numbers.getEncoding().name();
+		if (codes != null) {
+			s += (s.length() > 0 ? "+" : "") + codes.getBitsPerValue() + "-BIT CODES";
+		}
+		return s;
+	}
+
+	Set<String> getValues(boolean withWildcard) {
+		LinkedHashSet<String> s = new LinkedHashSet<String>();
+		double[] sorted = numberIds.toArray(distinctNumbers);
+		Arrays.sort(sorted);
+		for (double d : sorted) {
+			s.add(SmartDataPointCollector.formatNumber(d));
+		}
+		if (withWildcard) {
+			TreeSet<String> withWC = new TreeSet<String>(stringCodes.keySet());
+			withWC.add(SmartDataPointCollector.WC);
+			s.addAll(withWC);
+		} else {
+			s.addAll(stringCodes.keySet());
+		}
+		return s;
+	}
+
+	long getEstimatedBytes() {
+		long total = 0;
+		if (numbers != null) {
+			total += numbers.getEstimatedBytes();
+		}
+		if (codes != null) {
+			total += codes.getEstimatedBytes();
+		}
+		total += 16 + (present.size() >> 3);
+		for (String s : strings) {
+			total += 40 + 2 * s.length() + 40;
+		}
+		total += distinctNumbers.getEstimatedBytes() + numberIds.getEstimatedBytes();
+		return total;
+	}
+
+	@Override
+	public String toString() {
+		return name + "("+unit+")";
+	}
+}
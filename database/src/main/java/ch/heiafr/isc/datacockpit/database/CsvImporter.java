@@ -0,0 +1,850 @@
+/*
+ * This file is part of one of the Data-Cockpit libraries.
+ * 
+ * Copyright (C) 2024 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE (EPFL)
+ * 
+ * Author - Sébastien Rumley (sebastien.rumley@hefr.ch)
+ * 
+ * This open source release is made with the authorization of the EPFL,
+ * the institution where the author was originally employed.
+ * The author is currently affiliated with the HEIA-FR, which is the actual publisher.
+ * 
+ * The Data-Cockpit program is free software, you can redistribute it and/or modify
+ * it under the terms of GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The Data-Cockpit program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ * Contributor list -
+ */
+package ch.heiafr.isc.datacockpit.database;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Imports into a SmartDataPointCollector the rows of a CSV or TSV file
+ * produced by another tool, each row becoming an execution with a single data
+ * point. The first line names the columns. By default a column is an input
+ * property of the same name, mapColumn renames it or makes it a metric, and
+ * skipColumn leaves it out. An empty cell leaves the property undefined in
+ * its row. A cell is a number if it would be one in a Property, that is if
+ * Float.parseFloat accepts it, and a string otherwise. Quoted cells, such
+ * as "a, b" or "say ""hi""", are supported, except if they span several
+ * lines.
+ * <p>
+ * The file is read in chunks cut at line breaks. Each chunk is parsed by a
+ * thread of its own directly into the tables of a batch, and the batches
+ * are published in the order of the file. At most two chunks per thread are
+ * in memory at once, whatever the size of the file. The cells are resolved
+ * to the ids of their values through a cache of the cells already seen in
+ * the column, so most of them cost neither a String nor a lookup in the
+ * collector. Numbers are recognized without catching exceptions, and
+ * decimals of up to 19 digits are converted without Double.parseDouble.
+ */
+public class CsvImporter {
+
+	// the bytes read at once, a chunk ending at the last line break they hold
+	static final int CHUNK = 4 << 20;
+	// the distinct cells remembered per column and chunk
+	private static final int CACHE_SIZE = 4096;
+	private static final double[] POWERS_OF_TEN = new double[23];
+	// the 128 first bits of the powers of ten from 10^MIN_EXPONENT, rounded down
+	private static final int MIN_EXPONENT = -348;
+	private static final int MAX_EXPONENT = 347;
+	private static final long[] POWERS_HIGH = new long[MAX_EXPONENT - MIN_EXPONENT + 1];
+	private static final long[] POWERS_LOW = new long[MAX_EXPONENT - MIN_EXPONENT + 1];
+
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1 ; i < POWERS_OF_TEN.length ; i++) {
+			POWERS_OF_TEN[i] = 10 * POWERS_OF_TEN[i - 1];
+		}
+		for (int e = MIN_EXPONENT ; e <= MAX_EXPONENT ; e++) {
+			BigInteger power = BigInteger.TEN.pow(Math.abs(e));
+			BigInteger bits;
+			if (e >= 0) {
+				int shift = power.bitLength() - 128;
+				bits = (shift > 0) ? power.shiftRight(shift) : power.shiftLeft(-shift);
+			} else {
+				bits = BigInteger.ONE.shiftLeft(power.bitLength() + 127).divide(power);
+			}
+			POWERS_HIGH[e - MIN_EXPONENT] = bits.shiftRight(64).longValue();
+			POWERS_LOW[e - MIN_EXPONENT] = bits.longValue();
+		}
+	}
+
+	private static class Mapping {
+		private final String property;
+		private final boolean result;
+
+		Mapping(String property, boolean result) {
+			this.property = property;
+			this.result = result;
+		}
+	}
+
+	private final SmartDataPointCollector db;
+	private final HashMap<String, Mapping> mappings = new HashMap<String, Mapping>();
+	// 0 to detect it from the header
+	private char separator = 0;
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	public CsvImporter(SmartDataPointCollector db) {
+		this.db = db;
+	}
+
+	/**
+	 * Sets the character between the cells. By default, the most frequent of
+	 * the comma, the tab and the semicolon in the header is used.
+	 */
+	public void setSeparator(char separator) {
+		this.separator = separator;
+	}
+
+	/**
+	 * Sets the number of threads parsing the file, the number of processors
+	 * by default
+	 */
+	public void setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Imports the given column as this property, a metric if result is true
+	 */
+	public void mapColumn(String column, String property, boolean result) {
+		mappings.put(column, new Mapping(property, result));
+	}
+
+	public void skipColumn(String column) {
+		mappings.put(column, new Mapping(null, false));
+	}
+
+	/**
+	 * Adds the rows of the file to the collector. If an error occurs, the
+	 * rows of the chunks before the one where it occurred are kept.
+	 * @return the number of rows added, the rows without any cell imported
+	 * being ignored
+	 */
+	public long importFile(File f) throws IOException {
+		InputStream in = new FileInputStream(f);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			byte[] buffer = new byte[CHUNK];
+			int length = fill(in, buffer, 0);
+			int pos = 0;
+			if (length >= 3 && buffer[0] == (byte)0xEF && buffer[1] == (byte)0xBB && buffer[2] == (byte)0xBF) {
+				pos = 3;
+			}
+			int eol = indexOf(buffer, pos, length);
+			while (eol < 0 && length == buffer.length) {
+				buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+				length = fill(in, buffer, length);
+				eol = indexOf(buffer, pos, length);
+			}
+			if (eol < 0) {
+				eol = length;
+			}
+			byte sep = (byte)((separator != 0) ? separator : detectSeparator(buffer, pos, eol));
+			Tokenizer header = new Tokenizer(sep);
+			int columns = header.split(buffer, pos, lineEnd(buffer, pos, eol));
+			InternalProperty[] properties = resolveColumns(header, columns);
+			pos = eol + 1;
+
+			ArrayDeque<Future<Chunk>> pending = new ArrayDeque<Future<Chunk>>();
+			long rows = 0;
+			boolean eof = length < buffer.length;
+			while (pos < length || !eof) {
+				int end = eof ? length : lastIndexOf(buffer, pos, length) + 1;
+				if (end <= pos && !eof) {
+					// a line longer than the buffer
+					buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+					length = fill(in, buffer, length);
+					eof = length < buffer.length;
+					continue;
+				}
+				while (pending.size() >= 2 * threads) {
+					rows += add(pending.poll());
+				}
+				pending.add(pool.submit(new ChunkParser(db, buffer, pos, end, sep, columns, properties)));
+				if (eof) {
+					break;
+				}
+				byte[] next = new byte[Math.max(CHUNK, 2 * (length - end))];
+				System.arraycopy(buffer, end, next, 0, length - end);
+				length = fill(in, next, length - end);
+				eof = length < next.length;
+				buffer = next;
+				pos = 0;
+			}
+			while (!pending.isEmpty()) {
+				rows += add(pending.poll());
+			}
+			return rows;
+		}
+		finally {
+			pool.shutdownNow();
+			in.close();
+		}
+	}
+
+	/**
+	 * @return the properties the columns are imported as, null for the
+	 * columns left out
+	 */
+	private InternalProperty[] resolveColumns(Tokenizer header, int columns) throws IOException {
+		InternalProperty[] properties = new InternalProperty[columns];
+		HashSet<InternalProperty> used = new HashSet<InternalProperty>();
+		for (int i = 0 ; i < columns ; i++) {
+			String name = header.cell(i).trim();
+			Mapping m = mappings.get(name);
+			String property = (m == null) ? name : m.property;
+			if (property == null || property.length() == 0) {
+				continue;
+			}
+			properties[i] = db.registerProperty(property, "", m != null && m.result);
+			if (!used.add(properties[i])) {
+				throw new IOException("Two columns are imported as the property " + properties[i].name);
+			}
+		}
+		return properties;
+	}
+
+	private int add(Future<Chunk> future) throws IOException {
+		Chunk chunk;
+		try {
+			chunk = future.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Import interrupted");
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException)e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+		if (chunk.rows > 0) {
+			db.addTables(chunk.tables, chunk.summaries, chunk.rows);
+		}
+		return chunk.rows;
+	}
+
+	/**
+	 * @return the new number of bytes in the buffer, less than its size only
+	 * at the end of the stream
+	 */
+	private static int fill(InputStream in, byte[] buffer, int length) throws IOException {
+		while (length < buffer.length) {
+			int read = in.read(buffer, length, buffer.length - length);
+			if (read < 0) {
+				break;
+			}
+			length += read;
+		}
+		return length;
+	}
+
+	private static int indexOf(byte[] b, int from, int to) {
+		for (int i = from ; i < to ; i++) {
+			if (b[i] == '\n') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int lastIndexOf(byte[] b, int from, int to) {
+		for (int i = to - 1 ; i >= from ; i--) {
+			if (b[i] == '\n') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int lineEnd(byte[] b, int from, int eol) {
+		return (eol > from && b[eol - 1] == '\r') ? eol - 1 : eol;
+	}
+
+	private static char detectSeparator(byte[] b, int from, int to) {
+		int commas = 0;
+		int tabs = 0;
+		int semicolons = 0;
+		for (int i = from ; i < to ; i++) {
+			switch (b[i]) {
+			case ',': commas++; break;
+			case '\t': tabs++; break;
+			case ';': semicolons++; break;
+			default:
+			}
+		}
+		if (tabs > commas && tabs >= semicolons) {
+			return '\t';
+		}
+		return (semicolons > commas) ? ';' : ',';
+	}
+
+	/**
+	 * Splits a line in cells, given as ranges of the line or, for the quoted
+	 * cells holding doubled quotes, of a buffer where they are unquoted.
+	 * Unquoted cells are trimmed of their spaces.
+	 */
+	private static class Tokenizer {
+		private final byte separator;
+		private byte[][] sources = new byte[16][];
+		private int[] starts = new int[16];
+		private int[] ends = new int[16];
+		private byte[] unquoted = new byte[256];
+		private int count;
+
+		Tokenizer(byte separator) {
+			this.separator = separator;
+		}
+
+		/**
+		 * @return the number of cells of the line
+		 */
+		int split(byte[] b, int from, int to) throws IOException {
+			count = 0;
+			int used = 0;
+			int pos = from;
+			while (true) {
+				while (pos < to && b[pos] == ' ' && b[pos] != separator) {
+					pos++;
+				}
+				if (count == starts.length) {
+					sources = Arrays.copyOf(sources, 2 * count);
+					starts = Arrays.copyOf(starts, 2 * count);
+					ends = Arrays.copyOf(ends, 2 * count);
+				}
+				if (pos < to && b[pos] == '"') {
+					int start = ++pos;
+					boolean escaped = false;
+					while (true) {
+						if (pos == to) {
+							throw new IOException("A quoted cell spans several lines, which is not supported: "
+									+ new String(b, from, to - from, StandardCharsets.UTF_8));
+						}
+						if (b[pos] == '"') {
+							if (pos + 1 < to && b[pos + 1] == '"') {
+								escaped = true;
+								pos += 2;
+								continue;
+							}
+							break;
+						}
+						pos++;
+					}
+					if (escaped) {
+						if (unquoted.length < used + pos - start) {
+							byte[] old = unquoted;
+							unquoted = Arrays.copyOf(old, Math.max(2 * old.length, used + pos - start));
+							// the cells unquoted before refer to the old buffer
+							for (int i = 0 ; i < count ; i++) {
+								if (sources[i] == old) {
+									sources[i] = unquoted;
+								}
+							}
+						}
+						sources[count] = unquoted;
+						starts[count] = used;
+						for (int i = start ; i < pos ; i++) {
+							unquoted[used++] = b[i];
+							if (b[i] == '"') {
+								i++;
+							}
+						}
+						ends[count] = used;
+					} else {
+						sources[count] = b;
+						starts[count] = start;
+						ends[count] = pos;
+					}
+					while (pos < to && b[pos] != separator) {
+						pos++;
+					}
+				} else {
+					int start = pos;
+					while (pos < to && b[pos] != separator) {
+						pos++;
+					}
+					int end = pos;
+					while (end > start && b[end - 1] == ' ') {
+						end--;
+					}
+					sources[count] = b;
+					starts[count] = start;
+					ends[count] = end;
+				}
+				count++;
+				if (pos == to) {
+					return count;
+				}
+				pos++;
+			}
+		}
+
+		String cell(int i) {
+			return new String(sources[i], starts[i], ends[i] - starts[i], StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * The ids of the values of the cells of a column already resolved, keyed
+	 * by their bytes. Stops remembering beyond CACHE_SIZE cells, for the
+	 * columns whose values are all different.
+	 */
+	private static class CellCache {
+		private byte[][] keys = new byte[64][];
+		private int[] ids = new int[64];
+		private int size = 0;
+
+		int get(byte[] b, int from, int to, int hash) {
+			int mask = keys.length - 1;
+			for (int i = hash & mask ; ; i = (i + 1) & mask) {
+				byte[] key = keys[i];
+				if (key == null) {
+					return -1;
+				}
+				if (equals(key, b, from, to)) {
+					return ids[i];
+				}
+			}
+		}
+
+		void put(byte[] b, int from, int to, int hash, int id) {
+			if (size >= CACHE_SIZE) {
+				return;
+			}
+			if (2 * (size + 1) > keys.length) {
+				byte[][] oldKeys = keys;
+				int[] oldIds = ids;
+				keys = new byte[2 * oldKeys.length][];
+				ids = new int[2 * oldKeys.length];
+				for (int i = 0 ; i < oldKeys.length ; i++) {
+					if (oldKeys[i] != null) {
+						insert(oldKeys[i], hash(oldKeys[i], 0, oldKeys[i].length), oldIds[i]);
+					}
+				}
+			}
+			insert(Arrays.copyOfRange(b, from, to), hash, id);
+			size++;
+		}
+
+		private void insert(byte[] key, int hash, int id) {
+			int mask = keys.length - 1;
+			int i = hash & mask;
+			while (keys[i] != null) {
+				i = (i + 1) & mask;
+			}
+			keys[i] = key;
+			ids[i] = id;
+		}
+
+		static int hash(byte[] b, int from, int to) {
+			int h = 0;
+			for (int i = from ; i < to ; i++) {
+				h = 31 * h + b[i];
+			}
+			return h ^ (h >>> 16);
+		}
+
+		private static boolean equals(byte[] key, byte[] b, int from, int to) {
+			if (key.length != to - from) {
+				return false;
+			}
+			for (int i = 0 ; i < key.length ; i++) {
+				if (key[i] != b[from + i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * The rows of a chunk, in tables ready to be published
+	 */
+	private static class Chunk {
+		private final ShapeTable[] tables;
+		private final PropertyCatalog.Summary[] summaries;
+		private final int rows;
+
+		Chunk(ShapeTable[] tables, int rows) {
+			this.tables = tables;
+			this.summaries = PropertyCatalog.summarize(tables);
+			this.rows = rows;
+		}
+	}
+
+	/**
+	 * The value ids of the rows of a chunk defining the same cells
+	 */
+	private static class TableBuilder {
+		private final Shape shape;
+		private int[] values;
+		private int size = 0;
+
+		TableBuilder(Shape shape) {
+			this.shape = shape;
+			this.values = new int[64 * Math.max(1, shape.props.length)];
+		}
+
+		void add(int[] ids, int count) {
+			if (size + count > values.length) {
+				values = Arrays.copyOf(values, Math.max(2 * values.length, size + count));
+			}
+			System.arraycopy(ids, 0, values, size, count);
+			size += count;
+		}
+
+		ShapeTable build() {
+			int width = shape.props.length;
+			return new ShapeTable(shape, size / width, Arrays.copyOf(values, size));
+		}
+	}
+
+	/**
+	 * Parses the lines of a chunk into the tables of their data points,
+	 * without going through InternalDataPoints
+	 */
+	private static class ChunkParser implements Callable<Chunk> {
+		private final SmartDataPointCollector db;
+		private final byte[] buffer;
+		private final int start;
+		private final int end;
+		private final int columns;
+		private final InternalProperty[] properties;
+		private final Tokenizer tokenizer;
+		// the imported columns, by increasing property id
+		private final int[] order;
+		private final CellCache[] caches;
+		// the value of the last cell recognized as a number
+		private double number;
+
+		ChunkParser(SmartDataPointCollector db, byte[] buffer, int start, int end, byte separator, int columns, InternalProperty[] properties) {
+			this.db = db;
+			this.buffer = buffer;
+			this.start = start;
+			this.end = end;
+			this.columns = columns;
+			this.properties = properties;
+			this.tokenizer = new Tokenizer(separator);
+			ArrayList<Integer> imported = new ArrayList<Integer>();
+			for (int i = 0 ; i < columns ; i++) {
+				if (properties[i] != null) {
+					imported.add(i);
+				}
+			}
+			imported.sort((a, b) -> properties[a].id - properties[b].id);
+			order = new int[imported.size()];
+			for (int i = 0 ; i < order.length ; i++) {
+				order[i] = imported.get(i);
+			}
+			caches = new CellCache[columns];
+		}
+
+		@Override
+		public Chunk call() throws IOException {
+			IngestContext context = new IngestContext();
+			LinkedHashMap<Shape, TableBuilder> builders = new LinkedHashMap<Shape, TableBuilder>();
+			int[] props = new int[order.length];
+			int[] values = new int[order.length];
+			TableBuilder last = null;
+			int rows = 0;
+			int pos = start;
+			while (pos < end) {
+				int eol = indexOf(buffer, pos, end);
+				if (eol < 0) {
+					eol = end;
+				}
+				int lineEnd = lineEnd(buffer, pos, eol);
+				if (lineEnd > pos) {
+					int cells = tokenizer.split(buffer, pos, lineEnd);
+					if (cells > columns) {
+						throw new IOException("A line has " + cells + " cells but the header " + columns + ": "
+								+ new String(buffer, pos, lineEnd - pos, StandardCharsets.UTF_8));
+					}
+					int defined = 0;
+					for (int i = 0 ; i < order.length ; i++) {
+						int column = order[i];
+						int id = (column < cells) ? valueId(column) : -1;
+						if (id >= 0) {
+							props[defined] = properties[column].id;
+							values[defined++] = id;
+						}
+					}
+					if (defined > 0) {
+						if (last == null || last.shape.props.length != defined || !startsWith(props, last.shape.props)) {
+							Shape shape = db.internShape(Arrays.copyOf(props, defined), context);
+							last = builders.get(shape);
+							if (last == null) {
+								last = new TableBuilder(shape);
+								builders.put(shape, last);
+							}
+						}
+						last.add(values, defined);
+						rows++;
+					}
+				}
+				pos = eol + 1;
+			}
+			ShapeTable[] tables = new ShapeTable[builders.size()];
+			int i = 0;
+			for (TableBuilder b : builders.values()) {
+				tables[i++] = b.build();
+			}
+			return new Chunk(tables, rows);
+		}
+
+		private static boolean startsWith(int[] a, int[] prefix) {
+			for (int i = 0 ; i < prefix.length ; i++) {
+				if (a[i] != prefix[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+		/**
+		 * @return the id of the value of the cell of this column, -1 if it
+		 * is empty
+		 */
+		private int valueId(int column) {
+			byte[] b = tokenizer.sources[column];
+			int from = tokenizer.starts[column];
+			int to = tokenizer.ends[column];
+			if (from == to) {
+				return -1;
+			}
+			CellCache cache = caches[column];
+			if (cache == null) {
+				cache = caches[column] = new CellCache();
+			}
+			int hash = CellCache.hash(b, from, to);
+			int id = cache.get(b, from, to, hash);
+			if (id < 0) {
+				InternalProperty ip = properties[column];
+				if (parseNumber(b, from, to)) {
+					id = ip.getNumberValueId(number);
+				} else {
+					id = ip.getStringValueId(new String(b, from, to - from, StandardCharsets.UTF_8));
+				}
+				cache.put(b, from, to, hash, id);
+			}
+			return id;
+		}
+
+		/**
+		 * @return true if Float.parseFloat accepts the cell, its value, as
+		 * read by Double.parseDouble, being then in number. Decimals of at
+		 * most 19 digits are converted here, the others are validated here
+		 * and converted by Double.parseDouble.
+		 */
+		private boolean parseNumber(byte[] b, int from, int to) {
+			while (from < to && (b[from] & 0xFF) <= ' ') {
+				from++;
+			}
+			while (to > from && (b[to - 1] & 0xFF) <= ' ') {
+				to--;
+			}
+			int pos = from;
+			boolean negative = false;
+			if (pos < to && (b[pos] == '-' || b[pos] == '+')) {
+				negative = b[pos++] == '-';
+			}
+			if (pos == to) {
+				return false;
+			}
+			if (b[pos] == 'N' || b[pos] == 'I') {
+				String rest = new String(b, pos, to - pos, StandardCharsets.ISO_8859_1);
+				if (rest.equals("NaN") || rest.equals("Infinity")) {
+					return slowParse(b, from, to);
+				}
+				return false;
+			}
+			if (b[pos] == '0' && pos + 1 < to && (b[pos + 1] == 'x' || b[pos + 1] == 'X')) {
+				// hexadecimal, too rare to be worth validating here
+				try {
+					number = Double.parseDouble(new String(b, from, to - from, StandardCharsets.ISO_8859_1));
+					return true;
+				}
+				catch (NumberFormatException e) {
+					return false;
+				}
+			}
+			long mantissa = 0;
+			int significant = 0;
+			int scale = 0;
+			int digits = 0;
+			while (pos < to && b[pos] >= '0' && b[pos] <= '9') {
+				if (mantissa != 0 || b[pos] != '0') {
+					if (significant < 19) {
+						mantissa = 10 * mantissa + (b[pos] - '0');
+					} else {
+						scale++;
+					}
+					significant++;
+				}
+				digits++;
+				pos++;
+			}
+			if (pos < to && b[pos] == '.') {
+				pos++;
+				while (pos < to && b[pos] >= '0' && b[pos] <= '9') {
+					if (mantissa != 0 || b[pos] != '0') {
+						if (significant < 19) {
+							mantissa = 10 * mantissa + (b[pos] - '0');
+							scale--;
+						}
+						significant++;
+					} else {
+						scale--;
+					}
+					digits++;
+					pos++;
+				}
+			}
+			if (digits == 0) {
+				return false;
+			}
+			if (pos < to && (b[pos] == 'e' || b[pos] == 'E')) {
+				pos++;
+				boolean negativeExponent = false;
+				if (pos < to && (b[pos] == '-' || b[pos] == '+')) {
+					negativeExponent = b[pos++] == '-';
+				}
+				int exponent = 0;
+				int exponentDigits = 0;
+				while (pos < to && b[pos] >= '0' && b[pos] <= '9') {
+					exponent = Math.min(100000, 10 * exponent + (b[pos++] - '0'));
+					exponentDigits++;
+				}
+				if (exponentDigits == 0) {
+					return false;
+				}
+				scale += negativeExponent ? -exponent : exponent;
+			}
+			if (pos < to) {
+				if (pos + 1 == to && "fFdD".indexOf(b[pos]) >= 0) {
+					return slowParse(b, from, to);
+				}
+				return false;
+			}
+			if (significant > 19) {
+				return slowParse(b, from, to);
+			}
+			double v;
+			if (Long.compareUnsigned(mantissa, 1L << 53) < 0 && scale >= -22 && scale <= 22) {
+				// both are exact, so is the result once rounded
+				v = mantissa;
+				v = (scale < 0) ? v / POWERS_OF_TEN[-scale] : v * POWERS_OF_TEN[scale];
+			} else {
+				v = eiselLemire(mantissa, scale);
+				if (Double.isNaN(v)) {
+					return slowParse(b, from, to);
+				}
+			}
+			number = negative ? -v : v;
+			return true;
+		}
+
+		/**
+		 * The algorithm of Eisel and Lemire: the mantissa times the 128 first
+		 * bits of the power of ten gives the 54 first bits of the result,
+		 * and the rounding is correct unless these bits are too close to a
+		 * half-way point, which is rare.
+		 * @return the double closest to mantissa (unsigned) x
+		 * 10^exponent, NaN if it cannot be decided here
+		 */
+		private static double eiselLemire(long mantissa, int exponent) {
+			if (mantissa == 0) {
+				return 0;
+			}
+			if (exponent < MIN_EXPONENT || exponent > MAX_EXPONENT) {
+				return Double.NaN;
+			}
+			int zeros = Long.numberOfLeadingZeros(mantissa);
+			mantissa <<= zeros;
+			long exponent2 = ((217706 * exponent) >> 16) + 64 + 1023 - zeros;
+			long powerHigh = POWERS_HIGH[exponent - MIN_EXPONENT];
+			long high = multiplyHigh(mantissa, powerHigh);
+			long low = mantissa * powerHigh;
+			if ((high & 0x1FF) == 0x1FF && Long.compareUnsigned(low + mantissa, mantissa) < 0) {
+				long powerLow = POWERS_LOW[exponent - MIN_EXPONENT];
+				long lowHigh = multiplyHigh(mantissa, powerLow);
+				long lowLow = mantissa * powerLow;
+				long mergedHigh = high;
+				long mergedLow = low + lowHigh;
+				if (Long.compareUnsigned(mergedLow, low) < 0) {
+					mergedHigh++;
+				}
+				if ((mergedHigh & 0x1FF) == 0x1FF && mergedLow + 1 == 0 && Long.compareUnsigned(lowLow + mantissa, mantissa) < 0) {
+					return Double.NaN;
+				}
+				high = mergedHigh;
+				low = mergedLow;
+			}
+			long msb = high >>> 63;
+			long bits = high >>> (msb + 9);
+			exponent2 -= 1 ^ msb;
+			if (low == 0 && (high & 0x1FF) == 0 && (bits & 3) == 1) {
+				return Double.NaN;
+			}
+			bits += bits & 1;
+			bits >>>= 1;
+			if ((bits >>> 53) > 0) {
+				bits >>>= 1;
+				exponent2++;
+			}
+			if (exponent2 <= 0 || exponent2 >= 0x7FF) {
+				// subnormal or infinite
+				return Double.NaN;
+			}
+			return Double.longBitsToDouble((exponent2 << 52) | (bits & 0x000FFFFFFFFFFFFFL));
+		}
+
+		/**
+		 * @return the 64 high bits of the unsigned product
+		 */
+		private static long multiplyHigh(long x, long y) {
+			long x0 = x & 0xFFFFFFFFL;
+			long x1 = x >>> 32;
+			long y0 = y & 0xFFFFFFFFL;
+			long y1 = y >>> 32;
+			long p01 = x0 * y1;
+			long middle = x1 * y0 + ((x0 * y0) >>> 32) + (p01 & 0xFFFFFFFFL);
+			return x1 * y1 + (middle >>> 32) + (p01 >>> 32);
+		}
+
+		private boolean slowParse(byte[] b, int from, int to) {
+			number = Double.parseDouble(new String(b, from, to - from, StandardCharsets.ISO_8859_1));
+			return true;
+		}
+	}
+}
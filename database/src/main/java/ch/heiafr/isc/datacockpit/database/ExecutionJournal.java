@@ -0,0 +1,734 @@
+/*
+ * This file is part of one of the Data-Cockpit libraries.
+ * 
+ * Copyright (C) 2024 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE (EPFL)
+ * 
+ * Author - Sébastien Rumley (sebastien.rumley@hefr.ch)
+ * 
+ * This open source release is made with the authorization of the EPFL,
+ * the institution where the author was originally employed.
+ * The author is currently affiliated with the HEIA-FR, which is the actual publisher.
+ * 
+ * The Data-Cockpit program is free software, you can redistribute it and/or modify
+ * it under the terms of GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The Data-Cockpit program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ * Contributor list -
+ */
+package ch.heiafr.isc.datacockpit.database;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of the executions added to a SmartDataPointCollector,
+ * from which the collector is rebuilt after a crash. The layout of the file
+ * is
+ * <pre>
+ * file    : MAGIC VERSION record*
+ * record  : length crc32 payload
+ * payload : stream executions (dataPoints (properties (property value)*)*)*
+ * property: id*2 | id*2+1 name unit flags
+ * value   : id*2 | id*2+1 (NUMBER double | STRING string)
+ * </pre>
+ * The data points are logged as the ids of their properties and values in
+ * the collector, once these are resolved. Each appending thread writes its
+ * records in its own stream, and the first time a stream uses a property or
+ * a value, the id is odd and followed by the name of the property or by the
+ * value. A stream only relies on what it defined itself, which precedes its
+ * use in the file whatever the order in which the threads append. Ids and
+ * counts are variable-length ints and strings are UTF-8, their length being
+ * 0 for null and 1 + the number of bytes otherwise.
+ * <p>
+ * Each appending thread encodes its records in a buffer of its own, under a
+ * lock that only the writer thread shares. The writer thread swaps these
+ * buffers for empty ones, writes them and forces the file to the disk every
+ * syncMillis or as soon as a thread has syncRecords records waiting (group
+ * commit): append does not wait for the disk nor for the other threads, and
+ * a crash loses at most the records of the last period. A record cut by a
+ * crash is detected by its length or checksum, and dropped when the journal
+ * is opened again.
+ */
+class ExecutionJournal implements Closeable {
+
+	static final int MAGIC = 0x44434A4C;
+	static final int VERSION = 1;
+	private static final int HEADER = 8;
+	private static final byte RESULT = 1;
+	private static final byte NUMBER = 0;
+	private static final byte STRING = 1;
+
+	// an appending thread waits beyond this number of its bytes not written yet
+	static final int MAX_PENDING = 16 << 20;
+	// the executions published at once while replaying
+	private static final int REPLAY_BATCH = 1000;
+
+	/**
+	 * A growing byte array, not synchronized unlike ByteArrayOutputStream
+	 */
+	private static class Buffer {
+		private byte[] buf;
+		private int count = 0;
+
+		Buffer(int size) {
+			buf = new byte[size];
+		}
+
+		void write(int b) {
+			if (count == buf.length) {
+				buf = Arrays.copyOf(buf, 2 * buf.length);
+			}
+			buf[count++] = (byte)b;
+		}
+
+		void write(byte[] b, int offset, int length) {
+			if (count + length > buf.length) {
+				buf = Arrays.copyOf(buf, Math.max(2 * buf.length, count + length));
+			}
+			System.arraycopy(b, offset, buf, count, length);
+			count += length;
+		}
+
+		private void ensure(int length) {
+			if (count + length > buf.length) {
+				buf = Arrays.copyOf(buf, Math.max(2 * buf.length, count + length));
+			}
+		}
+
+		void writeInt(int v) {
+			ensure(5);
+			byte[] b = buf;
+			int c = count;
+			while ((v & ~0x7F) != 0) {
+				b[c++] = (byte)((v & 0x7F) | 0x80);
+				v >>>= 7;
+			}
+			b[c++] = (byte)v;
+			count = c;
+		}
+
+		void writeDouble(double d) {
+			ensure(8);
+			long bits = Double.doubleToRawLongBits(d);
+			for (int shift = 56 ; shift >= 0 ; shift -= 8) {
+				buf[count++] = (byte)(bits >>> shift);
+			}
+		}
+
+		void writeString(String s) {
+			if (s == null) {
+				writeInt(0);
+				return;
+			}
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			writeInt(bytes.length + 1);
+			write(bytes, 0, bytes.length);
+		}
+
+		byte[] array() {
+			return buf;
+		}
+
+		int size() {
+			return count;
+		}
+
+		void reset() {
+			count = 0;
+		}
+
+		/**
+		 * Drops the bytes written from this size on
+		 */
+		void truncate(int size) {
+			count = size;
+		}
+
+		void shrink(int max) {
+			if (buf.length > max) {
+				buf = new byte[1 << 12];
+				count = 0;
+			}
+		}
+	}
+
+	/**
+	 * The stream of a thread, with the properties and values it defined and
+	 * its records not written yet. Its monitor guards the records and the
+	 * counts, and is only shared with the writer thread.
+	 */
+	private static class Encoder {
+		final CRC32 crc = new CRC32();
+		final int stream;
+		// per property id, the ids of the values defined, null if the property is not
+		BitSet[] defined = new BitSet[0];
+		// the properties are defined again in the records of a truncated journal
+		int epoch;
+		// the records appended and not taken by the writer, and the buffer
+		// the writer fills them with
+		Buffer pending = new Buffer(1 << 12);
+		Buffer spare = new Buffer(1 << 12);
+		int pendingRecords = 0;
+		long appended = 0;
+		// the number of records on the disk, set by the writer
+		volatile long written = 0;
+
+		Encoder(int stream, int epoch) {
+			this.stream = stream;
+			this.epoch = epoch;
+		}
+
+		/**
+		 * Encodes the executions as a record at the end of the pending
+		 * buffer, its length and checksum being set once the payload is
+		 */
+		void encode(InternalExecution[] executions, InternalProperty[] byId) {
+			Buffer out = pending;
+			int start = out.size();
+			out.write(HEADER_ROOM, 0, 8);
+			out.writeInt(stream);
+			out.writeInt(executions.length);
+			for (InternalExecution e : executions) {
+				out.writeInt(e.dataPoints.size());
+				for (InternalDataPoint dp : e.dataPoints) {
+					int[] props = dp.shape.props;
+					int[] values = dp.values;
+					out.writeInt(props.length);
+					for (int k = 0 ; k < props.length ; k++) {
+						int p = props[k];
+						int v = values[k];
+						if (p >= defined.length) {
+							defined = Arrays.copyOf(defined, Math.max(p + 1, 2 * defined.length));
+						}
+						BitSet ids = defined[p];
+						if (ids == null) {
+							InternalProperty ip = byId[p];
+							defined[p] = ids = new BitSet();
+							out.writeInt(2 * p + 1);
+							out.writeString(ip.name);
+							out.writeString(ip.unit);
+							out.write(ip.isResult() ? RESULT : 0);
+						} else {
+							out.writeInt(2 * p);
+						}
+						if (ids.get(v)) {
+							out.writeInt(2 * v);
+						} else {
+							ids.set(v);
+							out.writeInt(2 * v + 1);
+							InternalProperty ip = byId[p];
+							if (ip.isStringValue(v)) {
+								out.write(STRING);
+								out.writeString(ip.getValueString(v));
+							} else {
+								out.write(NUMBER);
+								out.writeDouble(ip.getDouble(v));
+							}
+						}
+					}
+				}
+			}
+			byte[] bytes = out.array();
+			int length = out.size() - start - 8;
+			crc.reset();
+			crc.update(bytes, start + 8, length);
+			ByteBuffer.wrap(bytes, start, 8).putInt(length).putInt((int)crc.getValue());
+		}
+
+		void clear(int epoch) {
+			defined = new BitSet[0];
+			this.epoch = epoch;
+		}
+	}
+
+	/**
+	 * What a stream defined, while replaying, with the ids given again by
+	 * the collector
+	 */
+	private static class Decoder {
+		InternalProperty[] properties = new InternalProperty[0];
+		int[][] values = new int[0][];
+	}
+
+	private static final byte[] HEADER_ROOM = new byte[8];
+
+	private final File file;
+	private final FileChannel channel;
+	private final SmartDataPointCollector db;
+	private final long syncMillis;
+	private final int syncRecords;
+	private final Thread writer;
+	private final int replayed;
+
+	// notified by the writer after each write
+	private final Object progress = new Object();
+	// the writer is woken up before the end of the period
+	private volatile boolean wakeUp = false;
+	// incremented by truncate, the streams then define their properties again
+	private volatile int epoch = 0;
+	private volatile boolean closed = false;
+	private volatile IOException failure = null;
+
+	private final AtomicInteger streams;
+	// the encoders of the threads that appended, copied on write
+	private volatile Encoder[] registered = new Encoder[0];
+	private final ThreadLocal<Encoder> encoders = new ThreadLocal<Encoder>() {
+		@Override
+		protected Encoder initialValue() {
+			Encoder e = new Encoder(streams.getAndIncrement(), epoch);
+			synchronized (progress) {
+				Encoder[] r = Arrays.copyOf(registered, registered.length + 1);
+				r[r.length - 1] = e;
+				registered = r;
+			}
+			return e;
+		}
+	};
+
+	private ExecutionJournal(File file, FileChannel channel, SmartDataPointCollector db, long syncMillis, int syncRecords, int replayed, int streams) {
+		this.file = file;
+		this.channel = channel;
+		this.db = db;
+		this.syncMillis = syncMillis;
+		this.syncRecords = syncRecords;
+		this.replayed = replayed;
+		this.streams = new AtomicInteger(streams);
+		this.writer = new Thread("Journal writer of " + file.getName()) {
+			@Override
+			public void run() {
+				write();
+			}
+		};
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Opens the journal for appending, after adding the executions it
+	 * already holds to the collector and cutting the record a crash may have
+	 * left incomplete. The file is created if needed.
+	 * @param syncMillis the longest time between two forces to the disk
+	 * @param syncRecords the number of records triggering a force earlier
+	 * @param readBack false if the executions of the journal are already in
+	 * the collector, they are then only skipped
+	 */
+	static ExecutionJournal open(File f, SmartDataPointCollector db, long syncMillis, int syncRecords, boolean readBack) throws IOException {
+		if (syncMillis <= 0 || syncRecords <= 0) {
+			throw new IllegalArgumentException("The sync period and the number of records must be positive");
+		}
+		int replayed = 0;
+		long end = 0;
+		int streams = 0;
+		if (f.exists() && f.length() >= HEADER) {
+			long[] result = replay(f, db, readBack);
+			replayed = (int)result[0];
+			end = result[1];
+			streams = (int)result[2];
+		}
+		RandomAccessFile raf = new RandomAccessFile(f, "rw");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (end == 0) {
+				ByteBuffer header = ByteBuffer.allocate(HEADER);
+				header.putInt(MAGIC).putInt(VERSION).flip();
+				channel.truncate(0);
+				channel.write(header, 0);
+				end = HEADER;
+			} else {
+				channel.truncate(end);
+			}
+			channel.force(true);
+			channel.position(end);
+			// the threads appending from now on get new streams
+			return new ExecutionJournal(f, channel, db, syncMillis, syncRecords, replayed, streams);
+		}
+		catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the number of executions, the position of the end of the last
+	 * complete record and the number of streams
+	 */
+	private static long[] replay(File f, SmartDataPointCollector db, boolean readBack) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1 << 16))) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException(f + " is not an execution journal");
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported version " + version + " of " + f);
+			}
+			long end = HEADER;
+			long fileLength = f.length();
+			int replayed = 0;
+			CRC32 crc = new CRC32();
+			byte[] payload = new byte[1 << 12];
+			HashMap<Integer, Decoder> streams = new HashMap<Integer, Decoder>();
+			int maxStream = -1;
+			IngestContext context = new IngestContext();
+			List<InternalExecution> batch = new ArrayList<InternalExecution>();
+			int dataPoints = 0;
+			while (true) {
+				int length;
+				int checksum;
+				try {
+					length = in.readInt();
+					checksum = in.readInt();
+					if (length < 0 || end + 8 + length > fileLength) {
+						break;
+					}
+					if (payload.length < length) {
+						payload = new byte[length];
+					}
+					in.readFully(payload, 0, length);
+				}
+				catch (EOFException e) {
+					break;
+				}
+				crc.reset();
+				crc.update(payload, 0, length);
+				if ((int)crc.getValue() != checksum) {
+					break;
+				}
+				ByteBuffer record = ByteBuffer.wrap(payload, 0, length);
+				int stream = readInt(record);
+				maxStream = Math.max(maxStream, stream);
+				Decoder decoder = streams.get(stream);
+				if (decoder == null) {
+					decoder = new Decoder();
+					streams.put(stream, decoder);
+				}
+				int executions = readInt(record);
+				if (!readBack) {
+					end += 8 + length;
+					continue;
+				}
+				for (int i = 0 ; i < executions ; i++) {
+					InternalExecution e = decode(record, decoder, db, context);
+					dataPoints += e.dataPoints.size();
+					batch.add(e);
+				}
+				replayed += executions;
+				if (batch.size() >= REPLAY_BATCH) {
+					db.publishReplayed(batch.toArray(new InternalExecution[batch.size()]), dataPoints);
+					batch.clear();
+					dataPoints = 0;
+				}
+				end += 8 + length;
+			}
+			if (batch.size() > 0) {
+				db.publishReplayed(batch.toArray(new InternalExecution[batch.size()]), dataPoints);
+			}
+			return new long[]{replayed, end, maxStream + 1};
+		}
+	}
+
+	private static InternalExecution decode(ByteBuffer in, Decoder decoder, SmartDataPointCollector db, IngestContext context) {
+		int count = readInt(in);
+		InternalDataPoint[] dataPoints = new InternalDataPoint[count];
+		for (int i = 0 ; i < count ; i++) {
+			int width = readInt(in);
+			InternalProperty[] props = new InternalProperty[width];
+			int[] values = new int[width];
+			for (int k = 0 ; k < width ; k++) {
+				int ref = readInt(in);
+				int p = ref >>> 1;
+				if (p >= decoder.properties.length) {
+					int size = Math.max(p + 1, 2 * decoder.properties.length);
+					decoder.properties = Arrays.copyOf(decoder.properties, size);
+					decoder.values = Arrays.copyOf(decoder.values, size);
+				}
+				if ((ref & 1) != 0) {
+					String name = readString(in);
+					String unit = readString(in);
+					decoder.properties[p] = db.registerProperty(name, unit, in.get() == RESULT);
+					decoder.values[p] = new int[4];
+				}
+				InternalProperty ip = decoder.properties[p];
+				ref = readInt(in);
+				int v = ref >>> 1;
+				if ((ref & 1) != 0) {
+					if (v >= decoder.values[p].length) {
+						decoder.values[p] = Arrays.copyOf(decoder.values[p], Math.max(v + 1, 2 * decoder.values[p].length));
+					}
+					if (in.get() == STRING) {
+						decoder.values[p][v] = ip.getStringValueId(readString(in));
+					} else {
+						decoder.values[p][v] = ip.getNumberValueId(in.getDouble());
+					}
+				}
+				props[k] = ip;
+				values[k] = decoder.values[p][v];
+			}
+			dataPoints[i] = new InternalDataPoint(db, props, values, context);
+		}
+		return new InternalExecution(dataPoints);
+	}
+
+	/**
+	 * @return the number of executions read back when the journal was opened
+	 */
+	int getNumberOfReplayedExecutions() {
+		return replayed;
+	}
+
+	/**
+	 * Appends the executions as one record. The record is on the disk at
+	 * the latest syncMillis later, or after a call to sync.
+	 */
+	void append(InternalExecution... executions) {
+		Encoder encoder = encoders.get();
+		while (true) {
+			synchronized (encoder) {
+				checkOpen();
+				if (encoder.pending.size() <= MAX_PENDING) {
+					int current = epoch;
+					if (encoder.epoch != current) {
+						// truncated, the properties are defined again
+						encoder.clear(current);
+					}
+					int mark = encoder.pending.size();
+					try {
+						// read after the executions, their properties are there
+						encoder.encode(executions, db.propById);
+					}
+					catch (RuntimeException e) {
+						// the record is dropped, and what it defined with it
+						encoder.pending.truncate(mark);
+						encoder.clear(current);
+						throw e;
+					}
+					encoder.appended++;
+					if (++encoder.pendingRecords == syncRecords) {
+						wakeUp();
+					}
+					return;
+				}
+			}
+			// the writer is late, the record waits for room
+			wakeUp();
+			waitForProgress();
+		}
+	}
+
+	/**
+	 * Waits until the records appended so far are on the disk
+	 */
+	void sync() throws IOException {
+		Encoder[] r = registered;
+		long[] targets = new long[r.length];
+		for (int i = 0 ; i < r.length ; i++) {
+			synchronized (r[i]) {
+				targets[i] = r[i].appended;
+			}
+		}
+		wakeUp();
+		for (int i = 0 ; i < r.length ; i++) {
+			while (r[i].written < targets[i] && failure == null && writer.isAlive()) {
+				waitForProgress();
+			}
+		}
+		if (failure != null) {
+			throw new IOException("The journal " + file + " cannot be written", failure);
+		}
+	}
+
+	/**
+	 * Discards the records written so far, when the collector is cleared
+	 */
+	void truncate() throws IOException {
+		// the writer holds the channel while it takes and writes the records
+		synchronized (channel) {
+			checkOpen();
+			epoch++;
+			for (Encoder e : registered) {
+				synchronized (e) {
+					// the records not written yet are dropped
+					e.pending.reset();
+					e.pendingRecords = 0;
+					e.written = e.appended;
+				}
+			}
+			channel.truncate(HEADER);
+			channel.position(HEADER);
+			channel.force(true);
+		}
+		notifyProgress();
+	}
+
+	/**
+	 * Writes the records appended so far and closes the file
+	 */
+	public void close() throws IOException {
+		synchronized (progress) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+		}
+		// the threads appending now are done before the last write, and the
+		// following ones see the journal closed
+		for (Encoder e : registered) {
+			synchronized (e) {
+				// nothing, the append holding the stream is over
+			}
+		}
+		LockSupport.unpark(writer);
+		try {
+			writer.join();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		channel.close();
+		if (failure != null) {
+			throw new IOException("The journal " + file + " cannot be written", failure);
+		}
+	}
+
+	private void checkOpen() {
+		if (failure != null) {
+			throw new IllegalStateException("The journal " + file + " cannot be written", failure);
+		}
+		if (closed) {
+			throw new IllegalStateException("The journal " + file + " is closed");
+		}
+	}
+
+	private void wakeUp() {
+		wakeUp = true;
+		LockSupport.unpark(writer);
+	}
+
+	private void waitForProgress() {
+		synchronized (progress) {
+			try {
+				// bounded, a notification may come before the wait
+				progress.wait(10);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for the journal", e);
+			}
+		}
+	}
+
+	/**
+	 * The loop of the writer thread, which takes the pending records of the
+	 * streams at each period or as soon as it is woken up
+	 */
+	private void write() {
+		ArrayList<ByteBuffer> records = new ArrayList<ByteBuffer>();
+		long[] counts = new long[0];
+		while (true) {
+			long deadline = System.nanoTime() + syncMillis * 1000000;
+			long wait;
+			while (!closed && !wakeUp && (wait = deadline - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(this, wait);
+			}
+			wakeUp = false;
+			boolean last = closed;
+			Encoder[] r = registered;
+			if (counts.length < r.length) {
+				counts = new long[r.length];
+			}
+			try {
+				synchronized (channel) {
+					records.clear();
+					for (int i = 0 ; i < r.length ; i++) {
+						Encoder e = r[i];
+						synchronized (e) {
+							Buffer b = e.pending;
+							e.pending = e.spare;
+							e.spare = b;
+							e.pendingRecords = 0;
+							counts[i] = e.appended;
+						}
+						// only the writer uses the spare buffer
+						if (e.spare.size() > 0) {
+							records.add(ByteBuffer.wrap(e.spare.array(), 0, e.spare.size()));
+						}
+					}
+					if (records.size() > 0) {
+						ByteBuffer[] b = records.toArray(new ByteBuffer[records.size()]);
+						while (b[b.length - 1].hasRemaining()) {
+							channel.write(b);
+						}
+						channel.force(false);
+					}
+				}
+			}
+			catch (IOException e) {
+				failure = e;
+				notifyProgress();
+				return;
+			}
+			for (int i = 0 ; i < r.length ; i++) {
+				r[i].spare.reset();
+				// a large record does not stay attached to the stream
+				r[i].spare.shrink(1 << 20);
+				r[i].written = Math.max(r[i].written, counts[i]);
+			}
+			notifyProgress();
+			if (last) {
+				return;
+			}
+		}
+	}
+
+	private void notifyProgress() {
+		synchronized (progress) {
+			progress.notifyAll();
+		}
+	}
+
+	private static int readInt(ByteBuffer in) {
+		int v = 0;
+		for (int shift = 0 ; ; shift += 7) {
+			byte b = in.get();
+			v |= (b & 0x7F) << shift;
+			if (b >= 0) {
+				return v;
+			}
+		}
+	}
+
+	private static String readString(ByteBuffer in) {
+		int length = readInt(in) - 1;
+		if (length < 0) {
+			return null;
+		}
+		String s = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+		in.position(in.position() + length);
+		return s;
+	}
+}
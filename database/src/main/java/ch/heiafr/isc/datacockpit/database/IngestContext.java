@@ -0,0 +1,146 @@
+/*
+ * This file is part of one of the Data-Cockpit libraries.
+ * 
+ * Copyright (C) 2024 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE (EPFL)
+ * 
+ * Author - Sébastien Rumley (sebastien.rumley@hefr.ch)
+ * 
+ * This open source release is made with the authorization of the EPFL,
+ * the institution where the author was originally employed.
+ * The author is currently affiliated with the HEIA-FR, which is the actual publisher.
+ * 
+ * The Data-Cockpit program is free software, you can redistribute it and/or modify
+ * it under the terms of GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The Data-Cockpit program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ * Contributor list -
+ */
+package ch.heiafr.isc.datacockpit.database;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * What a thread remembers between the data points it ingests: the properties
+ * it already resolved by name, the ids of the values it already resolved for
+ * each property, and the last shape it interned (consecutive data points
+ * usually define the same properties). The value ids of a property are
+ * assigned under its lock, which is then only taken for the values this
+ * thread did not see yet.
+ */
+class IngestContext {
+	final HashMap<String, InternalProperty> known = new HashMap<String, InternalProperty>();
+	Shape lastShape;
+	// indexed by property id
+	private ValueCache[] values = new ValueCache[8];
+
+	int getNumberValueId(InternalProperty ip, double value) {
+		ValueCache cache = cacheOf(ip);
+		int id = cache.get(value);
+		if (id < 0) {
+			id = ip.getNumberValueId(value);
+			cache.put(value, id);
+		}
+		return id;
+	}
+
+	int getStringValueId(InternalProperty ip, String value) {
+		ValueCache cache = cacheOf(ip);
+		Integer id = cache.strings.get(value);
+		if (id == null) {
+			id = ip.getStringValueId(value);
+			if (cache.strings.size() < ValueCache.MAX_SIZE) {
+				cache.strings.put(value, id);
+			}
+		}
+		return id;
+	}
+
+	private ValueCache cacheOf(InternalProperty ip) {
+		if (ip.id >= values.length) {
+			values = Arrays.copyOf(values, Math.max(ip.id + 1, 2 * values.length));
+		}
+		ValueCache cache = values[ip.id];
+		if (cache == null || cache.property != ip) {
+			cache = values[ip.id] = new ValueCache(ip);
+		}
+		return cache;
+	}
+
+	/**
+	 * The ids of the values of a property seen by a thread. Numbers are kept
+	 * in an open-addressing table of their bits, as in NumberDictionary.
+	 * Past MAX_SIZE values (typically a result property whose values rarely
+	 * repeat) new values are not remembered anymore.
+	 */
+	private static class ValueCache {
+		static final int MAX_SIZE = 4096;
+
+		final InternalProperty property;
+		final HashMap<String, Integer> strings = new HashMap<String, Integer>();
+		private long[] keys = new long[16];
+		// the id + 1 of the number in this slot, 0 if free
+		private int[] ids = new int[16];
+		private int size = 0;
+
+		ValueCache(InternalProperty property) {
+			this.property = property;
+		}
+
+		int get(double v) {
+			long bits = Double.doubleToLongBits(v);
+			int mask = ids.length - 1;
+			for (int i = hash(bits) & mask ; ids[i] != 0 ; i = (i + 1) & mask) {
+				if (keys[i] == bits) {
+					return ids[i] - 1;
+				}
+			}
+			return -1;
+		}
+
+		void put(double v, int id) {
+			if (size >= MAX_SIZE) {
+				return;
+			}
+			if (2 * (size + 1) > ids.length) {
+				long[] oldKeys = keys;
+				int[] oldIds = ids;
+				keys = new long[2 * oldKeys.length];
+				ids = new int[2 * oldIds.length];
+				for (int i = 0 ; i < oldIds.length ; i++) {
+					if (oldIds[i] != 0) {
+						insert(oldKeys[i], oldIds[i]);
+					}
+				}
+			}
+			insert(Double.doubleToLongBits(v), id + 1);
+			size++;
+		}
+
+		private void insert(long bits, int slot) {
+			int mask = ids.length - 1;
+			int i = hash(bits) & mask;
+			while (ids[i] != 0) {
+				i = (i + 1) & mask;
+			}
+			keys[i] = bits;
+			ids[i] = slot;
+		}
+
+		private static int hash(long bits) {
+			bits ^= bits >>> 33;
+			bits *= 0xff51afd7ed558ccdL;
+			bits ^= bits >>> 33;
+			return (int)bits;
+		}
+	}
+}
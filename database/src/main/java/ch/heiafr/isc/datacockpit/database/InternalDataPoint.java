@@ -0,0 +1,157 @@
+/*
+ * This file is part of one of the Data-Cockpit libraries.
+ * 
+ * Copyright (C) 2024 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE (EPFL)
+ * 
+ * Author - Sébastien Rumley (sebastien.rumley@hefr.ch)
+ * 
+ * This open source release is made with the authorization of the EPFL,
+ * the institution where the author was originally employed.
+ * The author is currently affiliated with the HEIA-FR, which is the actual publisher.
+ * 
+ * The Data-Cockpit program is free software, you can redistribute it and/or modify
+ * it under the terms of GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The Data-Cockpit program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ * Contributor list -
+ */
+package ch.heiafr.isc.datacockpit.database;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ch.heiafr.isc.datacockpit.general_libraries.results.*;
+
+/**
+ * A data point is stored as its shape, the properties it defines, and for
+ * each of them the id of its value in the dictionary of the property. Once
+ * sealed in a batch, only the value ids are kept, in the table of the shape.
+ */
+class InternalDataPoint implements Comparable<InternalDataPoint>, java.io.Serializable {
+	private static final long serialVersionUID = 3;
+
+
+	int id;
+
+	private static final AtomicInteger gloCounter = new AtomicInteger();
+
+	Shape shape;
+	int[] values;
+
+	public int compareTo(InternalDataPoint dp) {
+		return this.id - dp.id;
+	}
+
+	public InternalDataPoint(SmartDataPointCollector db, DataPoint dp, IngestContext context) {
+		super();
+		this.id = gloCounter.getAndIncrement();
+		List<Property> properties = dp.getProperties();
+		int[] props = new int[properties.size()];
+		int[] values = new int[properties.size()];
+		int size = 0;
+		for (Property p : properties) {
+			String value = p.getValue();
+			if (value == null) {
+				value = SmartDataPointCollector.NULL;
+			}
+			InternalProperty ip = context.known.get(p.getName());
+			if (ip == null) {
+				ip = db.registerProperty(p);
+				context.known.put(p.getName(), ip);
+			}
+			if (SmartDataPointCollector.usingDpHasRef) {
+				ip.addDataPointRef(this);
+			}
+
+			int valueId;
+			if (!p.isString()) {
+				valueId = context.getNumberValueId(ip, SmartDataPointCollector.numericValue(p));
+			} else {
+				valueId = context.getStringValueId(ip, value);
+			}
+			// insertion in the sorted id array, a property defined twice keeps its last value
+			int pos = Arrays.binarySearch(props, 0, size, ip.id);
+			if (pos >= 0) {
+				values[pos] = valueId;
+			} else {
+				pos = -pos - 1;
+				System.arraycopy(props, pos, props, pos + 1, size - pos);
+				System.arraycopy(values, pos, values, pos + 1, size - pos);
+				props[pos] = ip.id;
+				values[pos] = valueId;
+				size++;
+			}
+		}
+		this.shape = db.internShape((size == props.length) ? props : Arrays.copyOf(props, size), context);
+		this.values = (size == values.length) ? values : Arrays.copyOf(values, size);
+	}
+
+	/**
+	 * A data point of this shape, its value ids being in the order of the
+	 * shape
+	 */
+	InternalDataPoint(Shape shape, int[] values) {
+		this.id = gloCounter.getAndIncrement();
+		this.shape = shape;
+		this.values = values;
+	}
+
+	/**
+	 * A data point read back from a journal, its properties (each given
+	 * once) being in any order
+	 */
+	InternalDataPoint(SmartDataPointCollector db, InternalProperty[] properties, int[] valueIds, IngestContext context) {
+		this.id = gloCounter.getAndIncrement();
+		int size = properties.length;
+		int[] props = new int[size];
+		int[] values = new int[size];
+		// insertion sort, a data point has few properties
+		for (int i = 0 ; i < size ; i++) {
+			InternalProperty ip = properties[i];
+			if (SmartDataPointCollector.usingDpHasRef) {
+				ip.addDataPointRef(this);
+			}
+			int pos = i;
+			while (pos > 0 && props[pos - 1] > ip.id) {
+				props[pos] = props[pos - 1];
+				values[pos] = values[pos - 1];
+				pos--;
+			}
+			props[pos] = ip.id;
+			values[pos] = valueIds[i];
+		}
+		this.shape = db.internShape(props, context);
+		this.values = values;
+	}
+
+	/**
+	 * @return the id of the value of the given property, or -1 if this data point
+	 * does not define it
+	 */
+	public int getValueId(int propId) {
+		int pos = shape.positionOf(propId);
+		if (pos < 0) {
+			return -1;
+		}
+		return values[pos];
+	}
+
+	public boolean isDefinedForProperty(int propId) {
+		return shape.positionOf(propId) >= 0;
+	}
+
+	@Override
+	public String toString() {
+		return "DP:"+Arrays.toString(shape.props) + "," + Arrays.toString(values);
+	}
+}
@@ -0,0 +1,63 @@
+/*
+ * This file is part of one of the Data-Cockpit libraries.
+ * 
+ * Copyright (C) 2024 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE (EPFL)
+ * 
+ * Author - Sébastien Rumley (sebastien.rumley@hefr.ch)
+ * 
+ * This open source release is made with the authorization of the EPFL,
+ * the institution where the author was originally employed.
+ * The author is currently affiliated with the HEIA-FR, which is the actual publisher.
+ * 
+ * The Data-Cockpit program is free software, you can redistribute it and/or modify
+ * it under the terms of GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The Data-Cockpit program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ * Contributor list -
+ */
+package ch.heiafr.isc.datacockpit.database;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+
+import ch.heiafr.isc.datacockpit.general_libraries.results.*;
+
+class InternalExecution implements java.io.Serializable {
+
+	private static final long serialVersionUID = 1;
+
+	Vector<InternalDataPoint> dataPoints;
+
+	InternalExecution(InternalDataPoint[] dataPoints) {
+		this.dataPoints = new Vector<InternalDataPoint>(Arrays.asList(dataPoints));
+	}
+
+	public InternalExecution(SmartDataPointCollector db, Execution e, IngestContext context) {
+		
+		List<DataPoint> dpList = e.getDataPoints();
+		
+		int size = dpList.size();
+
+		dataPoints = new Vector<InternalDataPoint>(size, 1);
+		
+		for (int i = 0 ; i < size ; i++) {
+			dataPoints.add(new InternalDataPoint(db, dpList.get(i), context));
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "exec with " + dataPoints.size() + "dps (use toLongString())";
+	}
+
+}
@@ -0,0 +1,377 @@
+/*
+ * This file is part of one of the Data-Cockpit libraries.
+ * 
+ * Copyright (C) 2024 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE (EPFL)
+ * 
+ * Author - Sébastien Rumley (sebastien.rumley@hefr.ch)
+ * 
+ * This open source release is made with the authorization of the EPFL,
+ * the institution where the author was originally employed.
+ * The author is currently affiliated with the HEIA-FR, which is the actual publisher.
+ * 
+ * The Data-Cockpit program is free software, you can redistribute it and/or modify
+ * it under the terms of GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The Data-Cockpit program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ * Contributor list -
+ */
+package ch.heiafr.isc.datacockpit.database;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ch.heiafr.isc.datacockpit.general_libraries.results.*;
+import ch.heiafr.isc.datacockpit.database.io.ColumnarFileMap;
+import ch.heiafr.isc.datacockpit.database.io.ColumnarFileReader;
+import ch.heiafr.isc.datacockpit.database.io.ColumnarFileWriter;
+
+/**
+ * A property and the dictionary of its values. Each distinct value, numeric or
+ * not, gets a dense id, under which its string form (computed once) and its
+ * float value are kept.
+ */
+class InternalProperty implements java.io.Serializable {
+
+	private static final long serialVersionUID = 6;
+
+	// hashed for a constant ingest cost, sorted only when the values are listed
+	private HashMap<String,Integer> valuesString = new HashMap<String,Integer>();
+	private NumberDictionary valuesNumber = new NumberDictionary();
+	// per value id, the string (null for numbers) and the number
+	private ArrayList<String> idToString = new ArrayList<String>();
+	private NumberArray idToNumber = new NumberArray(4);
+	private BitSet stringIds = new BitSet();
+	// sorted values and numeric range, computed again once a value is added
+	private transient ValueSummary summary = null;
+	// the values in a mapped file, not read yet
+	private transient ColumnarFileMap.PropertyEntry pending = null;
+	TreeSet<InternalDataPoint> dpHavingThisProp;
+
+	// test for avoiding null entries
+	Map<String, InternalProperty> relatedProperties = new ConcurrentHashMap<String, InternalProperty>();
+
+	byte flags = 0;
+	final int id;
+
+	public InternalProperty(Property p, int id) {
+		this(p.getName(), p.getUnit(), p instanceof ResultProperty, id);
+	}
+
+	InternalProperty(String name, String unit, boolean result, int id) {
+		if (result) {
+			flags |= 1;
+		}
+		if (SmartDataPointCollector.usingDpHasRef) {
+			this.dpHavingThisProp = new TreeSet<InternalDataPoint>();
+		}
+		this.name = name;
+		this.unit = unit;
+		this.id = id;
+	}
+
+	/**
+	 * Sets the values of the property to be read from a mapped file the
+	 * first time they are needed
+	 */
+	synchronized void setPendingValues(ColumnarFileMap.PropertyEntry entry) {
+		pending = entry;
+		if (entry.hasStrings()) {
+			flags |= 2;
+		}
+	}
+
+	private void readPendingValues() {
+		final ColumnarFileMap.PropertyEntry entry = pending;
+		if (entry == null) {
+			return;
+		}
+		pending = null;
+		entry.readValues(new ColumnarFileReader.ValueVisitor() {
+			private int valueId = 0;
+
+			public void numberValue(double value) {
+				checkId(getNumberValueId(value));
+			}
+
+			public void stringValue(String value) {
+				checkId(getStringValueId(value));
+			}
+
+			private void checkId(int id) {
+				if (id != valueId++) {
+					throw new IllegalStateException("Value " + valueId + " of " + name + " is a duplicate");
+				}
+			}
+		});
+	}
+
+	private synchronized void writeObject(java.io.ObjectOutputStream out) throws IOException {
+		// the values of a mapped file are serialized with the others
+		readPendingValues();
+		out.defaultWriteObject();
+	}
+
+	/**
+	 * Writes the property and its values, in the order of their ids
+	 */
+	synchronized void write(ColumnarFileWriter w) throws IOException {
+		readPendingValues();
+		int values = idToString.size();
+		w.writeProperty(name, unit, isResult(), values);
+		for (int id = 0 ; id < values ; id++) {
+			if (stringIds.get(id)) {
+				w.writeStringValue(idToString.get(id));
+			} else {
+				w.writeNumberValue(idToNumber.get(id));
+			}
+		}
+	}
+
+	public synchronized void addDataPointRef(InternalDataPoint dp) {
+		dpHavingThisProp.add(dp);
+	}
+
+	public void setRelatedTo(InternalProperty p) {
+		if (!relatedProperties.containsKey(p.name)) {
+			relatedProperties.put(p.name, p);
+		}
+	}
+
+	public boolean isNumbersOnly() {
+		return !((flags & 2) > 0);
+	}
+
+	public boolean isResult() {
+		return ((flags & 1) > 0);
+	}
+
+	/**
+	 * @param withWildcard true if some data points do not define this property,
+	 * in which case the WC value is part of the returned ones
+	 */
+	public synchronized Set<String> getValues(boolean withWildcard) {
+		readPendingValues();
+		ValueSummary s = getSummary();
+		return withWildcard ? s.valuesWithWildcard : s.values;
+	}
+
+	/**
+	 * @return the smallest and largest numbers, null if there are none
+	 */
+	synchronized double[] getNumericRange() {
+		readPendingValues();
+		ValueSummary s = getSummary();
+		return (s.min > s.max) ? null : new double[]{s.min, s.max};
+	}
+
+	private ValueSummary getSummary() {
+		if (summary == null) {
+			summary = new ValueSummary(valuesNumber.toArray(idToNumber), valuesString.keySet());
+		}
+		return summary;
+	}
+
+	/**
+	 * The values of the property sorted, numbers first, as listed to the user
+	 */
+	private static class ValueSummary {
+		private final Set<String> values;
+		private final Set<String> valuesWithWildcard;
+		private final double min;
+		private final double max;
+
+		ValueSummary(double[] sortedNumbers, Set<String> strings) {
+			Arrays.sort(sortedNumbers);
+			LinkedHashSet<String> s = new LinkedHashSet<String>(2 * (sortedNumbers.length + strings.size()) + 2);
+			for (double d : sortedNumbers) {
+				s.add(SmartDataPointCollector.formatNumber(d));
+			}
+			LinkedHashSet<String> withWildcard = new LinkedHashSet<String>(s);
+			s.addAll(new TreeSet<String>(strings));
+			TreeSet<String> stringsAndWildcard = new TreeSet<String>(strings);
+			stringsAndWildcard.add(SmartDataPointCollector.WC);
+			withWildcard.addAll(stringsAndWildcard);
+			this.values = Collections.unmodifiableSet(s);
+			this.valuesWithWildcard = Collections.unmodifiableSet(withWildcard);
+			this.min = (sortedNumbers.length == 0) ? Double.POSITIVE_INFINITY : sortedNumbers[0];
+			this.max = (sortedNumbers.length == 0) ? Double.NEGATIVE_INFINITY : sortedNumbers[sortedNumbers.length - 1];
+		}
+	}
+
+	public synchronized int getNumberValueId(double val) {
+		readPendingValues();
+		int ipv = valuesNumber.get(val, idToNumber);
+		if (ipv < 0) {
+			ipv = idToString.size();
+			idToString.add(null);
+			idToNumber.set(ipv, val);
+			valuesNumber.add(ipv, idToNumber);
+			summary = null;
+		}
+		return ipv;
+	}
+
+	public synchronized int getStringValueId(String value) {
+		readPendingValues();
+		flags |= 2;
+		Integer ipv = valuesString.get(value);
+		if (ipv == null) {
+			ipv = idToString.size();
+			idToString.add(value);
+			stringIds.set(ipv);
+			valuesString.put(value, ipv);
+			summary = null;
+		}
+		return ipv;
+	}
+
+	/**
+	 * @return the id of the value whose string form is the given one, -1 if
+	 * no data point holds this value
+	 */
+	synchronized int getValueId(String value) {
+		readPendingValues();
+		Integer ipv = valuesString.get(value);
+		if (ipv != null) {
+			return ipv;
+		}
+		try {
+			double d = Double.parseDouble(value);
+			int id = valuesNumber.get(d, idToNumber);
+			if (id >= 0 && SmartDataPointCollector.formatNumber(d).equals(value)) {
+				return id;
+			}
+		}
+		catch (NumberFormatException e) {}
+		return -1;
+	}
+
+	synchronized boolean isStringValue(int id) {
+		readPendingValues();
+		return stringIds.get(id);
+	}
+
+	synchronized String getValueString(int id) {
+		readPendingValues();
+		if (stringIds.get(id)) {
+			return idToString.get(id);
+		}
+		return SmartDataPointCollector.formatNumber(idToNumber.get(id));
+	}
+
+	synchronized float getFloat(int id) {
+		readPendingValues();
+		if (stringIds.get(id)) {
+			return Float.parseFloat(idToString.get(id));
+		}
+		return (float)idToNumber.get(id);
+	}
+
+	/**
+	 * @return the float of each value id, NaN for the strings that are not
+	 * numbers
+	 */
+	synchronized float[] getFloats() {
+		readPendingValues();
+		float[] floats = new float[idToString.size()];
+		for (int id = 0 ; id < floats.length ; id++) {
+			try {
+				floats[id] = getFloat(id);
+			}
+			catch (NumberFormatException e) {
+				floats[id] = Float.NaN;
+			}
+		}
+		return floats;
+	}
+
+	/**
+	 * @return the value of this id, NaN for the strings that are not numbers
+	 */
+	synchronized double getDouble(int id) {
+		readPendingValues();
+		if (stringIds.get(id)) {
+			try {
+				return Double.parseDouble(idToString.get(id));
+			}
+			catch (NumberFormatException e) {
+				return Double.NaN;
+			}
+		}
+		return idToNumber.get(id);
+	}
+
+	synchronized int getNumberOfValues() {
+		readPendingValues();
+		return idToString.size();
+	}
+
+	synchronized Set<String> getStringValues() {
+		readPendingValues();
+		return new HashSet<String>(valuesString.keySet());
+	}
+
+	synchronized int getNumberOfFloatValues() {
+		readPendingValues();
+		return valuesNumber.size();
+	}
+
+	/**
+	 * @return the encoding of the numeric values, or null if the property
+	 * also holds strings
+	 */
+	synchronized NumberArray.Encoding getEncoding() {
+		readPendingValues();
+		return isNumbersOnly() ? idToNumber.getEncoding() : null;
+	}
+
+	/**
+	 * @return the number of values a float cannot hold exactly
+	 */
+	synchronized int getNumberOfDoubleOnlyValues() {
+		readPendingValues();
+		int count = 0;
+		for (double d : valuesNumber.toArray(idToNumber)) {
+			if (!NumberArray.isFloat(d)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	synchronized long getEstimatedBytes() {
+		// the slots of the dictionary, plus the slot in idToString
+		long bytes = valuesNumber.getEstimatedBytes() + 8L * valuesNumber.size();
+		for (String s : valuesString.keySet()) {
+			bytes += 32 + 40 + 2 * s.length() + 16 + 8;
+		}
+		return bytes + idToNumber.getEstimatedBytes() + (stringIds.size() >> 3);
+	}
+
+	String name;
+	String unit;
+
+	@Override
+	public String toString() {
+		return name + "("+unit+")";
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * This file is part of one of the Data-Cockpit libraries.
+ * 
+ * Copyright (C) 2024 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE (EPFL)
+ * 
+ * Author - Sébastien Rumley (sebastien.rumley@hefr.ch)
+ * 
+ * This open source release is made with the authorization of the EPFL,
+ * the institution where the author was originally employed.
+ * The author is currently affiliated with the HEIA-FR, which is the actual publisher.
+ * 
+ * The Data-Cockpit program is free software, you can redistribute it and/or modify
+ * it under the terms of GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The Data-Cockpit program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ * Contributor list -
+ */
+package ch.heiafr.isc.datacockpit.database;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import ch.heiafr.isc.datacockpit.general_libraries.results.DataPoint;
+import ch.heiafr.isc.datacockpit.general_libraries.results.Execution;
+import ch.heiafr.isc.datacockpit.general_libraries.results.Property;
+import ch.heiafr.isc.datacockpit.general_libraries.results.ResultProperty;
+
+/**
+ * Reads the files of serialized executions and properties, the data points
+ * and the properties of the files written before the values were coded as
+ * ids included. These have the serialVersionUID 1 and are read as
+ * LegacyDataPoint and LegacyProperty, which declare the same fields, then
+ * converted back to executions that the collector adds as new ones.
+ */
+class LegacySerializedFile {
+
+	// of InternalDataPoint and InternalProperty in these files
+	private static final long LEGACY_UID = 1;
+
+	/**
+	 * The fields of InternalDataPoint when its values were kept by name
+	 */
+	private static class LegacyDataPoint implements Comparable<LegacyDataPoint>, Serializable {
+		private static final long serialVersionUID = LEGACY_UID;
+
+		int id;
+		HashMap<String, String> valuesString;
+		HashMap<String, Float> valuesFloat;
+
+		// the data points referenced by a property are kept in a TreeSet
+		public int compareTo(LegacyDataPoint dp) {
+			return this.id - dp.id;
+		}
+	}
+
+	/**
+	 * The fields of InternalProperty when its values were kept in TreeMaps
+	 */
+	private static class LegacyProperty implements Serializable {
+		private static final long serialVersionUID = LEGACY_UID;
+
+		TreeMap<String, String> valuesString;
+		TreeMap<Float, Float> valuesFloat;
+		TreeSet<LegacyDataPoint> dpHavingThisProp;
+		HashMap<String, LegacyProperty> relatedProperties;
+		byte flags;
+		String name;
+		String unit;
+	}
+
+	/**
+	 * Reads the legacy classes from the descriptors of InternalDataPoint and
+	 * InternalProperty of the legacy serialVersionUID
+	 */
+	private static class Input extends ObjectInputStream {
+
+		Input(InputStream in) throws IOException {
+			super(in);
+		}
+
+		@Override
+		protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+			ObjectStreamClass desc = super.readClassDescriptor();
+			if (desc.getSerialVersionUID() == LEGACY_UID) {
+				if (desc.getName().equals(InternalDataPoint.class.getName())) {
+					return ObjectStreamClass.lookup(LegacyDataPoint.class);
+				}
+				if (desc.getName().equals(InternalProperty.class.getName())) {
+					return ObjectStreamClass.lookup(LegacyProperty.class);
+				}
+			}
+			return desc;
+		}
+	}
+
+	/**
+	 * @return the executions and the properties of the file
+	 */
+	static Object[] read(File f) {
+		try (ObjectInputStream in = new Input(new FileInputStream(f))) {
+			return (Object[])in.readObject();
+		}
+		catch (Exception e) {
+			throw new IllegalStateException("Cannot read " + f, e);
+		}
+	}
+
+	/**
+	 * @return true if the properties read are of the legacy layout
+	 */
+	static boolean isLegacy(Map<?, ?> properties) {
+		for (Object p : properties.values()) {
+			return p instanceof LegacyProperty;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the executions read, with the data points of the legacy
+	 * layout converted back to properties with their units
+	 */
+	static List<Execution> toExecutions(List<InternalExecution> executions, Map<?, ?> properties) {
+		ArrayList<Execution> list = new ArrayList<Execution>(executions.size());
+		for (InternalExecution exec : executions) {
+			Execution e = new Execution();
+			for (Object o : exec.dataPoints) {
+				LegacyDataPoint ldp = (LegacyDataPoint)o;
+				DataPoint dp = new DataPoint();
+				for (Map.Entry<String, String> v : ldp.valuesString.entrySet()) {
+					dp.addProperty(toProperty((LegacyProperty)properties.get(v.getKey()), v.getKey(), v.getValue()));
+				}
+				for (Map.Entry<String, Float> v : ldp.valuesFloat.entrySet()) {
+					dp.addProperty(toProperty((LegacyProperty)properties.get(v.getKey()), v.getKey(), v.getValue().toString()));
+				}
+				e.addDataPoint(dp);
+			}
+			list.add(e);
+		}
+		return list;
+	}
+
+	private static Property toProperty(LegacyProperty p, String name, String value) {
+		String unit = (p == null) ? "" : p.unit;
+		if (p != null && (p.flags & 1) != 0) {
+			return new ResultProperty(name, value, unit);
+		}
+		return new Property(name, value, unit);
+	}
+}
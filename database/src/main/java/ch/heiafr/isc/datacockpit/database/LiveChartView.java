@@ -0,0 +1,638 @@
+/*
+ * This file is part of one of the Data-Cockpit libraries.
+ * 
+ * Copyright (C) 2024 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE (EPFL)
+ * 
+ * Author - Sébastien Rumley (sebastien.rumley@hefr.ch)
+ * 
+ * This open source release is made with the authorization of the EPFL,
+ * the institution where the author was originally employed.
+ * The author is currently affiliated with the HEIA-FR, which is the actual publisher.
+ * 
+ * The Data-Cockpit program is free software, you can redistribute it and/or modify
+ * it under the terms of GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The Data-Cockpit program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ * Contributor list -
+ */
+package ch.heiafr.isc.datacockpit.database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import ch.heiafr.isc.datacockpit.general_libraries.results.AbstractDataRetriever;
+import ch.heiafr.isc.datacockpit.general_libraries.results.AggregatedDataSeries;
+import ch.heiafr.isc.datacockpit.general_libraries.results.Criterium;
+import ch.heiafr.isc.datacockpit.general_libraries.results.DataSeries;
+import ch.heiafr.isc.datacockpit.general_libraries.results.LiveChart;
+import ch.heiafr.isc.datacockpit.general_libraries.utils.Pair;
+import ch.heiafr.isc.datacockpit.general_libraries.utils.PairList;
+
+/**
+ * A chart of a SmartDataPointCollector kept up to date while data points are
+ * added, with per series and per x value aggregates instead of the points.
+ * <p>
+ * Each refresh folds the batches published since the previous refresh into
+ * the aggregates, its cost depends on the number of new data points and not
+ * on the size of the collector. The points still staged by the ingesting
+ * threads are only added to the returned copy of the aggregates, they are
+ * folded once sealed in a batch.
+ */
+public class LiveChartView implements LiveChart {
+
+	private final SmartDataPointCollector db;
+	private final String metricName;
+	private final String xAxis;
+	// the names of the criteria, their values are those of the collector
+	private final List<List<Criterium>> criteria;
+	private final Map<String, List<String>> filters;
+
+	// the last batch folded, null if none
+	private Batch folded = null;
+	private HashMap<ValueKey, HashMap<Integer, Aggregate>> aggregates = new HashMap<ValueKey, HashMap<Integer, Aggregate>>();
+	// per value id, the number of the metric and the string of the x axis,
+	// valid for these properties (the collector recreates them when cleared)
+	private InternalProperty metric = null;
+	private InternalProperty xProp = null;
+	private double[] yValues = new double[0];
+	// the number of ids of yValues loaded, the others are spare capacity
+	private int loaded = 0;
+	private String[] xValues = new String[0];
+
+	LiveChartView(SmartDataPointCollector db, String xAxis, List<List<Criterium>> cs, Map<String, List<String>> filters, String metricName) {
+		this.db = db;
+		this.metricName = metricName;
+		this.xAxis = xAxis;
+		this.criteria = new ArrayList<List<Criterium>>(cs.size());
+		for (List<Criterium> l : cs) {
+			List<Criterium> names = new ArrayList<Criterium>(l.size());
+			for (Criterium c : l) {
+				names.add(new Criterium(c.getName()));
+			}
+			criteria.add(names);
+		}
+		this.filters = (filters == null) ? null : new TreeMap<String, List<String>>(filters);
+	}
+
+	/**
+	 * What the names of the query resolve to at the time of a refresh
+	 */
+	private class Resolved {
+		private final InternalProperty metric;
+		private final InternalProperty xProp;
+		private final SmartDataPointCollector.ResolvedFilter[] filterList;
+		// flattened criteria, null for CONSTANT and unknown properties
+		private final String[] names;
+		private final InternalProperty[] props;
+
+		Resolved(InternalProperty metric, InternalProperty xProp) {
+			this.metric = metric;
+			this.xProp = xProp;
+			this.filterList = db.resolveFilters(filters);
+			ArrayList<String> n = new ArrayList<String>();
+			for (List<Criterium> l : criteria) {
+				for (Criterium c : l) {
+					n.add(c.getName());
+				}
+			}
+			names = n.toArray(new String[n.size()]);
+			props = new InternalProperty[names.length];
+			for (int i = 0 ; i < names.length ; i++) {
+				if (!names[i].equals(AbstractDataRetriever.CONSTANT)) {
+					props[i] = db.propList.get(names[i]);
+				}
+			}
+		}
+
+		/**
+		 * Adds the rows of the table to the aggregates
+		 */
+		void fold(ShapeTable table, HashMap<ValueKey, HashMap<Integer, Aggregate>> into) {
+			Shape shape = table.shape;
+			int yPos = shape.positionOf(metric.id);
+			int xPos = (xProp == null) ? -1 : shape.positionOf(xProp.id);
+			if (yPos < 0 || (!xAxis.equals("") && xPos < 0)) {
+				return;
+			}
+			int[] filterPos = new int[filterList.length];
+			SmartDataPointCollector.ResolvedFilter[] bound = new SmartDataPointCollector.ResolvedFilter[filterList.length];
+			int nbFilters = 0;
+			for (SmartDataPointCollector.ResolvedFilter f : filterList) {
+				int pos = f.bind(shape);
+				if (pos == SmartDataPointCollector.NEVER) {
+					return;
+				} else if (pos != SmartDataPointCollector.ALWAYS) {
+					filterPos[nbFilters] = pos;
+					bound[nbFilters++] = f;
+				}
+			}
+			int[] criteriaPos = new int[props.length];
+			for (int i = 0 ; i < props.length ; i++) {
+				criteriaPos[i] = (props[i] == null) ? -1 : shape.positionOf(props[i].id);
+			}
+			// value ids of the criteria, -1 for undefined (wildcard) and CONSTANT
+			ValueKey probe = new ValueKey(new int[props.length]);
+			Arrays.fill(probe.ids, -1);
+			int width = shape.props.length;
+			for (int offset = 0 ; offset < table.rows * width ; offset += width) {
+				boolean accepted = true;
+				for (int k = 0 ; k < nbFilters && accepted ; k++) {
+					accepted = bound[k].accept(table.get(offset + filterPos[k]));
+				}
+				if (!accepted) {
+					continue;
+				}
+				for (int i = 0 ; i < criteriaPos.length ; i++) {
+					if (criteriaPos[i] >= 0) {
+						probe.ids[i] = table.get(offset + criteriaPos[i]);
+					}
+				}
+				probe.rehash();
+				HashMap<Integer, Aggregate> series = into.get(probe);
+				if (series == null) {
+					series = new HashMap<Integer, Aggregate>();
+					into.put(new ValueKey(probe.ids.clone()), series);
+				}
+				int x = (xPos < 0) ? -1 : table.get(offset + xPos);
+				Aggregate a = series.get(x);
+				if (a == null) {
+					a = new Aggregate();
+					series.put(x, a);
+				}
+				a.add(yValues[table.get(offset + yPos)]);
+			}
+		}
+	}
+
+	/**
+	 * Brings the aggregates up to date with the data points added since the
+	 * last refresh.
+	 * @return the series of the chart, in the order of getChartValues, each
+	 * point having the mean of its aggregate as y value
+	 */
+	public synchronized List<AggregatedSeries> refresh() {
+		Snapshot snap = db.acquireSnapshot();
+		try {
+			return refresh(snap);
+		}
+		finally {
+			snap.release();
+		}
+	}
+
+	private List<AggregatedSeries> refresh(Snapshot snap) {
+		InternalProperty metric = db.propList.get(metricName);
+		if (metric == null) {
+			return new ArrayList<AggregatedSeries>(0);
+		}
+		InternalProperty x = xAxis.equals("") ? null : db.propList.get(xAxis);
+		if (metric != this.metric) {
+			this.metric = metric;
+			yValues = new double[0];
+			loaded = 0;
+		}
+		if (x != this.xProp) {
+			this.xProp = x;
+			xValues = new String[0];
+		}
+		updateValues();
+		Resolved r = new Resolved(metric, x);
+
+		// the batches published since the last refresh, newest first
+		ArrayList<Batch> fresh = new ArrayList<Batch>();
+		Batch b = snap.last;
+		long foldedSeq = (folded == null) ? -1 : folded.seq;
+		while (b != null && b.seq > foldedSeq) {
+			fresh.add(b);
+			b = b.previous;
+		}
+		if (folded != null && b != folded) {
+			// the collector has been cleared since, starting again
+			aggregates.clear();
+			fresh.clear();
+			for (b = snap.last ; b != null ; b = b.previous) {
+				fresh.add(b);
+			}
+		}
+		for (int i = fresh.size() - 1 ; i >= 0 ; i--) {
+			for (ShapeTable t : fresh.get(i).getTables()) {
+				r.fold(t, aggregates);
+			}
+		}
+		folded = snap.last;
+
+		HashMap<ValueKey, HashMap<Integer, Aggregate>> staged = new HashMap<ValueKey, HashMap<Integer, Aggregate>>();
+		for (ShapeTable t : snap.staged) {
+			r.fold(t, staged);
+		}
+		return toSeries(r, staged);
+	}
+
+	/**
+	 * Refreshes the view as refresh() does.
+	 * @param is95 true for the 5 and 95 percentiles instead of the quartiles
+	 * @return the series of the chart with the statistics of each x value, as
+	 * getAggregatedChartValues, the median and the quartiles (or percentiles)
+	 * being the estimations of the aggregates
+	 */
+	@Override
+	public List<AggregatedDataSeries> refreshStatistics(boolean is95) {
+		List<AggregatedSeries> series = refresh();
+		List<AggregatedDataSeries> toRet = new ArrayList<AggregatedDataSeries>(series.size());
+		for (AggregatedSeries s : series) {
+			AggregatedDataSeries stats = new AggregatedDataSeries(s.crit);
+			for (Point p : s.points) {
+				Aggregate a = p.aggregate;
+				stats.add(new AggregatedDataSeries.Statistics(p.xVal, (int)a.getCount(), (float)a.getMean(),
+						(float)a.getVariance(), (float)a.getQuantile(0.5), (float)a.getQuantile(is95 ? 0.05 : 0.25),
+						(float)a.getQuantile(is95 ? 0.95 : 0.75), (float)a.getMin(), (float)a.getMax(), (float)a.getFirst()));
+			}
+			toRet.add(stats);
+		}
+		return toRet;
+	}
+
+	private void updateValues() {
+		int size = metric.getNumberOfValues();
+		if (size > yValues.length) {
+			yValues = Arrays.copyOf(yValues, Math.max(size, 2 * yValues.length));
+		}
+		for (int id = loaded ; id < size ; id++) {
+			yValues[id] = metric.getDouble(id);
+		}
+		loaded = Math.max(loaded, size);
+	}
+
+	private String xValue(int id) {
+		if (xProp == null) {
+			return AbstractDataRetriever.CONSTANT;
+		}
+		if (id >= xValues.length) {
+			xValues = Arrays.copyOf(xValues, Math.max(id + 1, 2 * xValues.length));
+		}
+		String x = xValues[id];
+		if (x == null) {
+			x = xProp.getValueString(id);
+			xValues[id] = x;
+		}
+		return x;
+	}
+
+	private List<AggregatedSeries> toSeries(Resolved r, HashMap<ValueKey, HashMap<Integer, Aggregate>> staged) {
+		if (!db.isChartDefined(xAxis, criteria)) {
+			return new ArrayList<AggregatedSeries>(0);
+		}
+		// the index of each value of each criterion in the possible values
+		ArrayList<HashMap<String, Integer>> indexes = new ArrayList<HashMap<String, Integer>>();
+		for (int i = 0 ; i < r.names.length ; i++) {
+			HashMap<String, Integer> index = new HashMap<String, Integer>();
+			if (r.names[i].equals(AbstractDataRetriever.CONSTANT)) {
+				index.put(AbstractDataRetriever.CONSTANT, 0);
+			} else {
+				if (r.props[i] == null) {
+					// no combination, as in getChartValues
+					return new ArrayList<AggregatedSeries>(0);
+				}
+				for (String v : db.getPossibleValuesOfGivenProperty(r.names[i])) {
+					index.put(v, index.size());
+				}
+			}
+			indexes.add(index);
+		}
+
+		HashMap<ValueKey, HashMap<Integer, Aggregate>> all = new HashMap<ValueKey, HashMap<Integer, Aggregate>>(aggregates);
+		for (Map.Entry<ValueKey, HashMap<Integer, Aggregate>> e : staged.entrySet()) {
+			HashMap<Integer, Aggregate> series = all.get(e.getKey());
+			if (series == null) {
+				all.put(e.getKey(), e.getValue());
+				continue;
+			}
+			// the folded aggregates must not be modified
+			series = new HashMap<Integer, Aggregate>(series);
+			for (Map.Entry<Integer, Aggregate> a : e.getValue().entrySet()) {
+				Aggregate existing = series.get(a.getKey());
+				series.put(a.getKey(), (existing == null) ? a.getValue() : existing.copy().merge(a.getValue()));
+			}
+			all.put(e.getKey(), series);
+		}
+
+		ArrayList<AggregatedSeries> list = new ArrayList<AggregatedSeries>(all.size());
+		for (Map.Entry<ValueKey, HashMap<Integer, Aggregate>> e : all.entrySet()) {
+			String[] values = new String[r.names.length];
+			long rank = 0;
+			long stride = 1;
+			boolean known = true;
+			for (int i = 0 ; i < values.length ; i++) {
+				int id = e.getKey().ids[i];
+				if (r.names[i].equals(AbstractDataRetriever.CONSTANT)) {
+					values[i] = AbstractDataRetriever.CONSTANT;
+				} else {
+					values[i] = (id < 0) ? SmartDataPointCollector.WC : r.props[i].getValueString(id);
+				}
+				Integer index = indexes.get(i).get(values[i]);
+				if (index == null) {
+					known = false;
+					break;
+				}
+				rank += index * stride;
+				stride *= indexes.get(i).size();
+			}
+			if (!known) {
+				continue;
+			}
+			List<PairList<String, String>> crit = new ArrayList<PairList<String, String>>(criteria.size());
+			int i = 0;
+			for (List<Criterium> l : criteria) {
+				PairList<String, String> lp = new PairList<String, String>(l.size());
+				for (Criterium c : l) {
+					lp.add(new Pair<String, String>(c.getName(), values[i++]));
+				}
+				crit.add(lp);
+			}
+			AggregatedSeries series = new AggregatedSeries(crit, rank);
+			for (Map.Entry<Integer, Aggregate> a : e.getValue().entrySet()) {
+				series.add(xValue(a.getKey()), a.getValue().copy());
+			}
+			Collections.sort(series.points);
+			list.add(series);
+		}
+		Collections.sort(list);
+		return list;
+	}
+
+	/**
+	 * The value ids of the criteria of a data point, identifying its series
+	 */
+	private static class ValueKey {
+		private final int[] ids;
+		private int hash;
+
+		ValueKey(int[] ids) {
+			this.ids = ids;
+			rehash();
+		}
+
+		void rehash() {
+			hash = Arrays.hashCode(ids);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof ValueKey && Arrays.equals(ids, ((ValueKey)o).ids);
+		}
+	}
+
+	/**
+	 * A series of a live chart: one point per x value, whose y value is the
+	 * mean of the aggregate of the data points having this x value
+	 */
+	public static class AggregatedSeries extends DataSeries implements Comparable<AggregatedSeries> {
+
+		private final ArrayList<Point> points = new ArrayList<Point>();
+		// position of the series in the combinations of the criteria
+		private final long rank;
+
+		AggregatedSeries(List<PairList<String, String>> crit, long rank) {
+			super(crit);
+			this.rank = rank;
+		}
+
+		void add(String x, Aggregate a) {
+			Point p = new Point(a);
+			p.xVal = x;
+			p.yVal = (float)a.getMean();
+			points.add(p);
+		}
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		public Iterator<DataSeriesStruct> iterator() {
+			return (Iterator)Collections.unmodifiableList(points).iterator();
+		}
+
+		/**
+		 * @return the aggregate of the points having this x value, null if
+		 * there are none
+		 */
+		public Aggregate getAggregate(String x) {
+			for (Point p : points) {
+				if (p.xVal.equals(x)) {
+					return p.aggregate;
+				}
+			}
+			return null;
+		}
+
+		public int compareTo(AggregatedSeries o) {
+			return Long.compare(rank, o.rank);
+		}
+	}
+
+	static class Point extends DataSeries.DataSeriesStruct {
+		private final Aggregate aggregate;
+
+		Point(Aggregate aggregate) {
+			this.aggregate = aggregate;
+		}
+	}
+
+	/**
+	 * Count, sum, sum of squares, extremes and quantiles of the values of
+	 * the data points of a series having the same x value
+	 */
+	public static class Aggregate {
+		private long count = 0;
+		private double sum = 0;
+		private double sumOfSquares = 0;
+		private double min = Double.POSITIVE_INFINITY;
+		private double max = Double.NEGATIVE_INFINITY;
+		private double first = Double.NaN;
+		private QuantileSketch sketch = new QuantileSketch();
+
+		void add(double v) {
+			if (count == 0) {
+				first = v;
+			}
+			count++;
+			sum += v;
+			sumOfSquares += v * v;
+			min = Math.min(min, v);
+			max = Math.max(max, v);
+			sketch.add(v);
+		}
+
+		Aggregate merge(Aggregate a) {
+			if (count == 0) {
+				first = a.first;
+			}
+			count += a.count;
+			sum += a.sum;
+			sumOfSquares += a.sumOfSquares;
+			min = Math.min(min, a.min);
+			max = Math.max(max, a.max);
+			sketch.merge(a.sketch);
+			return this;
+		}
+
+		Aggregate copy() {
+			Aggregate a = new Aggregate();
+			return a.merge(this);
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public double getSum() {
+			return sum;
+		}
+
+		public double getSumOfSquares() {
+			return sumOfSquares;
+		}
+
+		public double getMin() {
+			return min;
+		}
+
+		public double getMax() {
+			return max;
+		}
+
+		public double getMean() {
+			return sum / count;
+		}
+
+		/**
+		 * @return the value of the first data point added
+		 */
+		public double getFirst() {
+			return first;
+		}
+
+		/**
+		 * @return the sample variance, NaN for less than two values
+		 */
+		public double getVariance() {
+			if (count < 2) {
+				return Double.NaN;
+			}
+			double mean = getMean();
+			return Math.max(0, (sumOfSquares - count * mean * mean) / (count - 1));
+		}
+
+		/**
+		 * @return an estimation of the q-quantile, within 1% of the exact
+		 * value
+		 */
+		public double getQuantile(double q) {
+			return sketch.quantile(q);
+		}
+	}
+}
+
+/**
+ * A mergeable quantile sketch with a relative accuracy (after DDSketch): the
+ * values are counted in buckets whose bounds grow geometrically, the value
+ * of a bucket being within ACCURACY of any value it counts.
+ */
+class QuantileSketch {
+
+	static final double ACCURACY = 0.01;
+	private static final double GAMMA = (1 + ACCURACY) / (1 - ACCURACY);
+	private static final double LOG_GAMMA = Math.log(GAMMA);
+	// smaller magnitudes are counted as zeros
+	private static final double MIN_VALUE = 1e-300;
+
+	// bucket index to count, for the positive values and the magnitudes of the negative ones
+	private final TreeMap<Integer, long[]> positive = new TreeMap<Integer, long[]>();
+	private final TreeMap<Integer, long[]> negative = new TreeMap<Integer, long[]>();
+	private long zeros = 0;
+	private long count = 0;
+
+	void add(double v) {
+		if (Double.isNaN(v)) {
+			return;
+		}
+		count++;
+		if (v > MIN_VALUE) {
+			increment(positive, index(v), 1);
+		} else if (v < -MIN_VALUE) {
+			increment(negative, index(-v), 1);
+		} else {
+			zeros++;
+		}
+	}
+
+	void merge(QuantileSketch s) {
+		for (Map.Entry<Integer, long[]> e : s.positive.entrySet()) {
+			increment(positive, e.getKey(), e.getValue()[0]);
+		}
+		for (Map.Entry<Integer, long[]> e : s.negative.entrySet()) {
+			increment(negative, e.getKey(), e.getValue()[0]);
+		}
+		zeros += s.zeros;
+		count += s.count;
+	}
+
+	private static int index(double magnitude) {
+		return (int)Math.ceil(Math.log(Math.min(magnitude, Double.MAX_VALUE)) / LOG_GAMMA);
+	}
+
+	private static double value(int index) {
+		return 2 * Math.pow(GAMMA, index) / (GAMMA + 1);
+	}
+
+	private static void increment(TreeMap<Integer, long[]> buckets, int index, long n) {
+		long[] c = buckets.get(index);
+		if (c == null) {
+			buckets.put(index, new long[]{n});
+		} else {
+			c[0] += n;
+		}
+	}
+
+	double quantile(double q) {
+		if (count == 0 || q < 0 || q > 1) {
+			return Double.NaN;
+		}
+		long rank = (long)(q * (count - 1));
+		long seen = 0;
+		for (Map.Entry<Integer, long[]> e : negative.descendingMap().entrySet()) {
+			seen += e.getValue()[0];
+			if (seen > rank) {
+				return -value(e.getKey());
+			}
+		}
+		seen += zeros;
+		if (seen > rank) {
+			return 0;
+		}
+		for (Map.Entry<Integer, long[]> e : positive.entrySet()) {
+			seen += e.getValue()[0];
+			if (seen > rank) {
+				return value(e.getKey());
+			}
+		}
+		return value(positive.lastKey());
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * This file is part of one of the Data-Cockpit libraries.
+ * 
+ * Copyright (C) 2024 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE (EPFL)
+ * 
+ * Author - Sébastien Rumley (sebastien.rumley@hefr.ch)
+ * 
+ * This open source release is made with the authorization of the EPFL,
+ * the institution where the author was originally employed.
+ * The author is currently affiliated with the HEIA-FR, which is the actual publisher.
+ * 
+ * The Data-Cockpit program is free software, you can redistribute it and/or modify
+ * it under the terms of GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The Data-Cockpit program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ * Contributor list -
+ */
+package ch.heiafr.isc.datacockpit.database;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.Vector;
+
+import ch.heiafr.isc.datacockpit.database.io.ColumnarFileMap;
+import ch.heiafr.isc.datacockpit.general_libraries.results.AdvancedDataRetriever;
+import ch.heiafr.isc.datacockpit.general_libraries.results.AggregatedDataSeries;
+import ch.heiafr.isc.datacockpit.general_libraries.results.DataRetrievalOptions;
+import ch.heiafr.isc.datacockpit.general_libraries.results.DataSeries;
+
+/**
+ * Read-only access to a file saved by SmartDataPointCollector.saveToFile,
+ * without loading it. The file is memory-mapped (see ColumnarFileMap):
+ * opening it reads the property names and the table headers, the values of
+ * a property are read the first time they are needed and a chart query only
+ * touches the columns of the properties it uses. The heap holds the
+ * dictionaries read so far, the catalog of the tables and the query cache,
+ * not the data points.
+ */
+public class MappedDataRetriever implements AdvancedDataRetriever {
+
+	private final SmartDataPointCollector store = new SmartDataPointCollector();
+
+	public MappedDataRetriever(File f) throws IOException {
+		store.openMapped(ColumnarFileMap.open(f));
+	}
+
+	public List<String> getMetrics() {
+		return store.getMetrics();
+	}
+
+	public Set<String> getParameters() {
+		return store.getParameters();
+	}
+
+	public boolean isInput(String param) {
+		return store.isInput(param);
+	}
+
+	public Set<String> getPossibleValuesOfGivenProperty(String property) {
+		return store.getPossibleValuesOfGivenProperty(property);
+	}
+
+	public Vector<?>[] getVariableAndConstantPropertiesForGivenMetric(String metric) {
+		return store.getVariableAndConstantPropertiesForGivenMetric(metric);
+	}
+
+	public List<DataSeries> getChartValues(DataRetrievalOptions options, String methodName) {
+		return store.getChartValues(options, methodName);
+	}
+
+	@Override
+	public List<List<DataSeries>> getChartValues(DataRetrievalOptions options, String[] methodNames) {
+		return store.getChartValues(options, methodNames);
+	}
+
+	@Override
+	public List<AggregatedDataSeries> getAggregatedChartValues(DataRetrievalOptions options, String methodName) {
+		return store.getAggregatedChartValues(options, methodName);
+	}
+
+	@Override
+	public List<List<AggregatedDataSeries>> getAggregatedChartValues(DataRetrievalOptions options, String[] methodNames) {
+		return store.getAggregatedChartValues(options, methodNames);
+	}
+
+	/**
+	 * @see SmartDataPointCollector#explain(DataRetrievalOptions, String)
+	 */
+	public String explain(DataRetrievalOptions options, String methodName) {
+		return store.explain(options, methodName);
+	}
+
+	public int getNumberOfStoredDataPoints() {
+		return store.getNumberOfStoredDataPoints();
+	}
+}
@@ -0,0 +1,222 @@
+/*
+ * This file is part of one of the Data-Cockpit libraries.
+ * 
+ * Copyright (C) 2024 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE (EPFL)
+ * 
+ * Author - Sébastien Rumley (sebastien.rumley@hefr.ch)
+ * 
+ * This open source release is made with the authorization of the EPFL,
+ * the institution where the author was originally employed.
+ * The author is currently affiliated with the HEIA-FR, which is the actual publisher.
+ * 
+ * The Data-Cockpit program is free software, you can redistribute it and/or modify
+ * it under the terms of GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The Data-Cockpit program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ * Contributor list -
+ */
+package ch.heiafr.isc.datacockpit.database;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A growable array of numbers stored with the narrowest encoding holding all
+ * of them exactly : bytes, shorts or ints for integral values, floats, and
+ * doubles only when a value requires it. The whole array is widened when a
+ * value does not fit its current encoding.
+ */
+class NumberArray implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	enum Encoding {
+		BYTE(1),
+		SHORT(2),
+		INT(4),
+		FLOAT(4),
+		DOUBLE(8);
+
+		final int bytes;
+
+		Encoding(int bytes) {
+			this.bytes = bytes;
+		}
+	}
+
+	private static final long NEGATIVE_ZERO = Double.doubleToLongBits(-0d);
+
+	private Encoding encoding = Encoding.BYTE;
+	private int capacity;
+	private byte[] bytes;
+	private short[] shorts;
+	private int[] ints;
+	private float[] floats;
+	private double[] doubles;
+	// true once an integral value that a float cannot hold has been stored
+	private boolean beyondFloat = false;
+
+	NumberArray(int capacity) {
+		this.capacity = Math.max(1, capacity);
+		this.bytes = new byte[this.capacity];
+	}
+
+	static boolean isFloat(double v) {
+		return Double.doubleToLongBits((float)v) == Double.doubleToLongBits(v);
+	}
+
+	/**
+	 * @return the narrowest encoding able to hold this value exactly
+	 */
+	static Encoding narrowest(double v) {
+		if (v == Math.rint(v) && Double.doubleToLongBits(v) != NEGATIVE_ZERO) {
+			if (v >= Byte.MIN_VALUE && v <= Byte.MAX_VALUE) {
+				return Encoding.BYTE;
+			}
+			if (v >= Short.MIN_VALUE && v <= Short.MAX_VALUE) {
+				return Encoding.SHORT;
+			}
+			if (v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE) {
+				return Encoding.INT;
+			}
+		}
+		return isFloat(v) ? Encoding.FLOAT : Encoding.DOUBLE;
+	}
+
+	private Encoding widenFor(double v) {
+		Encoding needed = narrowest(v);
+		if (needed == encoding || needed.ordinal() < encoding.ordinal() && encoding != Encoding.FLOAT) {
+			return encoding;
+		}
+		if (encoding == Encoding.DOUBLE || needed == Encoding.DOUBLE) {
+			return Encoding.DOUBLE;
+		}
+		if (encoding == Encoding.FLOAT) {
+			// an integral value
+			return isFloat(v) ? Encoding.FLOAT : Encoding.DOUBLE;
+		}
+		if (needed == Encoding.FLOAT) {
+			return beyondFloat ? Encoding.DOUBLE : Encoding.FLOAT;
+		}
+		return needed;
+	}
+
+	void set(int index, double v) {
+		if (index >= capacity) {
+			grow(Math.max(index + 1, capacity + (capacity >> 1)));
+		}
+		Encoding e = widenFor(v);
+		if (e != encoding) {
+			convert(e);
+		}
+		if (e.ordinal() <= Encoding.INT.ordinal() && !isFloat(v)) {
+			beyondFloat = true;
+		}
+		switch (encoding) {
+		case BYTE:
+			bytes[index] = (byte)v;
+			break;
+		case SHORT:
+			shorts[index] = (short)v;
+			break;
+		case INT:
+			ints[index] = (int)v;
+			break;
+		case FLOAT:
+			floats[index] = (float)v;
+			break;
+		default:
+			doubles[index] = v;
+		}
+	}
+
+	double get(int index) {
+		if (index >= capacity) {
+			return 0;
+		}
+		switch (encoding) {
+		case BYTE:
+			return bytes[index];
+		case SHORT:
+			return shorts[index];
+		case INT:
+			return ints[index];
+		case FLOAT:
+			return floats[index];
+		default:
+			return doubles[index];
+		}
+	}
+
+	Encoding getEncoding() {
+		return encoding;
+	}
+
+	private void grow(int newCapacity) {
+		switch (encoding) {
+		case BYTE:
+			bytes = Arrays.copyOf(bytes, newCapacity);
+			break;
+		case SHORT:
+			shorts = Arrays.copyOf(shorts, newCapacity);
+			break;
+		case INT:
+			ints = Arrays.copyOf(ints, newCapacity);
+			break;
+		case FLOAT:
+			floats = Arrays.copyOf(floats, newCapacity);
+			break;
+		default:
+			doubles = Arrays.copyOf(doubles, newCapacity);
+		}
+		capacity = newCapacity;
+	}
+
+	private void convert(Encoding to) {
+		double[] values = new double[capacity];
+		for (int i = 0 ; i < capacity ; i++) {
+			values[i] = get(i);
+		}
+		bytes = null;
+		shorts = null;
+		ints = null;
+		floats = null;
+		doubles = null;
+		switch (to) {
+		case SHORT:
+			shorts = new short[capacity];
+			for (int i = 0 ; i < capacity ; i++) {
+				shorts[i] = (short)values[i];
+			}
+			break;
+		case INT:
+			ints = new int[capacity];
+			for (int i = 0 ; i < capacity ; i++) {
+				ints[i] = (int)values[i];
+			}
+			break;
+		case FLOAT:
+			floats = new float[capacity];
+			for (int i = 0 ; i < capacity ; i++) {
+				floats[i] = (float)values[i];
+			}
+			break;
+		default:
+			doubles = values;
+		}
+		encoding = to;
+	}
+
+	long getEstimatedBytes() {
+		return 16 + (long)capacity * encoding.bytes;
+	}
+}
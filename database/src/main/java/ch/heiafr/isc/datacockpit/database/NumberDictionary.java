@@ -0,0 +1,119 @@
+/*
+ * This file is part of one of the Data-Cockpit libraries.
+ * 
+ * Copyright (C) 2024 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE (EPFL)
+ * 
+ * Author - Sébastien Rumley (sebastien.rumley@hefr.ch)
+ * 
+ * This open source release is made with the authorization of the EPFL,
+ * the institution where the author was originally employed.
+ * The author is currently affiliated with the HEIA-FR, which is the actual publisher.
+ * 
+ * The Data-Cockpit program is free software, you can redistribute it and/or modify
+ * it under the terms of GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The Data-Cockpit program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ * Contributor list -
+ */
+package ch.heiafr.isc.datacockpit.database;
+
+import java.io.Serializable;
+
+/**
+ * The ids of the distinct numbers of a property, in an open-addressing table
+ * of ints. The numbers are read back from the NumberArray of the values of
+ * the property, so that a number only costs a few slots of the table, and
+ * not a hash map entry with a boxed key and a boxed id that the garbage
+ * collector has to copy and go through. Numbers are compared as
+ * Double.equals does.
+ */
+class NumberDictionary implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	// the id + 1 of the number hashed to this slot or after, 0 if free
+	private int[] slots = new int[16];
+	private int size = 0;
+
+	/**
+	 * @return the id of the number, -1 if it is not in the dictionary
+	 */
+	int get(double v, NumberArray numbers) {
+		long bits = Double.doubleToLongBits(v);
+		int mask = slots.length - 1;
+		for (int i = hash(bits) & mask ; ; i = (i + 1) & mask) {
+			int s = slots[i];
+			if (s == 0) {
+				return -1;
+			}
+			if (Double.doubleToLongBits(numbers.get(s - 1)) == bits) {
+				return s - 1;
+			}
+		}
+	}
+
+	/**
+	 * Adds a number not in the dictionary yet, already set at this id in the
+	 * values
+	 */
+	void add(int id, NumberArray numbers) {
+		if (2 * (size + 1) > slots.length) {
+			int[] old = slots;
+			slots = new int[2 * old.length];
+			for (int s : old) {
+				if (s != 0) {
+					insert(s - 1, numbers);
+				}
+			}
+		}
+		insert(id, numbers);
+		size++;
+	}
+
+	private void insert(int id, NumberArray numbers) {
+		int mask = slots.length - 1;
+		int i = hash(Double.doubleToLongBits(numbers.get(id))) & mask;
+		while (slots[i] != 0) {
+			i = (i + 1) & mask;
+		}
+		slots[i] = id + 1;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return the numbers, in no particular order
+	 */
+	double[] toArray(NumberArray numbers) {
+		double[] array = new double[size];
+		int n = 0;
+		for (int s : slots) {
+			if (s != 0) {
+				array[n++] = numbers.get(s - 1);
+			}
+		}
+		return array;
+	}
+
+	long getEstimatedBytes() {
+		return 16 + 4L * slots.length;
+	}
+
+	private static int hash(long bits) {
+		bits ^= bits >>> 33;
+		bits *= 0xff51afd7ed558ccdL;
+		bits ^= bits >>> 33;
+		return (int)bits;
+	}
+}
@@ -0,0 +1,212 @@
+/*
+ * This file is part of one of the Data-Cockpit libraries.
+ * 
+ * Copyright (C) 2024 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE (EPFL)
+ * 
+ * Author - Sébastien Rumley (sebastien.rumley@hefr.ch)
+ * 
+ * This open source release is made with the authorization of the EPFL,
+ * the institution where the author was originally employed.
+ * The author is currently affiliated with the HEIA-FR, which is the actual publisher.
+ * 
+ * The Data-Cockpit program is free software, you can redistribute it and/or modify
+ * it under the terms of GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The Data-Cockpit program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ * Contributor list -
+ */
+package ch.heiafr.isc.datacockpit.database;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * What the data points of a collector use outside of the heap between two
+ * clears: the direct buffers of the batches kept off the heap, the files
+ * the batches are spilled to and the mappings of these files. Clearing the
+ * collector retires it, and it is freed as soon as the last reader is done,
+ * the readers acquiring it before going through the data points and
+ * releasing it after. The buffers are then freed and the files deleted,
+ * without waiting for the garbage collector.
+ * <p>
+ * The spilled batches are appended to a few large files, mapped by regions
+ * of REGION_BYTES: a mapping per batch would soon exceed the number of
+ * mappings a process may have. The files are deleted as soon as they are
+ * opened on the systems allowing it, their space being then given back
+ * even if the process ends without clearing the collector, and when the
+ * process exits otherwise.
+ */
+class OffHeapMemory {
+
+	// frees a buffer at once, see free(ByteBuffer)
+	private static final Object UNSAFE;
+	private static final Method INVOKE_CLEANER;
+
+	static {
+		Object unsafe = null;
+		Method invoke = null;
+		try {
+			Class<?> c = Class.forName("sun.misc.Unsafe");
+			Field f = c.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			unsafe = f.get(null);
+			invoke = c.getMethod("invokeCleaner", ByteBuffer.class);
+		}
+		catch (Exception e) {
+			// before Java 9, the cleaner of the buffer is called instead
+		}
+		UNSAFE = unsafe;
+		INVOKE_CLEANER = invoke;
+	}
+
+	// the spilled batches are written in regions of this size mapped at
+	// once, the regions being appended to files of up to FILE_BYTES
+	static final int REGION_BYTES = 64 << 20;
+	static final long FILE_BYTES = 1L << 30;
+
+	private final ArrayList<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+	// the files not deleted once opened
+	private final ArrayList<File> files = new ArrayList<File>();
+	private final ArrayList<RandomAccessFile> spillFiles = new ArrayList<RandomAccessFile>();
+	// the region the batches are spilled to, and the end of the regions in
+	// the last spill file
+	private IntBuffer region = null;
+	private long spilledBytes = 0;
+	// the readers, plus one until retired
+	private final AtomicInteger references = new AtomicInteger(1);
+
+	/**
+	 * @return false if the memory is already freed, the collector having
+	 * been cleared since it was read
+	 */
+	boolean acquire() {
+		while (true) {
+			int r = references.get();
+			if (r == 0) {
+				return false;
+			}
+			if (references.compareAndSet(r, r + 1)) {
+				return true;
+			}
+		}
+	}
+
+	void release() {
+		if (references.decrementAndGet() == 0) {
+			free();
+		}
+	}
+
+	/**
+	 * Called once, when the collector is cleared
+	 */
+	void retire() {
+		release();
+	}
+
+	/**
+	 * @return a direct buffer of this number of ints, freed with the memory
+	 */
+	synchronized IntBuffer allocateDirect(int ints) {
+		ByteBuffer b = ByteBuffer.allocateDirect(4 * ints);
+		buffers.add(b);
+		return b.order(ByteOrder.nativeOrder()).asIntBuffer();
+	}
+
+	/**
+	 * @return a buffer of this number of ints in a spill file, to be filled
+	 * and then only read through read-only views. The regions of the files
+	 * are mapped read-write by the memory only, and unmapped once it is freed.
+	 */
+	synchronized IntBuffer reserveSpill(File directory, int ints) throws IOException {
+		if (region == null || region.remaining() < ints) {
+			long bytes = Math.max(REGION_BYTES, 4L * ints);
+			if (spillFiles.isEmpty() || (spilledBytes > 0 && spilledBytes + bytes > FILE_BYTES)) {
+				File f = File.createTempFile("datapoints", ".spill", directory);
+				spillFiles.add(new RandomAccessFile(f, "rw"));
+				// the open file stays readable and writable where it can be
+				// deleted, its space being freed once closed
+				if (!f.delete()) {
+					f.deleteOnExit();
+					files.add(f);
+				}
+				spilledBytes = 0;
+			}
+			FileChannel channel = spillFiles.get(spillFiles.size() - 1).getChannel();
+			// the file grows to the end of the region, without using disk
+			// space before the region is written
+			ByteBuffer b = channel.map(FileChannel.MapMode.READ_WRITE, spilledBytes, bytes);
+			buffers.add(b);
+			spilledBytes += bytes;
+			region = b.order(ByteOrder.nativeOrder()).asIntBuffer();
+		}
+		IntBuffer reserved = region.slice();
+		reserved.limit(ints);
+		region.position(region.position() + ints);
+		return reserved;
+	}
+
+	private synchronized void free() {
+		for (ByteBuffer b : buffers) {
+			free(b);
+		}
+		buffers.clear();
+		region = null;
+		// the files are closed and deleted once unmapped, which some
+		// systems require
+		for (RandomAccessFile raf : spillFiles) {
+			try {
+				raf.close();
+			}
+			catch (IOException e) {
+				// deleted below or on exit
+			}
+		}
+		spillFiles.clear();
+		for (File f : files) {
+			f.delete();
+		}
+		files.clear();
+	}
+
+	/**
+	 * Releases a direct or mapped buffer at once, through Unsafe.invokeCleaner
+	 * since Java 9 and the cleaner of the buffer before. The buffer is left
+	 * to the garbage collector if neither is accessible.
+	 */
+	private static void free(ByteBuffer b) {
+		try {
+			if (INVOKE_CLEANER != null) {
+				INVOKE_CLEANER.invoke(UNSAFE, b);
+				return;
+			}
+			Method cleaner = b.getClass().getMethod("cleaner");
+			cleaner.setAccessible(true);
+			Object c = cleaner.invoke(b);
+			if (c != null) {
+				c.getClass().getMethod("clean").invoke(c);
+			}
+		}
+		catch (Exception e) {
+			// freed by the garbage collector
+		}
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * This file is part of one of the Data-Cockpit libraries.
+ * 
+ * Copyright (C) 2024 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE (EPFL)
+ * 
+ * Author - Sébastien Rumley (sebastien.rumley@hefr.ch)
+ * 
+ * This open source release is made with the authorization of the EPFL,
+ * the institution where the author was originally employed.
+ * The author is currently affiliated with the HEIA-FR, which is the actual publisher.
+ * 
+ * The Data-Cockpit program is free software, you can redistribute it and/or modify
+ * it under the terms of GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The Data-Cockpit program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ * Contributor list -
+ */
+package ch.heiafr.isc.datacockpit.database;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A growable array of non-negative ints, packed with as many bits per value
+ * as the largest value stored so far requires. A column holding two distinct
+ * codes (a boolean for instance) costs two bits per row.
+ */
+class PackedIntArray implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private long[] words;
+	private int bits = 1;
+	private int capacity;
+
+	PackedIntArray(int capacity) {
+		this.capacity = Math.max(1, capacity);
+		this.words = new long[wordsFor(this.capacity, bits)];
+	}
+
+	private static int wordsFor(int capacity, int bits) {
+		return (int)(((long)capacity * bits + 63) >>> 6);
+	}
+
+	void set(int index, int value) {
+		if (index >= capacity) {
+			capacity = Math.max(index + 1, capacity + (capacity >> 1));
+			words = Arrays.copyOf(words, wordsFor(capacity, bits));
+		}
+		int needed = 32 - Integer.numberOfLeadingZeros(value);
+		if (needed > bits) {
+			repack(needed);
+		}
+		long bitIndex = (long)index * bits;
+		int word = (int)(bitIndex >>> 6);
+		int offset = (int)(bitIndex & 63);
+		long mask = (bits == 64) ? -1L : (1L << bits) - 1;
+		words[word] = (words[word] & ~(mask << offset)) | ((long)value << offset);
+		if (offset + bits > 64) {
+			int done = 64 - offset;
+			words[word + 1] = (words[word + 1] & ~(mask >>> done)) | ((long)value >>> done);
+		}
+	}
+
+	int get(int index) {
+		if (index >= capacity) {
+			return 0;
+		}
+		long bitIndex = (long)index * bits;
+		int word = (int)(bitIndex >>> 6);
+		int offset = (int)(bitIndex & 63);
+		long mask = (1L << bits) - 1;
+		long v = words[word] >>> offset;
+		if (offset + bits > 64) {
+			v |= words[word + 1] << (64 - offset);
+		}
+		return (int)(v & mask);
+	}
+
+	private void repack(int newBits) {
+		PackedIntArray wider = new PackedIntArray(capacity);
+		wider.bits = newBits;
+		wider.words = new long[wordsFor(capacity, newBits)];
+		for (int i = 0 ; i < capacity ; i++) {
+			int v = get(i);
+			if (v != 0) {
+				wider.set(i, v);
+			}
+		}
+		this.words = wider.words;
+		this.bits = newBits;
+	}
+
+	int getBitsPerValue() {
+		return bits;
+	}
+
+	long getEstimatedBytes() {
+		return 16 + 8L * words.length;
+	}
+}
@@ -0,0 +1,199 @@
+/*
+ * This file is part of one of the Data-Cockpit libraries.
+ * 
+ * Copyright (C) 2024 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE (EPFL)
+ * 
+ * Author - Sébastien Rumley (sebastien.rumley@hefr.ch)
+ * 
+ * This open source release is made with the authorization of the EPFL,
+ * the institution where the author was originally employed.
+ * The author is currently affiliated with the HEIA-FR, which is the actual publisher.
+ * 
+ * The Data-Cockpit program is free software, you can redistribute it and/or modify
+ * it under the terms of GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The Data-Cockpit program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ * Contributor list -
+ */
+package ch.heiafr.isc.datacockpit.database;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * What the metadata queries need to know of the data points, maintained as
+ * the batches are published instead of being computed from the data points
+ * at each call: per property the number of data points defining it, and per
+ * shape the number of data points and, for each of its properties, the value
+ * they all have if they do. A catalog is never modified. Each batch holds the
+ * summaries of its own tables, the catalog of a whole chain being computed
+ * from them when asked for (see Batch.catalog()).
+ */
+class PropertyCatalog {
+
+	static final PropertyCatalog EMPTY = new PropertyCatalog(new int[0], new HashMap<Shape, Summary>());
+
+	// the data points of a shape do not have the same value
+	static final int VARIES = -1;
+
+	/**
+	 * The data points of a shape
+	 */
+	static class Summary {
+		final Shape shape;
+		final int rows;
+		// per position in the shape, the value id of all the rows, or VARIES
+		final int[] values;
+
+		Summary(Shape shape, int rows, int[] values) {
+			this.shape = shape;
+			this.rows = rows;
+			this.values = values;
+		}
+
+		/**
+		 * @return the summary of the data points of both summaries
+		 */
+		Summary merge(Summary s) {
+			int[] merged = values.clone();
+			for (int i = 0 ; i < merged.length ; i++) {
+				if (merged[i] != s.values[i]) {
+					merged[i] = VARIES;
+				}
+			}
+			return new Summary(shape, rows + s.rows, merged);
+		}
+	}
+
+	// per property id, the number of data points defining it
+	private final int[] defined;
+	private final HashMap<Shape, Summary> shapes;
+
+	private PropertyCatalog(int[] defined, HashMap<Shape, Summary> shapes) {
+		this.defined = defined;
+		this.shapes = shapes;
+	}
+
+	/**
+	 * @return the summaries of the tables, computed before the batch is
+	 * published
+	 */
+	static Summary[] summarize(ShapeTable[] tables) {
+		Summary[] summaries = new Summary[tables.length];
+		for (int t = 0 ; t < tables.length ; t++) {
+			ShapeTable table = tables[t];
+			int width = table.shape.props.length;
+			int[] values = new int[width];
+			for (int i = 0 ; i < width ; i++) {
+				values[i] = (table.rows == 0) ? VARIES : table.get(i);
+			}
+			for (int offset = width ; offset < table.rows * width ; offset += width) {
+				for (int i = 0 ; i < width ; i++) {
+					if (values[i] != VARIES && values[i] != table.get(offset + i)) {
+						values[i] = VARIES;
+					}
+				}
+			}
+			summaries[t] = new Summary(table.shape, table.rows, values);
+		}
+		return summaries;
+	}
+
+	/**
+	 * @return the catalog of the data points of this catalog and of the
+	 * summarized ones
+	 */
+	PropertyCatalog extend(Summary[] summaries) {
+		if (summaries.length == 0) {
+			return this;
+		}
+		int size = defined.length;
+		for (Summary s : summaries) {
+			int[] props = s.shape.props;
+			if (props.length > 0) {
+				size = Math.max(size, props[props.length - 1] + 1);
+			}
+		}
+		int[] newDefined = Arrays.copyOf(defined, size);
+		HashMap<Shape, Summary> newShapes = new HashMap<Shape, Summary>(shapes);
+		for (Summary s : summaries) {
+			if (s.rows == 0) {
+				continue;
+			}
+			for (int id : s.shape.props) {
+				newDefined[id] += s.rows;
+			}
+			Summary previous = newShapes.get(s.shape);
+			newShapes.put(s.shape, (previous == null) ? s : previous.merge(s));
+		}
+		return new PropertyCatalog(newDefined, newShapes);
+	}
+
+	int countDefining(int propId) {
+		return (propId < defined.length) ? defined[propId] : 0;
+	}
+
+	/**
+	 * Finds the properties having the same value in all the data points
+	 * defining the metric. As when the data points were compared one by one,
+	 * a property undefined in the only data point of the metric is constant.
+	 * @return per related property, its constant value id, -1 if undefined,
+	 * or null if the property is not constant. Null if no data point defines
+	 * the metric.
+	 */
+	Integer[] getConstants(int metricId, int[] related) {
+		Integer[] constants = new Integer[related.length];
+		boolean[] varies = new boolean[related.length];
+		int rows = 0;
+		for (Map.Entry<Shape, Summary> e : shapes.entrySet()) {
+			Shape shape = e.getKey();
+			if (shape.positionOf(metricId) < 0) {
+				continue;
+			}
+			Summary s = e.getValue();
+			rows += s.rows;
+			for (int i = 0 ; i < related.length ; i++) {
+				if (varies[i]) {
+					continue;
+				}
+				int pos = shape.positionOf(related[i]);
+				int value = (pos < 0) ? -1 : s.values[pos];
+				if (pos >= 0 && value == VARIES) {
+					varies[i] = true;
+				} else if (constants[i] == null) {
+					constants[i] = value;
+				} else if (constants[i] != value) {
+					varies[i] = true;
+				}
+			}
+		}
+		if (rows == 0) {
+			return null;
+		}
+		for (int i = 0 ; i < related.length ; i++) {
+			if (varies[i] || (rows > 1 && constants[i] != null && constants[i] < 0)) {
+				constants[i] = null;
+			}
+		}
+		return constants;
+	}
+
+	Collection<Summary> getSummaries() {
+		return shapes.values();
+	}
+
+	int getNumberOfShapes() {
+		return shapes.size();
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * This file is part of one of the Data-Cockpit libraries.
+ * 
+ * Copyright (C) 2024 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE (EPFL)
+ * 
+ * Author - Sébastien Rumley (sebastien.rumley@hefr.ch)
+ * 
+ * This open source release is made with the authorization of the EPFL,
+ * the institution where the author was originally employed.
+ * The author is currently affiliated with the HEIA-FR, which is the actual publisher.
+ * 
+ * The Data-Cockpit program is free software, you can redistribute it and/or modify
+ * it under the terms of GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The Data-Cockpit program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ * Contributor list -
+ */
+package ch.heiafr.isc.datacockpit.database;
+
+
+/**
+ * How a chart query goes through the data points: a scan of the tables of
+ * all the shapes able to provide points, or, when a filter only accepts a
+ * small part of them, the rows found by the value index of its property.
+ * <p>
+ * The costs are estimated from the catalog of the published batches: the
+ * rows of the shapes defining one of the metrics (and the x axis), and for each
+ * filter the rows of the shapes holding one of its values, exactly when the
+ * shape has a single value for the property, else assuming the values of the
+ * property are equally frequent. The executions still staged are always
+ * scanned.
+ */
+class QueryPlan {
+
+	enum Access {
+		FULL_SCAN,
+		INDEX_LOOKUP
+	}
+
+	// relative cost of a row read in sequence, and through an index
+	static final double SCAN_ROW = 1;
+	static final double FILTER_ROW = 0.25;
+	static final double LOOKUP_ROW = 4;
+	// of a binary search in the index of a table
+	static final double LOOKUP_VALUE = 20;
+	// of indexing a row, shared by the queries expected to use the index
+	static final double BUILD_ROW = 8;
+	static final double INDEX_REUSE = 16;
+
+	final Access access;
+	// the filter whose property index is used, null for a full scan
+	final SmartDataPointCollector.ResolvedFilter indexed;
+	final long eligibleRows;
+	final long estimatedRows;
+	final double scanCost;
+	final double indexCost;
+
+	private QueryPlan(Access access, SmartDataPointCollector.ResolvedFilter indexed, long eligibleRows, long estimatedRows, double scanCost, double indexCost) {
+		this.access = access;
+		this.indexed = indexed;
+		this.eligibleRows = eligibleRows;
+		this.estimatedRows = estimatedRows;
+		this.scanCost = scanCost;
+		this.indexCost = indexCost;
+	}
+
+	static QueryPlan choose(Batch last, InternalProperty[] metrics, InternalProperty xProp, SmartDataPointCollector.ResolvedFilter[] filters) {
+		long eligible = 0;
+		long[] matching = new long[filters.length];
+		// rows the index of a filter cannot serve, scanned in any case
+		long[] unindexable = new long[filters.length];
+		for (PropertyCatalog.Summary s : last.catalog().getSummaries()) {
+			Shape shape = s.shape;
+			boolean any = false;
+			for (InternalProperty metric : metrics) {
+				any |= (shape.positionOf(metric.id) >= 0);
+			}
+			if (!any || (xProp != null && shape.positionOf(xProp.id) < 0)) {
+				continue;
+			}
+			boolean never = false;
+			for (SmartDataPointCollector.ResolvedFilter f : filters) {
+				never |= (f.bind(shape) == SmartDataPointCollector.NEVER);
+			}
+			if (never) {
+				continue;
+			}
+			eligible += s.rows;
+			for (int i = 0 ; i < filters.length ; i++) {
+				int pos = filters[i].bind(shape);
+				if (pos == SmartDataPointCollector.ALWAYS) {
+					unindexable[i] += s.rows;
+				} else if (s.values[pos] != PropertyCatalog.VARIES) {
+					matching[i] += filters[i].accept(s.values[pos]) ? s.rows : 0;
+				} else {
+					InternalProperty p = filters[i].getProperty();
+					matching[i] += (long)Math.ceil(s.rows * (double)filters[i].getNumberOfAccepted() / Math.max(1, p.getNumberOfValues()));
+				}
+			}
+		}
+		double scanCost = eligible * (SCAN_ROW + FILTER_ROW * filters.length);
+		QueryPlan best = new QueryPlan(Access.FULL_SCAN, null, eligible, eligible, scanCost, Double.NaN);
+		for (int i = 0 ; i < filters.length ; i++) {
+			InternalProperty p = filters[i].getProperty();
+			if (p == null) {
+				continue;
+			}
+			long tables = 0;
+			long unindexed = 0;
+			for (Batch b = last ; b != null ; b = b.previous) {
+				int defining = b.countTablesDefining(p.id);
+				tables += defining;
+				if (defining > 0 && !b.isIndexed(p.id)) {
+					unindexed += b.countDefining(p.id);
+				}
+			}
+			double cost = matching[i] * LOOKUP_ROW
+					+ tables * filters[i].getNumberOfAccepted() * LOOKUP_VALUE
+					+ unindexed * BUILD_ROW / INDEX_REUSE
+					+ unindexable[i] * (SCAN_ROW + FILTER_ROW * filters.length);
+			if (cost < scanCost && (best.access == Access.FULL_SCAN || cost < best.indexCost)) {
+				best = new QueryPlan(Access.INDEX_LOOKUP, filters[i], eligible, matching[i] + unindexable[i], scanCost, cost);
+			}
+		}
+		return best;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(access.toString());
+		if (indexed != null) {
+			sb.append(" on ").append(indexed.getProperty().name);
+		}
+		sb.append(String.format(" (eligible rows %d, estimated rows %d, scan cost %.0f", eligibleRows, estimatedRows, scanCost));
+		if (indexed != null) {
+			sb.append(String.format(", index cost %.0f", indexCost));
+		}
+		return sb.append(")").toString();
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * This file is part of one of the Data-Cockpit libraries.
+ * 
+ * Copyright (C) 2024 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE (EPFL)
+ * 
+ * Author - Sébastien Rumley (sebastien.rumley@hefr.ch)
+ * 
+ * This open source release is made with the authorization of the EPFL,
+ * the institution where the author was originally employed.
+ * The author is currently affiliated with the HEIA-FR, which is the actual publisher.
+ * 
+ * The Data-Cockpit program is free software, you can redistribute it and/or modify
+ * it under the terms of GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The Data-Cockpit program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ * Contributor list -
+ */
+package ch.heiafr.isc.datacockpit.database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import ch.heiafr.isc.datacockpit.general_libraries.results.Criterium;
+import ch.heiafr.isc.datacockpit.general_libraries.results.CriteriumSet;
+import ch.heiafr.isc.datacockpit.general_libraries.results.DataSeries;
+
+/**
+ * The results of the last chart queries of a collector. They are keyed by
+ * what determines them (metric, x axis, criteria and filters), not by the
+ * display options, and are only valid for the generation of the data they
+ * were computed on, the collector bumping its generation at each change.
+ * The least recently used results are evicted beyond a number of entries or
+ * of points.
+ */
+class QueryResultCache {
+
+	private static class Entry {
+		private final long generation;
+		private final List<DataSeries> result;
+		private final long points;
+
+		Entry(long generation, List<DataSeries> result, long points) {
+			this.generation = generation;
+			this.result = result;
+			this.points = points;
+		}
+	}
+
+	// in access order, the eldest is the least recently used
+	private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<Object, Entry>(16, 0.75f, true);
+	private int maxEntries;
+	private long maxPoints;
+	private long points = 0;
+	private long hits = 0;
+	private long misses = 0;
+
+	QueryResultCache(int maxEntries, long maxPoints) {
+		this.maxEntries = maxEntries;
+		this.maxPoints = maxPoints;
+	}
+
+	/**
+	 * @return a key equal for the queries returning the same series. The
+	 * order of the criteria matters, the one of the filtered values does not.
+	 * The possible values of the criteria must be set.
+	 */
+	static Object key(String metric, String xAxis, CriteriumSet cs, Map<String, List<String>> filters) {
+		List<List<Object>> criteria = new ArrayList<List<Object>>(cs.size());
+		for (List<Criterium> l : cs) {
+			List<Object> names = new ArrayList<Object>(l.size());
+			for (Criterium c : l) {
+				names.add(c.getName());
+				names.add(c.getPossibleValues() == null ? null : new ArrayList<String>(c.getPossibleValues()));
+			}
+			criteria.add(names);
+		}
+		TreeMap<String, TreeSet<String>> filtered = new TreeMap<String, TreeSet<String>>();
+		if (filters != null) {
+			for (Map.Entry<String, List<String>> e : filters.entrySet()) {
+				filtered.put(e.getKey(), new TreeSet<String>(e.getValue()));
+			}
+		}
+		return Arrays.asList(metric, xAxis, criteria, filtered);
+	}
+
+	/**
+	 * @return the series computed for this key on this generation of the
+	 * data, null if there are none
+	 */
+	synchronized List<DataSeries> get(Object key, long generation) {
+		Entry e = entries.get(key);
+		if (e != null && e.generation != generation) {
+			remove(key);
+			e = null;
+		}
+		if (e == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return new ArrayList<DataSeries>(e.result);
+	}
+
+	synchronized void put(Object key, long generation, List<DataSeries> result, long resultPoints) {
+		if (maxEntries <= 0 || resultPoints > maxPoints) {
+			return;
+		}
+		remove(key);
+		entries.put(key, new Entry(generation, new ArrayList<DataSeries>(result), resultPoints));
+		points += resultPoints;
+		Iterator<Entry> it = entries.values().iterator();
+		while (entries.size() > maxEntries || points > maxPoints) {
+			points -= it.next().points;
+			it.remove();
+		}
+	}
+
+	private void remove(Object key) {
+		Entry e = entries.remove(key);
+		if (e != null) {
+			points -= e.points;
+		}
+	}
+
+	synchronized void setLimits(int maxEntries, long maxPoints) {
+		this.maxEntries = maxEntries;
+		this.maxPoints = maxPoints;
+		entries.clear();
+		points = 0;
+	}
+
+	synchronized void clear() {
+		entries.clear();
+		points = 0;
+	}
+
+	synchronized long getHits() {
+		return hits;
+	}
+
+	synchronized long getMisses() {
+		return misses;
+	}
+
+	synchronized int size() {
+		return entries.size();
+	}
+}
@@ -0,0 +1,69 @@
+/*
+ * This file is part of one of the Data-Cockpit libraries.
+ * 
+ * Copyright (C) 2024 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE (EPFL)
+ * 
+ * Author - Sébastien Rumley (sebastien.rumley@hefr.ch)
+ * 
+ * This open source release is made with the authorization of the EPFL,
+ * the institution where the author was originally employed.
+ * The author is currently affiliated with the HEIA-FR, which is the actual publisher.
+ * 
+ * The Data-Cockpit program is free software, you can redistribute it and/or modify
+ * it under the terms of GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The Data-Cockpit program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ * Contributor list -
+ */
+package ch.heiafr.isc.datacockpit.database;
+
+import java.util.Arrays;
+
+/**
+ * A set of properties defined together by data points, interned by the
+ * collector. Gives the position of a property in the value ids of the data
+ * points of this shape.
+ */
+class Shape implements java.io.Serializable {
+
+	private static final long serialVersionUID = 1;
+
+	// sorted property ids
+	final int[] props;
+	// per property id, its index in props or -1
+	private final int[] positions;
+	private final int hash;
+
+	Shape(int[] props) {
+		this.props = props;
+		this.positions = new int[props.length == 0 ? 0 : props[props.length - 1] + 1];
+		Arrays.fill(positions, -1);
+		for (int i = 0 ; i < props.length ; i++) {
+			positions[props[i]] = i;
+		}
+		this.hash = Arrays.hashCode(props);
+	}
+
+	int positionOf(int propId) {
+		return (propId < positions.length) ? positions[propId] : -1;
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof Shape && Arrays.equals(props, ((Shape)o).props);
+	}
+}
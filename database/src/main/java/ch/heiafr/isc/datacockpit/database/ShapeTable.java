@@ -0,0 +1,213 @@
+/*
+ * This file is part of one of the Data-Cockpit libraries.
+ * 
+ * Copyright (C) 2024 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE (EPFL)
+ * 
+ * Author - Sébastien Rumley (sebastien.rumley@hefr.ch)
+ * 
+ * This open source release is made with the authorization of the EPFL,
+ * the institution where the author was originally employed.
+ * The author is currently affiliated with the HEIA-FR, which is the actual publisher.
+ * 
+ * The Data-Cockpit program is free software, you can redistribute it and/or modify
+ * it under the terms of GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The Data-Cockpit program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ * Contributor list -
+ */
+package ch.heiafr.isc.datacockpit.database;
+
+import java.nio.IntBuffer;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The data points of a batch sharing the same shape, their value ids laid out
+ * row after row, in the order they were added. The ids are kept in an array
+ * on the heap, or in a buffer shared with the other tables of the batch (see
+ * TableBuffer), or in the columns of a mapped file.
+ */
+class ShapeTable {
+
+	final Shape shape;
+	final int rows;
+	// one of the three is not null, the columns being those of a mapped file
+	private final int[] values;
+	private final IntBuffer buffer;
+	private final IntBuffer[] columns;
+	// of the first value id in the array, shared by the tables of a batch
+	// read from a TableBuffer
+	private final int offset;
+
+	ShapeTable(Shape shape, int rows, int[] values) {
+		this(shape, rows, values, 0, null, null);
+	}
+
+	private ShapeTable(Shape shape, int rows, int[] values, int offset, IntBuffer buffer, IntBuffer[] columns) {
+		this.shape = shape;
+		this.rows = rows;
+		this.values = values;
+		this.offset = offset;
+		this.buffer = buffer;
+		this.columns = columns;
+	}
+
+	int get(int index) {
+		if (values != null) {
+			return values[offset + index];
+		}
+		if (buffer != null) {
+			return buffer.get(index);
+		}
+		int width = columns.length;
+		return columns[index % width].get(index / width);
+	}
+
+	/**
+	 * @return true if the value ids are in an array on the heap
+	 */
+	boolean isOnHeap() {
+		return values != null;
+	}
+
+	int size() {
+		return rows * shape.props.length;
+	}
+
+	static int totalSize(ShapeTable[] tables) {
+		int size = 0;
+		for (ShapeTable t : tables) {
+			size += t.size();
+		}
+		return size;
+	}
+
+	/**
+	 * @return the value ids of the rows, one array per property of the shape
+	 */
+	int[][] toColumns() {
+		int width = shape.props.length;
+		int[][] columns = new int[width][rows];
+		for (int k = 0 ; k < width ; k++) {
+			int[] column = columns[k];
+			for (int row = 0, offset = k ; row < rows ; row++, offset += width) {
+				column[row] = get(offset);
+			}
+		}
+		return columns;
+	}
+
+	static ShapeTable fromColumns(Shape shape, int rows, int[][] columns) {
+		int width = columns.length;
+		int[] values = new int[rows * width];
+		for (int k = 0 ; k < width ; k++) {
+			int[] column = columns[k];
+			for (int row = 0, offset = k ; row < rows ; row++, offset += width) {
+				values[offset] = column[row];
+			}
+		}
+		return new ShapeTable(shape, rows, values);
+	}
+
+	/**
+	 * @return a table reading its value ids in the given buffer, without
+	 * copying them
+	 */
+	static ShapeTable ofBuffer(Shape shape, int rows, IntBuffer buffer) {
+		return new ShapeTable(shape, rows, null, 0, buffer, null);
+	}
+
+	/**
+	 * @return a table reading its value ids in the array from the offset,
+	 * without copying them
+	 */
+	static ShapeTable ofArray(Shape shape, int rows, int[] values, int offset) {
+		return new ShapeTable(shape, rows, values, offset, null, null);
+	}
+
+	/**
+	 * @return a table reading its value ids in the given columns, without
+	 * copying them
+	 */
+	static ShapeTable ofColumns(Shape shape, int rows, IntBuffer[] columns) {
+		return new ShapeTable(shape, rows, null, 0, null, columns);
+	}
+
+	/**
+	 * @return one table per shape, in the order the shapes first appear
+	 */
+	static ShapeTable[] tabulate(InternalExecution[] executions) {
+		LinkedHashMap<Shape, int[]> rowsPerShape = new LinkedHashMap<Shape, int[]>();
+		for (InternalExecution exec : executions) {
+			for (InternalDataPoint dp : exec.dataPoints) {
+				int[] count = rowsPerShape.get(dp.shape);
+				if (count == null) {
+					rowsPerShape.put(dp.shape, new int[]{1});
+				} else {
+					count[0]++;
+				}
+			}
+		}
+		IdentityHashMap<Shape, ShapeTable> tables = new IdentityHashMap<Shape, ShapeTable>();
+		ShapeTable[] list = new ShapeTable[rowsPerShape.size()];
+		int i = 0;
+		for (Map.Entry<Shape, int[]> e : rowsPerShape.entrySet()) {
+			Shape s = e.getKey();
+			list[i] = new ShapeTable(s, e.getValue()[0], new int[e.getValue()[0] * s.props.length]);
+			tables.put(s, list[i++]);
+			e.getValue()[0] = 0;
+		}
+		for (InternalExecution exec : executions) {
+			for (InternalDataPoint dp : exec.dataPoints) {
+				int[] filled = rowsPerShape.get(dp.shape);
+				int width = dp.shape.props.length;
+				System.arraycopy(dp.values, 0, tables.get(dp.shape).values, filled[0] * width, width);
+				filled[0]++;
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * @return the rows of the tables as executions of a single data point
+	 */
+	static InternalExecution[] toExecutions(ShapeTable[] tables, int rows) {
+		InternalExecution[] executions = new InternalExecution[rows];
+		int i = 0;
+		for (ShapeTable t : tables) {
+			int width = t.shape.props.length;
+			for (int row = 0 ; row < t.rows ; row++) {
+				int[] values = new int[width];
+				for (int k = 0 ; k < width ; k++) {
+					values[k] = t.get(row * width + k);
+				}
+				executions[i++] = new InternalExecution(new InternalDataPoint[]{new InternalDataPoint(t.shape, values)});
+			}
+		}
+		return executions;
+	}
+
+	/**
+	 * @return the estimated heap size of the table
+	 */
+	long getEstimatedBytes() {
+		if (columns != null) {
+			return 32 + 16 + 48L * columns.length;
+		}
+		if (values == null) {
+			// the table and the buffer object
+			return 32 + 48;
+		}
+		return 32 + 16 + 4L * size();
+	}
+}
@@ -26,18 +26,31 @@
  */
 package ch.heiafr.isc.datacockpit.database;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.IntBuffer;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 import java.util.Vector;
-import java.util.HashMap;
 import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 
 import ch.heiafr.isc.datacockpit.general_libraries.results.*;
@@ -45,33 +58,509 @@ import ch.heiafr.isc.datacockpit.general_libraries.utils.Pair;
 import ch.heiafr.isc.datacockpit.general_libraries.utils.PairList;
 import ch.heiafr.isc.datacockpit.general_libraries.utils.SimpleMap;
 import ch.heiafr.isc.datacockpit.general_libraries.utils.SimpleSet;
-import ch.heiafr.isc.datacockpit.database.io.ObjectStreamHelper;
+import ch.heiafr.isc.datacockpit.database.io.ColumnarFileMap;
+import ch.heiafr.isc.datacockpit.database.io.ColumnarFileReader;
+import ch.heiafr.isc.datacockpit.database.io.ColumnarFileWriter;
 
+/**
+ * The serialized form of the collector is its settings, followed by its
+ * properties and its data points as writeObject writes them.
+ */
 public class SmartDataPointCollector extends AbstractInOutDataManager implements Serializable {
 
-	private static final long serialVersionUID = 1L;
-	ArrayList<InternalExecution> execList;
-	TreeMap<String, InternalProperty> propList;
+	private static final long serialVersionUID = 2L;
+	// sealed batches of executions, appended with a compare-and-set
+	transient AtomicReference<Batch> lastBatch;
+	transient ConcurrentSkipListMap<String, InternalProperty> propList;
+	// dense property ids, index of the property in this array (copy on write)
+	transient volatile InternalProperty[] propById;
+	private transient Object registryLock = new Object();
+	// the distinct sets of properties defined by the data points
+	transient ConcurrentHashMap<Shape, Shape> shapes;
+
+	// estimated heap size of the data points not spilled to disk
+	private transient AtomicLong residentBytes;
+	private long heapBudget = Long.MAX_VALUE;
+	private File spillDirectory = null;
+	private transient Object spillLock = new Object();
+	// sealed data points are copied outside of the heap
+	private volatile boolean offHeap = false;
+	// where the executions are logged before being stored, null if nowhere
+	private transient volatile ExecutionJournal journal = null;
+
+	// executions added by a thread are staged here and sealed in batches
+	private transient ThreadLocal<Stage> stage;
+	private transient ConcurrentLinkedQueue<Stage> stages;
+
+	// bumped each time the stored data changes, once the change is visible
+	private final AtomicLong generation = new AtomicLong();
+	// a few results of a moderate size, raised by setQueryCacheLimits
+	private static final int QUERY_CACHE_ENTRIES = 4;
+	private static final long QUERY_CACHE_POINTS = 1000000;
+	private transient QueryResultCache queryCache = new QueryResultCache(QUERY_CACHE_ENTRIES, QUERY_CACHE_POINTS);
+	// of the last chart query going through the data points, for diagnostics
+	private transient volatile QueryPlan lastPlan = null;
 
 	final static String WC = "##";
 	final static String NULL = "null";
 
 	public static boolean usingDpHasRef = false;
 
+	/**
+	 * @return the value of a numeric property, at the precision of its
+	 * string form (Property only keeps a float)
+	 */
+	static double numericValue(Property p) {
+		try {
+			return Double.parseDouble(p.getValue());
+		}
+		catch (NumberFormatException e) {
+			return p.getFloatValue();
+		}
+	}
+
+	/**
+	 * Formats a number as before for the values a float holds exactly, and
+	 * with the precision of a double for the others.
+	 */
+	static String formatNumber(double v) {
+		float f = (float)v;
+		if (f == v || Double.isNaN(v)) {
+			return Float.toString(f);
+		}
+		return Double.toString(v);
+	}
+	/**
+	 * Number of data points a thread stages before sealing them into a batch.
+	 * Staged data points are sealed anyway as soon as the collector is queried.
+	 */
+	public static int STAGE_SIZE = 1024;
+
+	/**
+	 * Chart queries over fewer data points run on the calling thread, the
+	 * larger ones are split between the threads of the common ForkJoinPool.
+	 */
+	public static int PARALLEL_THRESHOLD = 100000;
+	private static final int MIN_CHUNK = 4096;
+
 	public SmartDataPointCollector() {
-		execList = new ArrayList<InternalExecution>();
-		propList = new TreeMap<String, InternalProperty>(String.CASE_INSENSITIVE_ORDER);
+		clear();
 	}
 	
 	public InternalProperty getInternalProperty(String key) {
-		synchronized (propList) {
-			return propList.get(key);
+		return propList.get(key);
+	}
+
+	/**
+	 * @return the property registered under this name, after creating it (with
+	 * the next free id) if this is the first time the name is seen
+	 */
+	InternalProperty registerProperty(Property p) {
+		InternalProperty ip = propList.get(p.getName());
+		if (ip != null) {
+			return ip;
 		}
+		return registerProperty(p.getName(), p.getUnit(), p instanceof ResultProperty);
 	}
-	
-	public void addInternalProperty(String key, InternalProperty prop) {
-		synchronized (propList) {
-			propList.put(key, prop);
+
+	InternalProperty registerProperty(String name, String unit, boolean result) {
+		synchronized (registryLock) {
+			InternalProperty ip = propList.get(name);
+			if (ip == null) {
+				InternalProperty[] byId = Arrays.copyOf(propById, propById.length + 1);
+				ip = new InternalProperty(name, unit, result, propById.length);
+				byId[ip.id] = ip;
+				propById = byId;
+				propList.put(ip.name, ip);
+			}
+			return ip;
+		}
+	}
+
+	/**
+	 * @return the shared shape defining these (sorted) property ids. The
+	 * properties of a shape are marked as related to each other when it is
+	 * first seen, and not for each of its data points.
+	 */
+	Shape internShape(int[] props, IngestContext context) {
+		Shape last = context.lastShape;
+		if (last != null && Arrays.equals(last.props, props)) {
+			return last;
+		}
+		Shape key = new Shape(props);
+		Shape shape = shapes.get(key);
+		if (shape == null) {
+			// relations are set before the shape becomes visible to the other threads
+			InternalProperty[] byId = propById;
+			for (int i : props) {
+				for (int j : props) {
+					if (i != j) {
+						byId[i].setRelatedTo(byId[j]);
+					}
+				}
+			}
+			shape = shapes.putIfAbsent(key, key);
+			if (shape == null) {
+				shape = key;
+			}
+		}
+		context.lastShape = shape;
+		return shape;
+	}
+
+	private void initStages() {
+		stages = new ConcurrentLinkedQueue<Stage>();
+		stage = new ThreadLocal<Stage>() {
+			@Override
+			protected Stage initialValue() {
+				Stage s = new Stage();
+				stages.add(s);
+				return s;
+			}
+		};
+	}
+
+	/**
+	 * Writes the properties with their values, then the batches as they are
+	 * stored, as saveToFile does : per batch, its number of executions and
+	 * its tables, each as its property ids, its rows and its value ids. The
+	 * executions added while writing may be left out.
+	 */
+	private void writeObject(java.io.ObjectOutputStream out) throws java.io.IOException {
+		Snapshot snap = acquireSnapshot();
+		try {
+			out.defaultWriteObject();
+			// read after the snapshot, all the properties of its data points are there
+			out.writeObject(propById);
+			ArrayList<ShapeTable[]> batches = new ArrayList<ShapeTable[]>();
+			ArrayList<Integer> executions = new ArrayList<Integer>();
+			for (Batch b : snap.last.chain()) {
+				batches.add(b.getTables());
+				executions.add(b.totalExecutions - (b.previous == null ? 0 : b.previous.totalExecutions));
+			}
+			batches.add(snap.staged);
+			executions.add(snap.totalExecutions - snap.last.totalExecutions);
+			out.writeInt(batches.size());
+			for (int i = 0 ; i < batches.size() ; i++) {
+				ShapeTable[] tables = batches.get(i);
+				out.writeInt(executions.get(i));
+				out.writeInt(tables.length);
+				for (ShapeTable t : tables) {
+					int[] values = new int[t.size()];
+					for (int j = 0 ; j < values.length ; j++) {
+						values[j] = t.get(j);
+					}
+					out.writeObject(t.shape.props);
+					out.writeInt(t.rows);
+					out.writeObject(values);
+				}
+			}
+		}
+		finally {
+			snap.release();
+		}
+	}
+
+	private void readObject(java.io.ObjectInputStream in) throws java.io.IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		registryLock = new Object();
+		spillLock = new Object();
+		queryCache = new QueryResultCache(QUERY_CACHE_ENTRIES, QUERY_CACHE_POINTS);
+		clear();
+		InternalProperty[] byId = (InternalProperty[])in.readObject();
+		for (InternalProperty ip : byId) {
+			propList.put(ip.name, ip);
+		}
+		propById = byId;
+		IngestContext context = new IngestContext();
+		int batches = in.readInt();
+		for (int i = 0 ; i < batches ; i++) {
+			int executions = in.readInt();
+			ShapeTable[] tables = new ShapeTable[in.readInt()];
+			int dataPoints = 0;
+			for (int k = 0 ; k < tables.length ; k++) {
+				Shape shape = internShape((int[])in.readObject(), context);
+				int rows = in.readInt();
+				tables[k] = new ShapeTable(shape, rows, (int[])in.readObject());
+				dataPoints += rows;
+			}
+			if (tables.length > 0 || executions > 0) {
+				publish(tables, executions, dataPoints, -1);
+			}
+		}
+	}
+
+	/**
+	 * Bounds the results of chart queries kept for the queries to come. The
+	 * results are kept until the data changes, and the least recently used
+	 * ones are dropped beyond these limits, by default 4 results and 1M
+	 * points.
+	 * @param entries the number of results kept, 0 to disable the cache
+	 * @param points the total number of points of these results
+	 */
+	public void setQueryCacheLimits(int entries, long points) {
+		queryCache.setLimits(entries, points);
+	}
+
+	/**
+	 * Bounds the heap used by the data points. Once their estimated size
+	 * exceeds the budget, the oldest batches are written to memory-mapped
+	 * files and read back from there by the queries. The property
+	 * dictionaries always stay in memory.
+	 * @param bytes the budget, Long.MAX_VALUE to never spill
+	 * @param directory where the files are created, null for the default
+	 * temporary directory
+	 */
+	public void setHeapBudget(long bytes, File directory) {
+		this.heapBudget = bytes;
+		this.spillDirectory = directory;
+		spillIfNeeded();
+	}
+
+	/**
+	 * Keeps the data points sealed from now on in direct buffers, outside of
+	 * the heap, so that the garbage collector does not have to go through
+	 * them. Only a small descriptor per property set and batch stays on the
+	 * heap, with the property dictionaries. The size of the direct memory is
+	 * bounded by the -XX:MaxDirectMemorySize option of the JVM. The buffers
+	 * are freed when the collector is cleared, once the queries running are
+	 * done, and these batches are never spilled to disk.
+	 */
+	public void setOffHeap(boolean offHeap) {
+		this.offHeap = offHeap;
+	}
+
+	/**
+	 * Adds the executions of the journal file left by a previous run, if
+	 * any, then logs in it every execution added from now on, so that the
+	 * collector can be rebuilt after a crash. The file is forced to the disk
+	 * every syncMillis or every syncRecords additions, whichever comes first:
+	 * a crash loses at most the executions of the last period. Clearing the
+	 * collector empties the journal.
+	 * @return the number of executions read back from the journal
+	 */
+	public int openJournal(File f, long syncMillis, int syncRecords) throws IOException {
+		closeJournal();
+		ExecutionJournal j = ExecutionJournal.open(f, this, syncMillis, syncRecords, true);
+		journal = j;
+		return j.getNumberOfReplayedExecutions();
+	}
+
+	/**
+	 * Opens the journal as openJournal does, without reading back its
+	 * executions: they must already be in the collector, the journal having
+	 * been closed by closeJournal since.
+	 */
+	public void reopenJournal(File f, long syncMillis, int syncRecords) throws IOException {
+		closeJournal();
+		journal = ExecutionJournal.open(f, this, syncMillis, syncRecords, false);
+	}
+
+	/**
+	 * Writes the executions not logged yet and stops logging them
+	 */
+	public void closeJournal() throws IOException {
+		ExecutionJournal j = journal;
+		if (j != null) {
+			journal = null;
+			j.close();
+		}
+	}
+
+	/**
+	 * Appends a batch of executions to the store without locking
+	 * @param source the id of the tail the executions come from, -1 if none
+	 */
+	private void publish(InternalExecution[] executions, int dataPoints, long source) {
+		publish(ShapeTable.tabulate(executions), executions.length, dataPoints, source);
+	}
+
+	private void publish(ShapeTable[] tables, int executions, int dataPoints, long source) {
+		// the batches of many small tables compute them when needed
+		publish(tables, TableBuffer.isSparse(tables) ? null : PropertyCatalog.summarize(tables), executions, dataPoints, source);
+	}
+
+	private void publish(ShapeTable[] tables, PropertyCatalog.Summary[] summaries, int executions, int dataPoints, long source) {
+		Batch next = null;
+		while (next == null) {
+			Batch previous = lastBatch.get();
+			OffHeapMemory memory = previous.memory;
+			if (!memory.acquire()) {
+				// cleared meanwhile
+				continue;
+			}
+			try {
+				// the copy is freed with the memory of the chain it is added to
+				TableBuffer buffer = null;
+				if (offHeap) {
+					buffer = TableBuffer.copyTo(tables, memory.allocateDirect(ShapeTable.totalSize(tables)));
+				} else if (TableBuffer.isSparse(tables)) {
+					buffer = TableBuffer.pack(tables);
+				}
+				while (previous.memory == memory) {
+					Batch b = new Batch(previous, (buffer == null) ? tables : null, buffer, executions, summaries, dataPoints, source);
+					if (lastBatch.compareAndSet(previous, b)) {
+						next = b;
+						break;
+					}
+					previous = lastBatch.get();
+				}
+			}
+			finally {
+				memory.release();
+			}
+		}
+		if (next.isResident()) {
+			residentBytes.addAndGet(next.estimatedBytes);
+		}
+		spillIfNeeded();
+	}
+
+	/**
+	 * Spills the oldest resident batches until the data points fit the budget.
+	 * One thread spills at a time, the others keep on ingesting.
+	 */
+	private void spillIfNeeded() {
+		if (residentBytes.get() <= heapBudget) {
+			return;
+		}
+		synchronized (spillLock) {
+			Batch last = lastBatch.get();
+			if (!last.memory.acquire()) {
+				// cleared meanwhile
+				return;
+			}
+			try {
+				for (Batch b : last.chain()) {
+					if (residentBytes.get() <= heapBudget) {
+						break;
+					}
+					if (b.isResident()) {
+						b.spill(spillDirectory);
+						residentBytes.addAndGet(-b.estimatedBytes);
+					}
+				}
+			}
+			catch (IOException e) {
+				throw new IllegalStateException("Cannot spill data points to disk", e);
+			}
+			finally {
+				last.memory.release();
+			}
+		}
+	}
+
+	/**
+	 * Takes a consistent view of the store without blocking the ingesting
+	 * threads : the last published batch, plus what each thread has added to
+	 * its tail and not yet sealed into one of the published batches.
+	 */
+	Snapshot snapshot() {
+		ArrayList<Tail> tails = new ArrayList<Tail>();
+		ArrayList<Integer> sizes = new ArrayList<Integer>();
+		for (Iterator<Stage> it = stages.iterator() ; it.hasNext() ; ) {
+			Stage s = it.next();
+			if (!s.owner.isAlive() && s.orphaned.compareAndSet(false, true)) {
+				// nobody else will seal it
+				s.seal();
+				it.remove();
+				continue;
+			}
+			Tail t = s.tail;
+			tails.add(t);
+			sizes.add(t.count);
+		}
+		Batch last = lastBatch.get();
+		ArrayList<InternalExecution> staged = new ArrayList<InternalExecution>();
+		for (int i = 0 ; i < tails.size() ; i++) {
+			Tail t = tails.get(i);
+			if (!t.isSealedIn(last)) {
+				for (int j = 0 ; j < sizes.get(i) ; j++) {
+					staged.add(t.slots[j]);
+				}
+			}
+		}
+		return new Snapshot(last, staged.toArray(new InternalExecution[staged.size()]));
+	}
+
+	/**
+	 * Takes a snapshot as snapshot() does, whose data points stay readable
+	 * until it is released, even if the collector is cleared meanwhile. The
+	 * snapshots only read for their counts need not be acquired.
+	 */
+	Snapshot acquireSnapshot() {
+		while (true) {
+			Snapshot snap = snapshot();
+			if (snap.last.memory.acquire()) {
+				return snap;
+			}
+		}
+	}
+
+	private static final AtomicLong tailIds = new AtomicLong();
+
+	/**
+	 * The executions added by a thread since it last sealed a batch. Only the
+	 * owner thread writes to a tail, readers see its first count slots.
+	 */
+	private static class Tail {
+		private final long id = tailIds.getAndIncrement();
+		private final InternalExecution[] slots;
+		// the batches sealed from this tail come after this one
+		private final long createdAfter;
+		private volatile int count = 0;
+		private volatile boolean sealing = false;
+		private int dataPoints = 0;
+
+		Tail(int capacity, Batch last) {
+			this.slots = new InternalExecution[capacity];
+			this.createdAfter = last.seq;
+		}
+
+		boolean isSealedIn(Batch last) {
+			if (!sealing) {
+				return false;
+			}
+			for (Batch b = last ; b != null && b.seq > createdAfter ; b = b.previous) {
+				if (b.source == id) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * The executions added by one thread and not yet published
+	 */
+	private class Stage {
+		private final Thread owner = Thread.currentThread();
+		// set when a reader takes over the tail of a dead owner
+		private final AtomicBoolean orphaned = new AtomicBoolean(false);
+		// only used by the owner thread
+		private final IngestContext context = new IngestContext();
+		private volatile Tail tail = new Tail(Math.max(1, STAGE_SIZE), lastBatch.get());
+
+		void add(InternalExecution ie) {
+			Tail t = tail;
+			t.slots[t.count] = ie;
+			t.dataPoints += ie.dataPoints.size();
+			t.count = t.count + 1;
+			if (t.dataPoints >= STAGE_SIZE || t.count == t.slots.length) {
+				seal();
+			}
+		}
+
+		void seal() {
+			Tail t = tail;
+			int count = t.count;
+			if (count == 0) {
+				return;
+			}
+			// readers seeing this flag look for the batch in the published ones
+			t.sealing = true;
+			publish(Arrays.copyOf(t.slots, count), t.dataPoints, t.id);
+			tail = new Tail(Math.max(1, STAGE_SIZE), lastBatch.get());
 		}
 	}
 	
@@ -83,45 +572,287 @@ public class SmartDataPointCollector extends AbstractInOutDataManager implements
 	}
 	
 	public Map<String, InternalProperty> getPropListCopy() {
-		synchronized (propList) {
-			SimpleMap<String, InternalProperty> gs = new SimpleMap<String, InternalProperty>(propList.size());
-			for (Map.Entry<String, InternalProperty> s : propList.entrySet()) {
-				gs.put(s.getKey(), s.getValue());
-			}
-			return gs;
+		SimpleMap<String, InternalProperty> gs = new SimpleMap<String, InternalProperty>(propList.size());
+		for (Map.Entry<String, InternalProperty> s : propList.entrySet()) {
+			gs.put(s.getKey(), s.getValue());
 		}
+		return gs;
 	}	
 	
-	public ArrayList<InternalExecution> getExecListCopy() {
-		synchronized (execList) {
-			@SuppressWarnings("unchecked")
-			ArrayList<InternalExecution> copy = (ArrayList<InternalExecution>)execList.clone();
-			return copy;
+
+	/**
+	 * Writes the data points and the dictionaries of their properties in a
+	 * columnar file (see ColumnarFileWriter), read back by loadFromFile. The
+	 * executions added while saving may be left out.
+	 */
+	public void saveToFile(File f) throws IOException {
+		Snapshot snap = acquireSnapshot();
+		// read after the snapshot, all the properties of its data points are there
+		InternalProperty[] byId = propById;
+		try (ColumnarFileWriter w = new ColumnarFileWriter(f, byId.length)) {
+			for (InternalProperty ip : byId) {
+				ip.write(w);
+			}
+			for (Batch b : snap.last.chain()) {
+				int executions = b.totalExecutions - (b.previous == null ? 0 : b.previous.totalExecutions);
+				writeBatch(w, b.getTables(), executions);
+			}
+			writeBatch(w, snap.staged, snap.totalExecutions - snap.last.totalExecutions);
+		}
+		finally {
+			snap.release();
+		}
+	}
+
+	private static void writeBatch(ColumnarFileWriter w, ShapeTable[] tables, int executions) throws IOException {
+		if (tables.length == 0 && executions == 0) {
+			return;
+		}
+		w.writeBatch(executions, tables.length);
+		for (ShapeTable t : tables) {
+			w.writeTable(t.shape.props, t.rows, t.toColumns());
+		}
+	}
+
+	/**
+	 * Replaces the content of the collector by the one of a file written by
+	 * saveToFile, or of a serialized list of executions and properties
+	 */
+	public void loadFromFile(File f) {
+		if (ColumnarFileReader.isColumnarFile(f)) {
+			try {
+				loadColumnarFile(f);
+			}
+			catch (IOException e) {
+				throw new IllegalStateException("Cannot read " + f, e);
+			}
+		} else {
+			loadSerializedFile(f);
 		}
 	}
 
+	/**
+	 * Publishes the batches of the file as they were saved, the property and
+	 * value ids being the same
+	 */
+	private void loadColumnarFile(File f) throws IOException {
+		clear();
+		final IngestContext context = new IngestContext();
+		ColumnarFileReader.read(f, new ColumnarFileReader.Visitor() {
+			private InternalProperty current;
+			private int valueId;
+			private ShapeTable[] tables;
+			private PropertyCatalog.Summary[] summaries;
+			private int filled;
+			private int executions;
+			private int dataPoints;
+
+			public void property(String name, String unit, boolean result, int values) {
+				current = registerProperty(name, unit, result);
+				valueId = 0;
+			}
+
+			public void numberValue(double value) {
+				checkId(current.getNumberValueId(value));
+			}
+
+			public void stringValue(String value) {
+				checkId(current.getStringValueId(value));
+			}
+
+			private void checkId(int id) {
+				if (id != valueId++) {
+					throw new IllegalStateException("Value " + valueId + " of " + current.name + " is a duplicate");
+				}
+			}
+
+			public void batch(int executions, int tables) {
+				this.tables = new ShapeTable[tables];
+				this.summaries = new PropertyCatalog.Summary[tables];
+				this.filled = 0;
+				this.executions = executions;
+				this.dataPoints = 0;
+				if (tables == 0) {
+					publish(this.tables, executions, 0, -1);
+				}
+			}
 
+			public void table(int[] props, int rows, int[][] columns, int[] constants) {
+				ShapeTable t = ShapeTable.fromColumns(internShape(props, context), rows, columns);
+				tables[filled] = t;
+				// the files of version 1 do not have the constants
+				summaries[filled++] = (constants == null) ? PropertyCatalog.summarize(new ShapeTable[]{t})[0] : new PropertyCatalog.Summary(t.shape, rows, constants);
+				dataPoints += rows;
+				if (filled == tables.length) {
+					publish(tables, summaries, executions, dataPoints, -1);
+				}
+			}
+		});
+		generation.incrementAndGet();
+	}
+
+	/**
+	 * Publishes the batches of a mapped file, their tables reading the
+	 * columns of the mapping. The values of the properties are only read
+	 * when they are first needed.
+	 */
+	void openMapped(ColumnarFileMap map) {
+		clear();
+		for (ColumnarFileMap.PropertyEntry p : map.getProperties()) {
+			registerProperty(p.getName(), p.getUnit(), p.isResult()).setPendingValues(p);
+		}
+		IngestContext context = new IngestContext();
+		for (ColumnarFileMap.BatchEntry b : map.getBatches()) {
+			ColumnarFileMap.TableEntry[] entries = b.getTables();
+			ShapeTable[] tables = new ShapeTable[entries.length];
+			PropertyCatalog.Summary[] summaries = new PropertyCatalog.Summary[entries.length];
+			int dataPoints = 0;
+			for (int i = 0 ; i < entries.length ; i++) {
+				ColumnarFileMap.TableEntry e = entries[i];
+				IntBuffer[] columns = new IntBuffer[e.getProperties().length];
+				for (int k = 0 ; k < columns.length ; k++) {
+					columns[k] = e.getColumn(k);
+				}
+				tables[i] = ShapeTable.ofColumns(internShape(e.getProperties(), context), e.getRows(), columns);
+				summaries[i] = new PropertyCatalog.Summary(tables[i].shape, e.getRows(), e.getConstants());
+				dataPoints += e.getRows();
+			}
+			publish(tables, summaries, b.getExecutions(), dataPoints, -1);
+		}
+		generation.incrementAndGet();
+	}
+
+	/**
+	 * Adds the executions of a file of serialized executions and properties.
+	 * The files of the legacy layout (see LegacySerializedFile) have their
+	 * data points added again, which gives new ids to their values.
+	 */
 	@SuppressWarnings("unchecked")
-	public void loadFromFile(java.io.File f) {
-		Object[] s = ObjectStreamHelper.readObject(f);
-		execList = (ArrayList<InternalExecution>)s[0];
-		propList = (TreeMap<String, InternalProperty>)s[1];
+	private void loadSerializedFile(File f) {
+		Object[] s = LegacySerializedFile.read(f);
+		clear();
+		ArrayList<InternalExecution> execList = (ArrayList<InternalExecution>)s[0];
+		if (LegacySerializedFile.isLegacy((Map<?, ?>)s[1])) {
+			IngestContext context = new IngestContext();
+			List<Execution> executions = LegacySerializedFile.toExecutions(execList, (Map<?, ?>)s[1]);
+			InternalExecution[] batch = new InternalExecution[executions.size()];
+			int dataPoints = 0;
+			for (int i = 0 ; i < batch.length ; i++) {
+				batch[i] = new InternalExecution(this, executions.get(i), context);
+				dataPoints += batch[i].dataPoints.size();
+			}
+			publishReplayed(batch, dataPoints);
+			return;
+		}
+		propList.putAll((Map<String, InternalProperty>)s[1]);
+		InternalProperty[] byId = new InternalProperty[propList.size()];
+		for (InternalProperty ip : propList.values()) {
+			byId[ip.id] = ip;
+		}
+		propById = byId;
+		int dataPoints = 0;
+		IngestContext context = new IngestContext();
+		for (InternalExecution exec : execList) {
+			dataPoints += exec.dataPoints.size();
+			for (InternalDataPoint dp : exec.dataPoints) {
+				dp.shape = internShape(dp.shape.props, context);
+			}
+		}
+		publish(execList.toArray(new InternalExecution[execList.size()]), dataPoints, -1);
+		generation.incrementAndGet();
 	}
 
 	public void addExecution(Execution e) {
 		if (e != null) {
-			synchronized (execList) {
-				InternalExecution ie = new InternalExecution(this, e);				
-				execList.add(ie);
+			Stage s = stage.get();
+			InternalExecution ie = new InternalExecution(this, e, s.context);
+			ExecutionJournal j = journal;
+			if (j != null) {
+				j.append(ie);
 			}
+			s.add(ie);
+			generation.incrementAndGet();
 		} else {
 			throw new NullPointerException("A null execution has been submitted to the DB");
 		}
 	}
 
+	/**
+	 * Stores the executions in a single batch. Property names are resolved once
+	 * for the whole batch and the batch is published in one operation.
+	 */
+	@Override
+	public void addExecutions(Collection<Execution> executions) {
+		IngestContext context = new IngestContext();
+		InternalExecution[] batch = new InternalExecution[executions.size()];
+		int dataPoints = 0;
+		int i = 0;
+		for (Execution e : executions) {
+			if (e == null) {
+				throw new NullPointerException("A null execution has been submitted to the DB");
+			}
+			batch[i] = new InternalExecution(this, e, context);
+			dataPoints += batch[i++].dataPoints.size();
+		}
+		ExecutionJournal j = journal;
+		if (j != null) {
+			j.append(batch);
+		}
+		publishReplayed(batch, dataPoints);
+	}
+
+	/**
+	 * Publishes executions already resolved, added in one batch or read
+	 * back from the journal
+	 */
+	void publishReplayed(InternalExecution[] batch, int dataPoints) {
+		// what this thread staged before comes first
+		stage.get().seal();
+		publish(batch, dataPoints, -1);
+		generation.incrementAndGet();
+	}
+
+	/**
+	 * Publishes the tables of rows imported from a file, each row being a
+	 * data point of its own execution
+	 */
+	void addTables(ShapeTable[] tables, PropertyCatalog.Summary[] summaries, int rows) {
+		ExecutionJournal j = journal;
+		if (j != null) {
+			j.append(ShapeTable.toExecutions(tables, rows));
+		}
+		stage.get().seal();
+		publish(tables, summaries, rows, rows, -1);
+		generation.incrementAndGet();
+	}
+
+	/**
+	 * Removes every execution. An open journal is emptied too: the executions
+	 * cleared are not read back after a restart.
+	 */
 	public void clear() {
-		execList = new ArrayList<InternalExecution>();
-		propList = new TreeMap<String, InternalProperty>(String.CASE_INSENSITIVE_ORDER);
+		ExecutionJournal j = journal;
+		if (j != null) {
+			try {
+				j.truncate();
+			}
+			catch (IOException e) {
+				throw new IllegalStateException("Cannot empty the journal", e);
+			}
+		}
+		if (lastBatch == null) {
+			lastBatch = new AtomicReference<Batch>(Batch.root());
+		} else {
+			// its spill files are deleted once the queries running are done
+			lastBatch.getAndSet(Batch.root()).memory.retire();
+		}
+		residentBytes = new AtomicLong();
+		propList = new ConcurrentSkipListMap<String, InternalProperty>(String.CASE_INSENSITIVE_ORDER);
+		propById = new InternalProperty[0];
+		shapes = new ConcurrentHashMap<Shape, Shape>();
+		initStages();
+		generation.incrementAndGet();
+		queryCache.clear();
 	}
 
 	public List<String> getMetrics() {
@@ -149,248 +880,1220 @@ public class SmartDataPointCollector extends AbstractInOutDataManager implements
 	}
 
 
+	/**
+	 * @return the sorted values of the property, with the wildcard if some
+	 * data points do not define it. The set is shared and cannot be modified.
+	 */
 	@SuppressWarnings("unchecked")
 	public Set<String> getPossibleValuesOfGivenProperty(String property) {
-		synchronized (execList) {
-			InternalProperty ip = propList.get(property);
-			if (ip != null) {
-				return ip.getValues();
+		Snapshot snap = snapshot();
+		InternalProperty ip = propList.get(property);
+		if (ip != null) {
+			return ip.getValues(snap.countDefining(ip.id) < snap.totalDataPoints);
+		}
+		return SimpleSet.EMPTY_SET;
+	}
+
+	/**
+	 * @return the number of data points defining the property
+	 */
+	public int getNumberOfDataPointsDefining(String property) {
+		InternalProperty ip = propList.get(property);
+		return (ip == null) ? 0 : snapshot().countDefining(ip.id);
+	}
+
+	/**
+	 * @return the smallest and largest numeric values of the property, null
+	 * if it has none
+	 */
+	public double[] getNumericRange(String property) {
+		InternalProperty ip = propList.get(property);
+		return (ip == null) ? null : ip.getNumericRange();
+	}
+
+	ResolvedFilter[] resolveFilters(Map<String, List<String>> filters) {
+		if (filters == null) {
+			return new ResolvedFilter[0];
+		}
+		ResolvedFilter[] list = new ResolvedFilter[filters.size()];
+		int i = 0;
+		for (Map.Entry<String, List<String>> prop : filters.entrySet()) {
+			list[i++] = new ResolvedFilter(propList.get(prop.getKey()), prop.getValue());
+		}
+		return list;
+	}
+
+	/**
+	 * A filter of the DataRetrievalOptions, with the accepted values translated
+	 * into value ids of the filtered property once per query
+	 */
+	static class ResolvedFilter {
+		private final InternalProperty prop;
+		private final boolean wildcard;
+		private final BitSet accepted = new BitSet();
+		private final int nbAccepted;
+
+		ResolvedFilter(InternalProperty prop, List<String> values) {
+			this.prop = prop;
+			this.wildcard = values.contains(WC);
+			if (prop != null) {
+				for (String v : values) {
+					int id = prop.getValueId(v);
+					if (id >= 0) {
+						accepted.set(id);
+					}
+				}
+			}
+			this.nbAccepted = accepted.cardinality();
+		}
+
+		/**
+		 * @return the filtered property, null if no data point defines it
+		 */
+		InternalProperty getProperty() {
+			return prop;
+		}
+
+		BitSet getAccepted() {
+			return accepted;
+		}
+
+		int getNumberOfAccepted() {
+			return nbAccepted;
+		}
+
+		/**
+		 * @return the position of the filtered property in the rows of this
+		 * shape, ALWAYS or NEVER if the shape alone decides
+		 */
+		int bind(Shape shape) {
+			int pos = (prop == null) ? -1 : shape.positionOf(prop.id);
+			if (pos < 0) {
+				return wildcard ? ALWAYS : NEVER;
+			}
+			return pos;
+		}
+
+		boolean accept(int valueId) {
+			return accepted.get(valueId);
+		}
+	}
+
+	static final int ALWAYS = -1;
+	static final int NEVER = -2;
+
+	/**
+	 * Groups the data points by criteria combination in a single pass. The
+	 * value of a data point for each criterion is translated into the index
+	 * of this value among the possible ones of the criterion, and the index
+	 * of the combination is computed from them, in the order in which the
+	 * CriteriaIterator enumerates the combinations (first criterion first).
+	 */
+	private class GroupBy {
+		private final Criterium[] criteria;
+		// per criterion, null for CONSTANT or unknown properties
+		private final InternalProperty[] props;
+		// per criterion, value id to index among the possible values (-1 if none)
+		private final int[][] indexOfValue;
+		// per criterion, the index for the data points not defining the
+		// property (the wildcard, -1 if it cannot match)
+		private final int[] undefinedIndex;
+		private final int[] strides;
+		private final CriteriumSet cs;
+		final int combinations;
+
+		GroupBy(CriteriumSet cs, Map<String, List<String>> filters) {
+			this.cs = cs;
+			ArrayList<Criterium> list = new ArrayList<Criterium>();
+			for (List<Criterium> l : cs) {
+				list.addAll(l);
+			}
+			criteria = list.toArray(new Criterium[list.size()]);
+			props = new InternalProperty[criteria.length];
+			indexOfValue = new int[criteria.length][];
+			undefinedIndex = new int[criteria.length];
+			strides = new int[criteria.length];
+			int total = 1;
+			for (int i = 0 ; i < criteria.length ; i++) {
+				Criterium c = criteria[i];
+				List<String> values = c.getPossibleValues();
+				strides[i] = total;
+				total *= values.size();
+				undefinedIndex[i] = -1;
+				if (c.getName().equals(CONSTANT)) {
+					undefinedIndex[i] = values.indexOf(CONSTANT);
+					continue;
+				}
+				List<String> filter = (filters == null) ? null : filters.get(c.getName());
+				if (filter == null || filter.contains(WC)) {
+					undefinedIndex[i] = values.indexOf(WC);
+				}
+				InternalProperty ip = propList.get(c.getName());
+				if (ip == null) {
+					continue;
+				}
+				props[i] = ip;
+				int[] index = new int[0];
+				for (int k = 0 ; k < values.size() ; k++) {
+					int id = values.get(k).equals(WC) ? -1 : ip.getValueId(values.get(k));
+					if (id >= 0) {
+						if (id >= index.length) {
+							int length = index.length;
+							index = Arrays.copyOf(index, Math.max(id + 1, 2 * length));
+							Arrays.fill(index, length, index.length, -1);
+						}
+						index[id] = k;
+					}
+				}
+				indexOfValue[i] = index;
+			}
+			combinations = total;
+		}
+
+		/**
+		 * Sets, for the data points of this shape, the position in the row of
+		 * the value of each criterion, or -1 if the criterion has the same
+		 * index for all of them
+		 * @return the part of the combination index common to all the data
+		 * points of the shape, -1 if none of them belongs to a combination
+		 */
+		int bind(Shape shape, int[] positions) {
+			int base = 0;
+			for (int i = 0 ; i < criteria.length ; i++) {
+				positions[i] = (props[i] == null) ? -1 : shape.positionOf(props[i].id);
+				if (positions[i] < 0) {
+					if (undefinedIndex[i] < 0) {
+						return -1;
+					}
+					base += undefinedIndex[i] * strides[i];
+				}
+			}
+			return base;
+		}
+
+		/**
+		 * @return the index of the combination of the data point at this
+		 * offset, -1 if it does not belong to any
+		 */
+		int combinationOf(ShapeTable table, int offset, int base, int[] positions) {
+			int key = base;
+			for (int i = 0 ; i < positions.length ; i++) {
+				if (positions[i] >= 0) {
+					int id = table.get(offset + positions[i]);
+					int[] index = indexOfValue[i];
+					if (id >= index.length || index[id] < 0) {
+						return -1;
+					}
+					key += index[id] * strides[i];
+				}
+			}
+			return key;
+		}
+
+		/**
+		 * @return the combination of this index, as returned by the
+		 * CriteriaIterator
+		 */
+		List<PairList<String, String>> combination(int key) {
+			List<PairList<String, String>> ret = new ArrayList<PairList<String, String>>(cs.size());
+			int index = 0;
+			for (List<Criterium> l : cs) {
+				PairList<String, String> lp = new PairList<String, String>(l.size());
+				for (Criterium c : l) {
+					int size = c.getPossibleValues().size();
+					lp.add(new Pair<String, String>(c.getName(), c.getPossibleValue((key / strides[index]) % size)));
+					index++;
+				}
+				ret.add(lp);
+			}
+			return ret;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public Vector[] getVariableAndConstantPropertiesForGivenMetric(String s) {
+		Vector<String> toRet1 = null;
+		try {
+			toRet1 = new Vector<String>(propList.get(s).relatedProperties.keySet());
+		}
+		catch (NullPointerException e) {
+			System.out.println("hum");
+			return new Vector[]{};
+		}
+
+		TreeMap<String, String> constants = new TreeMap<String, String>();
+		int metricId = propList.get(s).id;
+
+		// a property is constant if all the data points defining the metric
+		// have the same value for it, as told by the catalog
+		InternalProperty[] related = new InternalProperty[toRet1.size()];
+		int[] relatedIds = new int[related.length];
+		for (int i = 0 ; i < related.length ; i++) {
+			related[i] = propList.get(toRet1.get(i));
+			relatedIds[i] = related[i].id;
+		}
+		Integer[] values = snapshot().catalog().getConstants(metricId, relatedIds);
+		if (values == null) return new Vector[]{toRet1, new Vector(), null};
+
+		for (int i = 0 ; i < related.length ; i++) {
+			if (values[i] != null) {
+				constants.put(related[i].name, values[i] < 0 ? null : related[i].getValueString(values[i]));
+			}
+		}
+		toRet1.removeAll(constants.keySet());
+		
+		java.util.Collections.sort(toRet1);
+		
+		Vector<String> s1 = new Vector();
+		Vector<String> s2 = new Vector();		
+		for (Map.Entry<String, String> ent : constants.entrySet()) {
+			s1.add(ent.getKey());
+			s2.add(ent.getValue());
+		}
+		
+
+		
+		return new Vector[]{toRet1, s1, s2};
+	}
+
+
+
+	public List<DataSeries> getChartValues(DataRetrievalOptions p, String methodName) {
+		return getChartValues(p, new String[]{methodName}).get(0);
+	}
+
+	/**
+	 * Returns the series computed by a previous query with the same metric,
+	 * x axis, criteria and filters if the data has not changed since. The
+	 * series are shared and must not be modified.
+	 */
+	public List<DataSeries> getChartValues(String xAxis, CriteriumSet cs, Map<String, List<String>> filters, String methodName) {
+		return getCachedChartValues(xAxis, cs, filters, new String[]{methodName}, null, SeriesSink.FACTORY).get(0);
+	}
+
+	/**
+	 * Computes the series of all the metrics missing in the cache while going
+	 * through the data points once, reducing the points of each x value while
+	 * doing so if the options ask for it
+	 */
+	@Override
+	public List<List<DataSeries>> getChartValues(DataRetrievalOptions p, String[] methodNames) {
+		if (p.reduction == DataRetrievalOptions.Reduction.NONE) {
+			return getCachedChartValues(p.xAxisProperty, p.getCriteriumSet(), p.getFilters(), methodNames, null, SeriesSink.FACTORY);
+		}
+		Object variant = Arrays.asList(p.reduction, p.reductionSize, p.samplingSeed);
+		SinkFactory factory = new ReductionSink.Factory(p.reduction, p.reductionSize, p.samplingSeed);
+		return getCachedChartValues(p.xAxisProperty, p.getCriteriumSet(), p.getFilters(), methodNames, variant, factory);
+	}
+
+	/**
+	 * Computes the statistics of each x value while going through the data
+	 * points, which are never turned into series of points
+	 */
+	@Override
+	public List<AggregatedDataSeries> getAggregatedChartValues(DataRetrievalOptions p, String methodName) {
+		return getAggregatedChartValues(p, new String[]{methodName}).get(0);
+	}
+
+	@Override
+	public List<List<AggregatedDataSeries>> getAggregatedChartValues(DataRetrievalOptions p, String[] methodNames) {
+		List<List<AggregatedDataSeries>> toRet = new ArrayList<List<AggregatedDataSeries>>(methodNames.length);
+		SinkFactory factory = new StatisticsSink.Factory(p.is95);
+		for (List<DataSeries> result : getCachedChartValues(p.xAxisProperty, p.getCriteriumSet(), p.getFilters(), methodNames, p.is95, factory)) {
+			List<AggregatedDataSeries> l = new ArrayList<AggregatedDataSeries>(result.size());
+			for (DataSeries ds : result) {
+				l.add((AggregatedDataSeries)ds);
 			}
-			return SimpleSet.EMPTY_SET;
+			toRet.add(l);
 		}
+		return toRet;
 	}
 
-	private boolean filter(InternalDataPoint dp, Map<String, List<String>> p) {
-		for (Map.Entry<String, List<String>> prop : p.entrySet()) {
-			if (prop.getValue().contains(WC)) {
-				if (!dp.isDefinedForProperty(prop.getKey())) {
+	/**
+	 * @param variant what distinguishes the series of the factory from the
+	 * series of all the points (null for them) in the cache
+	 * @return for each metric, the series cached for it, the missing ones
+	 * being computed in a single pass over the data points
+	 */
+	private List<List<DataSeries>> getCachedChartValues(String xAxis, CriteriumSet cs, Map<String, List<String>> filters, String[] methodNames, Object variant, SinkFactory factory) {
+		// read before the data, a result may be more recent than its generation
+		long gen = generation.get();
+		cs.setPossibleValues(this);
+		List<List<DataSeries>> toRet = new ArrayList<List<DataSeries>>(methodNames.length);
+		Object[] keys = new Object[methodNames.length];
+		ArrayList<String> missing = new ArrayList<String>();
+		for (int i = 0 ; i < methodNames.length ; i++) {
+			Object key = QueryResultCache.key(methodNames[i], xAxis, cs, filters);
+			keys[i] = (variant == null) ? key : Arrays.asList(key, variant);
+			List<DataSeries> result = queryCache.get(keys[i], gen);
+			toRet.add(result);
+			if (result == null && !missing.contains(methodNames[i])) {
+				missing.add(methodNames[i]);
+			}
+		}
+		if (missing.isEmpty()) {
+			return toRet;
+		}
+		PointSink[] sinks = query(xAxis, cs, filters, missing.toArray(new String[missing.size()]), factory);
+		List<List<DataSeries>> computed = new ArrayList<List<DataSeries>>(Collections.<List<DataSeries>>nCopies(missing.size(), null));
+		for (int i = 0 ; i < methodNames.length ; i++) {
+			if (toRet.get(i) != null) {
+				continue;
+			}
+			int k = missing.indexOf(methodNames[i]);
+			if (computed.get(k) == null) {
+				List<DataSeries> series = new ArrayList<DataSeries>();
+				long points = 0;
+				PointSink sink = (sinks == null) ? null : sinks[k];
+				if (sink != null) {
+					for (DataSeries ds : sink.getSeries()) {
+						series.add(ds);
+						if (ds instanceof ArrayDataSeries) {
+							points += ((ArrayDataSeries)ds).size();
+						} else {
+							points += ((AggregatedDataSeries)ds).getStatistics().size();
+						}
+					}
+				}
+				queryCache.put(keys[i], gen, series, points);
+				computed.set(k, series);
+			}
+			toRet.set(i, computed.get(k));
+		}
+		return toRet;
+	}
+
+	/**
+	 * @return false if a chart with this x axis and these criteria has no
+	 * series: without x axis, CONSTANT must be a criterion, and with one, a
+	 * criterion must be CONSTANT or defined along with the x axis property
+	 */
+	boolean isChartDefined(String xAxis, List<List<Criterium>> cs) {
+		if (xAxis.equals("")) {
+			// checking if CONSTANT is the unique criterium
+			for (List<Criterium> lc : cs) {
+				for (Criterium c : lc) {
+					if (c.getName().equals(CONSTANT)) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+		InternalProperty xAxisProp = propList.get(xAxis);
+		if (xAxisProp == null) {
+			return false;
+		}
+		for (List<Criterium> lc : cs) {
+			for (Criterium c : lc) {
+				if (xAxisProp.relatedProperties.get(c.getName()) != null || c.getName().equals(CONSTANT)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return how a chart query with these options would go through the
+	 * data points (full scan or index lookup, with the estimated costs),
+	 * without running it
+	 */
+	public String explain(DataRetrievalOptions p, String methodName) {
+		if (!isChartDefined(p.xAxisProperty, p.getCriteriumSet())) {
+			return "NO_SERIES";
+		}
+		InternalProperty metric = propList.get(methodName);
+		if (metric == null) {
+			return "NO_SERIES";
+		}
+		InternalProperty xProp = p.xAxisProperty.equals("") ? null : propList.get(p.xAxisProperty);
+		return QueryPlan.choose(lastBatch.get(), new InternalProperty[]{metric}, xProp, resolveFilters(p.getFilters())).toString();
+	}
+
+	/**
+	 * Goes through the data points once for all the metrics, in parallel
+	 * above PARALLEL_THRESHOLD
+	 * @return the sink filled with the points of the chart of each metric,
+	 * null for the metrics without data point, or null if the chart has no
+	 * series
+	 */
+	private PointSink[] query(String xAxis, CriteriumSet cs, Map<String, List<String>> filters, String[] methodNames, SinkFactory factory) {
+
+		if (!isChartDefined(xAxis, cs)) {
+			return null;
+		}
+		boolean noXAxis = xAxis.equals("");
+
+		// the query only knows the metrics defined by data points
+		int[] metricIndex = new int[methodNames.length];
+		ArrayList<InternalProperty> metricList = new ArrayList<InternalProperty>(methodNames.length);
+		for (int i = 0 ; i < methodNames.length ; i++) {
+			InternalProperty metric = propList.get(methodNames[i]);
+			metricIndex[i] = (metric == null) ? -1 : metricList.size();
+			if (metric != null) {
+				metricList.add(metric);
+			}
+		}
+		if (metricList.isEmpty()) {
+			return null;
+		}
+		InternalProperty[] metrics = metricList.toArray(new InternalProperty[metricList.size()]);
+		InternalProperty xProp = noXAxis ? null : propList.get(xAxis);
+		ResolvedFilter[] filterList = resolveFilters(filters);
+
+		GroupBy groupBy = new GroupBy(cs, filters);
+		if (groupBy.combinations == 0) {
+			return null;
+		}
+		Snapshot snap = acquireSnapshot();
+		ChartQuery query = new ChartQuery(metrics, xProp, filterList, groupBy, factory);
+		PointSink[] sinks;
+		try {
+			sinks = query.run(snap);
+		}
+		finally {
+			snap.release();
+		}
+
+		PointSink[] toRet = new PointSink[methodNames.length];
+		for (int i = 0 ; i < methodNames.length ; i++) {
+			toRet[i] = (metricIndex[i] < 0) ? null : sinks[metricIndex[i]];
+		}
+		return toRet;
+	}
+
+	/**
+	 * What a chart query resolved before going through the data points. Can
+	 * be used by several threads at once, each scanning its own tables.
+	 */
+	private class ChartQuery {
+		private final InternalProperty[] metrics;
+		private final InternalProperty xProp;
+		private final ResolvedFilter[] filterList;
+		private final GroupBy groupBy;
+		private final SinkFactory factory;
+		private final float[][] yValues;
+		// filled as the value ids are met, an x value may be formatted twice
+		private final String[] xValues;
+
+		ChartQuery(InternalProperty[] metrics, InternalProperty xProp, ResolvedFilter[] filterList, GroupBy groupBy, SinkFactory factory) {
+			this.metrics = metrics;
+			this.xProp = xProp;
+			this.filterList = filterList;
+			this.groupBy = groupBy;
+			this.factory = factory;
+			// the snapshot is taken, no value id it contains is missing
+			this.yValues = new float[metrics.length][];
+			for (int k = 0 ; k < metrics.length ; k++) {
+				yValues[k] = metrics[k].getFloats();
+			}
+			this.xValues = (xProp == null) ? null : new String[xProp.getNumberOfValues()];
+		}
+
+		/**
+		 * @return one empty sink per metric
+		 */
+		PointSink[] createSinks() {
+			PointSink[] sinks = new PointSink[metrics.length];
+			for (int k = 0 ; k < metrics.length ; k++) {
+				sinks[k] = factory.create(this);
+			}
+			return sinks;
+		}
+
+		/**
+		 * @return the sinks of the metrics filled with the points of the
+		 * snapshot, found as the query plan chooses
+		 */
+		PointSink[] run(Snapshot snap) {
+			QueryPlan plan = QueryPlan.choose(snap.last, metrics, xProp, filterList);
+			lastPlan = plan;
+			if (plan.access == QueryPlan.Access.INDEX_LOOKUP) {
+				// the rows are visited in the order of a scan
+				PointSink[] sinks = createSinks();
+				ResolvedFilter f = plan.indexed;
+				for (Batch b : snap.last.chain()) {
+					ValueIndex[] index = b.index(f.getProperty().id);
+					ShapeTable[] tables = b.getTables();
+					for (int i = 0 ; i < tables.length ; i++) {
+						if (index[i] == null) {
+							// the shape alone decides of the filter
+							scan(tables[i], 0, tables[i].rows, sinks);
+						} else if (accepts(tables[i].shape)) {
+							scan(tables[i], index[i].lookup(f.getAccepted()), sinks);
+						}
+					}
+				}
+				for (ShapeTable table : snap.staged) {
+					scan(table, 0, table.rows, sinks);
+				}
+				return sinks;
+			}
+
+			int parallelism = ForkJoinPool.getCommonPoolParallelism();
+			if (snap.totalDataPoints < PARALLEL_THRESHOLD || parallelism < 2 || factory.isSequential()) {
+				PointSink[] sinks = createSinks();
+				for (ShapeTable[] part : snap) {
+					for (ShapeTable table : part) {
+						scan(table, 0, table.rows, sinks);
+					}
+				}
+				return sinks;
+			}
+			// segments of tables, a few per worker
+			int chunk = Math.max(MIN_CHUNK, snap.totalDataPoints / (4 * parallelism));
+			ArrayList<Segment> segments = new ArrayList<Segment>();
+			for (ShapeTable[] part : snap) {
+				for (ShapeTable table : part) {
+					for (int from = 0 ; from < table.rows ; from += chunk) {
+						segments.add(new Segment(table, from, Math.min(table.rows, from + chunk)));
+					}
+				}
+			}
+			return ForkJoinPool.commonPool().invoke(new ChartTask(this, segments, 0, segments.size(), chunk));
+		}
+
+		/**
+		 * @return the x value of this value id of the x axis property, or
+		 * CONSTANT without x axis (id -1)
+		 */
+		String xString(int xId) {
+			if (xProp == null) {
+				return CONSTANT;
+			}
+			String x = xValues[xId];
+			if (x == null) {
+				x = xProp.getValueString(xId);
+				xValues[xId] = x;
+			}
+			return x;
+		}
+
+		/**
+		 * @return false if no data point of this shape can provide a point
+		 */
+		boolean accepts(Shape shape) {
+			return bind(shape) != null;
+		}
+
+		/**
+		 * Adds the points of the given rows of the table to the sinks
+		 */
+		void scan(ShapeTable table, int fromRow, int toRow, PointSink[] sinks) {
+			// the whole table is skipped when its shape cannot provide points
+			Binding b = bind(table.shape);
+			if (b == null) {
+				return;
+			}
+			int width = table.shape.props.length;
+			for (int offset = fromRow * width ; offset < toRow * width ; offset += width) {
+				b.add(table, offset, sinks);
+			}
+		}
+
+		/**
+		 * Adds the points of the given rows (in increasing order) of the table
+		 * to the sinks
+		 */
+		void scan(ShapeTable table, int[] rows, PointSink[] sinks) {
+			Binding b = bind(table.shape);
+			if (b == null) {
+				return;
+			}
+			int width = table.shape.props.length;
+			for (int row : rows) {
+				b.add(table, row * width, sinks);
+			}
+		}
+
+		/**
+		 * @return the positions of the properties of the query in the rows
+		 * of this shape, null if its data points cannot provide points
+		 */
+		private Binding bind(Shape shape) {
+			int[] yPos = new int[metrics.length];
+			boolean any = false;
+			for (int k = 0 ; k < metrics.length ; k++) {
+				yPos[k] = shape.positionOf(metrics[k].id);
+				any |= (yPos[k] >= 0);
+			}
+			int xPos = (xProp == null) ? -1 : shape.positionOf(xProp.id);
+			if (!any || (xProp != null && xPos < 0)) {
+				return null;
+			}
+			ResolvedFilter[] boundFilters = new ResolvedFilter[filterList.length];
+			int[] filterPos = new int[filterList.length];
+			int nbFilters = 0;
+			for (ResolvedFilter f : filterList) {
+				int pos = f.bind(shape);
+				if (pos == NEVER) {
+					return null;
+				} else if (pos != ALWAYS) {
+					filterPos[nbFilters] = pos;
+					boundFilters[nbFilters++] = f;
+				}
+			}
+			int[] criteriaPos = new int[groupBy.criteria.length];
+			int base = groupBy.bind(shape, criteriaPos);
+			if (base < 0) {
+				return null;
+			}
+			return new Binding(yPos, xPos, boundFilters, filterPos, nbFilters, criteriaPos, base);
+		}
+
+		private class Binding {
+			// -1 for the metrics the shape does not define
+			private final int[] yPos;
+			private final int xPos;
+			private final ResolvedFilter[] filters;
+			private final int[] filterPos;
+			private final int nbFilters;
+			private final int[] criteriaPos;
+			private final int base;
+
+			Binding(int[] yPos, int xPos, ResolvedFilter[] filters, int[] filterPos, int nbFilters, int[] criteriaPos, int base) {
+				this.yPos = yPos;
+				this.xPos = xPos;
+				this.filters = filters;
+				this.filterPos = filterPos;
+				this.nbFilters = nbFilters;
+				this.criteriaPos = criteriaPos;
+				this.base = base;
+			}
+
+			/**
+			 * Adds the point of the row at this offset to the sink of each
+			 * metric it defines, if the filters accept it
+			 */
+			void add(ShapeTable table, int offset, PointSink[] sinks) {
+				for (int k = 0 ; k < nbFilters ; k++) {
+					if (!filters[k].accept(table.get(offset + filterPos[k]))) {
+						return;
+					}
+				}
+				int j = groupBy.combinationOf(table, offset, base, criteriaPos);
+				if (j < 0) {
+					return;
+				}
+				int xId = (xPos < 0) ? -1 : table.get(offset + xPos);
+				for (int k = 0 ; k < yPos.length ; k++) {
+					if (yPos[k] >= 0) {
+						sinks[k].add(j, xId, yValues[k][table.get(offset + yPos[k])]);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Receives the points accepted by a chart query. Each thread of a
+	 * parallel query fills its own sink.
+	 */
+	private interface PointSink {
+		/**
+		 * @param xId the value id of the x axis, -1 without x axis
+		 */
+		void add(int combination, int xId, float y);
+
+		/**
+		 * Appends the points of another sink of the same query, after the
+		 * ones of this sink
+		 */
+		void addAll(PointSink other);
+
+		/**
+		 * @return the series of the query, once it is done
+		 */
+		List<? extends DataSeries> getSeries();
+	}
+
+	private interface SinkFactory {
+		PointSink create(ChartQuery query);
+
+		/**
+		 * @return true if the sinks depend on the order of the points and
+		 * cannot be merged, the query going through them in sequence
+		 */
+		default boolean isSequential() {
+			return false;
+		}
+	}
+
+	/**
+	 * Keeps the points in arrays, turned into one series per combination
+	 * once the query is done
+	 */
+	private static class SeriesSink implements PointSink {
+		static final SinkFactory FACTORY = new SinkFactory() {
+			public PointSink create(ChartQuery query) {
+				return new SeriesSink(query);
+			}
+		};
+
+		private static class Points {
+			private int[] xIds = new int[16];
+			private float[] ys = new float[16];
+			private int count = 0;
+
+			void ensureCapacity(int capacity) {
+				if (capacity > ys.length) {
+					capacity = Math.max(capacity, 2 * ys.length);
+					xIds = Arrays.copyOf(xIds, capacity);
+					ys = Arrays.copyOf(ys, capacity);
+				}
+			}
+		}
+
+		private final ChartQuery query;
+		private final Points[] dat;
+
+		SeriesSink(ChartQuery query) {
+			this.query = query;
+			this.dat = new Points[query.groupBy.combinations];
+		}
+
+		public void add(int j, int xId, float y) {
+			Points p = dat[j];
+			if (p == null) {
+				p = new Points();
+				dat[j] = p;
+			}
+			p.ensureCapacity(p.count + 1);
+			p.xIds[p.count] = xId;
+			p.ys[p.count++] = y;
+		}
+
+		public void addAll(PointSink other) {
+			Points[] right = ((SeriesSink)other).dat;
+			for (int i = 0 ; i < dat.length ; i++) {
+				Points r = right[i];
+				if (r == null) {
 					continue;
 				}
-			} else {
-				if (!dp.isDefinedForProperty(prop.getKey())) {
-					return false;
+				if (dat[i] == null) {
+					dat[i] = r;
+				} else {
+					Points p = dat[i];
+					p.ensureCapacity(p.count + r.count);
+					System.arraycopy(r.xIds, 0, p.xIds, p.count, r.count);
+					System.arraycopy(r.ys, 0, p.ys, p.count, r.count);
+					p.count += r.count;
 				}
 			}
-			if (!prop.getValue().contains(dp.getValue(prop.getKey()))) {
-				return false;
-			}
 		}
-		return true;
-	}
 
-	private boolean filterCrit(InternalDataPoint dp, List<PairList<String, String>> col, Map<String, List<String>> pw) {
-		for (PairList<String, String> pl : col) {
-			for (Pair<String, String> s : pl) {
-				if (s.getSecond() == CONSTANT) {
+		public List<DataSeries> getSeries() {
+			List<DataSeries> toRet = new ArrayList<DataSeries>();
+			// label of each x value id (shifted by one for CONSTANT) in the
+			// current series, reset after each
+			int[] labelOf = new int[(query.xValues == null ? 0 : query.xValues.length) + 1];
+			Arrays.fill(labelOf, -1);
+			for (int j = 0 ; j < dat.length ; j++) {
+				Points p = dat[j];
+				if (p == null) {
 					continue;
 				}
-				if (s.getSecond() == WC) {
-					if (dp.isDefinedForProperty(s.getFirst())) {
-						return false;
-					}
-					if (pw != null) {
-						for (Map.Entry<String, List<String>> pwc : pw.entrySet()) {
-							if (s.getFirst().equals(pwc.getKey())) {
-								if (!pwc.getValue().contains(WC)) {
-									return false;
-								}
-							}
-						}
-					}
-				} else {
-					String ipv = dp.getValue(s.getFirst());
-					if (ipv == null) {
-						return false;
-					}
-					if (!ipv.equals(s.getSecond())) {
-						return false;
+				ArrayList<String> labels = new ArrayList<String>();
+				int[] labelIds = new int[p.count];
+				for (int i = 0 ; i < p.count ; i++) {
+					int x = p.xIds[i] + 1;
+					if (labelOf[x] < 0) {
+						labelOf[x] = labels.size();
+						labels.add(query.xString(p.xIds[i]));
 					}
+					labelIds[i] = labelOf[x];
+				}
+				for (int i = 0 ; i < p.count ; i++) {
+					labelOf[p.xIds[i] + 1] = -1;
 				}
+				toRet.add(new ArrayDataSeries(query.groupBy.combination(j), labels.toArray(new String[labels.size()]), labelIds, p.ys, p.count));
 			}
+			return toRet;
 		}
-		return true;
 	}
 
-	@SuppressWarnings("unchecked")
-	public Vector[] getVariableAndConstantPropertiesForGivenMetric(String s) {
-		Vector<String> toRet1 = null;
-		try {
-			toRet1 = new Vector<String>(propList.get(s).relatedProperties.keySet());
-		}
-		catch (NullPointerException e) {
-			System.out.println("hum");
-			return new Vector[]{};
-		}
+	/**
+	 * Some y values of the points of a query in a float array per combination
+	 * and x value, the arrays in order of appearance
+	 */
+	private static class PointsByX {
+
+		private static class XValues {
+			private final int combination;
+			private final int xId;
+			private float[] values = new float[4];
+			private int count = 0;
+			// the points met, kept or not
+			private long seen = 0;
+
+			XValues(int combination, int xId) {
+				this.combination = combination;
+				this.xId = xId;
+			}
 
-		TreeMap<String, String> constants = new TreeMap<String, String>();
-		
-		ArrayList<InternalDataPoint> list = new ArrayList<InternalDataPoint>(1000);
-		for (InternalExecution exec : getExecListCopy()) {
-			for (InternalDataPoint dp : exec.dataPoints) {
-				if (dp.isDefinedForProperty(s) == false) {
-					continue;
-				} else {
-					list.add(dp);
+			void append(float y) {
+				if (count == values.length) {
+					values = Arrays.copyOf(values, 2 * count);
+				}
+				values[count++] = y;
+			}
+
+			void append(float[] ys, int length) {
+				if (count + length > values.length) {
+					values = Arrays.copyOf(values, Math.max(count + length, 2 * values.length));
 				}
+				System.arraycopy(ys, 0, values, count, length);
+				count += length;
 			}
 		}
-		if (list.size() == 0) return new Vector[]{toRet1, new Vector(), null};
-		InternalDataPoint[] array = list.toArray(new InternalDataPoint[list.size()]);
-		
-		for (String stri : toRet1) {
-			boolean rem = true;
-			String ref = array[0].getValue(stri);
-			for (int i = 1 ; i < array.length ; i++) {
-				String t = array[i].getValue(stri);	
-				if (t == null || !t.equals(ref)) {
-					rem = false;
-					break;
-				} else {
-					continue;
+
+		private final ArrayList<XValues> entries = new ArrayList<XValues>();
+		// open addressing on (combination, x value id)
+		private XValues[] slots = new XValues[64];
+		private XValues last = null;
+
+		XValues get(int j, int xId) {
+			if (last != null && last.combination == j && last.xId == xId) {
+				return last;
+			}
+			int mask = slots.length - 1;
+			int i = hash(j, xId) & mask;
+			XValues e;
+			while ((e = slots[i]) != null) {
+				if (e.combination == j && e.xId == xId) {
+					last = e;
+					return e;
 				}
+				i = (i + 1) & mask;
 			}
-			if (rem) {
-				constants.put(stri, ref);
+			e = new XValues(j, xId);
+			slots[i] = e;
+			entries.add(e);
+			if (2 * entries.size() > slots.length) {
+				rehash();
 			}
+			last = e;
+			return e;
 		}
-		toRet1.removeAll(constants.keySet());
-		
-		java.util.Collections.sort(toRet1);
-		
-		Vector<String> s1 = new Vector();
-		Vector<String> s2 = new Vector();		
-		for (Map.Entry<String, String> ent : constants.entrySet()) {
-			s1.add(ent.getKey());
-			s2.add(ent.getValue());
+
+		private static int hash(int j, int xId) {
+			int h = (31 * j + xId) * 0x9E3779B9;
+			return h ^ (h >>> 16);
 		}
-		
 
-		
-		return new Vector[]{toRet1, s1, s2};
+		private void rehash() {
+			slots = new XValues[2 * slots.length];
+			int mask = slots.length - 1;
+			for (XValues e : entries) {
+				int i = hash(e.combination, e.xId) & mask;
+				while (slots[i] != null) {
+					i = (i + 1) & mask;
+				}
+				slots[i] = e;
+			}
+		}
 	}
 
+	/**
+	 * Keeps the y values of the points in a float array per combination and
+	 * x value, turned into statistics once the query is done
+	 */
+	private static class StatisticsSink implements PointSink {
+		static class Factory implements SinkFactory {
+			private final boolean is95;
 
+			Factory(boolean is95) {
+				this.is95 = is95;
+			}
 
-	public List<DataSeries> getChartValues(DataRetrievalOptions p, String methodName) {
+			public PointSink create(ChartQuery query) {
+				return new StatisticsSink(query, is95);
+			}
+		}
 
-		String xAxis = p.xAxisProperty;
-		CriteriumSet cs = p.getCriteriumSet();
-		Map<String, List<String>> filters = p.getFilters();
+		private final ChartQuery query;
+		private final boolean is95;
+		private final PointsByX points = new PointsByX();
 
-		return getChartValues(xAxis, cs, filters, methodName);
-	}
+		StatisticsSink(ChartQuery query, boolean is95) {
+			this.query = query;
+			this.is95 = is95;
+		}
 
-	public synchronized List<DataSeries> getChartValues(String xAxis, CriteriumSet cs, Map<String, List<String>> filters, String methodName) {
-		
-		boolean noXAxis = false;
+		public void add(int j, int xId, float y) {
+			points.get(j, xId).append(y);
+		}
 
-		if (xAxis.equals("")) {
-			boolean check = false;
-			// checking if CONSTANT is the unique criterium
-			for (List<Criterium> lc : cs) {
-				for (Criterium c : lc) {
-					if (c.getName().equals(CONSTANT)) {
-						check = true;
-						noXAxis = true;
-						break;
-					}
-				}
-			}
-			if (!check) {
-				return new ArrayList<DataSeries>(0);				
+		public void addAll(PointSink other) {
+			for (PointsByX.XValues o : ((StatisticsSink)other).points.entries) {
+				points.get(o.combination, o.xId).append(o.values, o.count);
 			}
-		} else {
-			boolean def = false;
-			InternalProperty xAxisProp = propList.get(xAxis);
-			if (xAxisProp == null) return new ArrayList<DataSeries>(0);
-			for (List<Criterium> lc : cs) {
-				for (Criterium c : lc) {
-					if (xAxisProp.relatedProperties.get(c.getName()) != null || c.getName().equals(CONSTANT)) {
-						def = true;
-						break;
-					}
+		}
+
+		public List<AggregatedDataSeries> getSeries() {
+			AggregatedDataSeries[] dat = new AggregatedDataSeries[query.groupBy.combinations];
+			for (PointsByX.XValues e : points.entries) {
+				if (dat[e.combination] == null) {
+					dat[e.combination] = new AggregatedDataSeries(query.groupBy.combination(e.combination));
 				}
+				dat[e.combination].add(new AggregatedDataSeries.Statistics(query.xString(e.xId), e.values, e.count, is95));
 			}
-			if (!def) {
-				return new ArrayList<DataSeries>(0);
+			List<AggregatedDataSeries> toRet = new ArrayList<AggregatedDataSeries>();
+			for (int i = 0 ; i < dat.length ; i++) {
+				if (dat[i] != null) {
+					toRet.add(dat[i]);
+				}
 			}
+			return toRet;
 		}
+	}
 
-		cs.setPossibleValues(this);
+	/**
+	 * Keeps at most size points per combination and x value: a uniform
+	 * sample (reservoir sampling, the points being met in the order of a
+	 * sequential scan), or the points of largest or smallest values (a heap
+	 * per x value, its root the value to replace first)
+	 */
+	private static class ReductionSink implements PointSink {
+		static class Factory implements SinkFactory {
+			private final DataRetrievalOptions.Reduction reduction;
+			private final int size;
+			private final long seed;
+
+			Factory(DataRetrievalOptions.Reduction reduction, int size, long seed) {
+				this.reduction = reduction;
+				this.size = size;
+				this.seed = seed;
+			}
 
-		CriteriumSet.CriteriaIterator ite = cs.criteriaIterator();
+			public PointSink create(ChartQuery query) {
+				return new ReductionSink(query, reduction, size, seed);
+			}
 
-		LocalDataSeries[] dat = new LocalDataSeries[ite.getNbCombinations()];
-		boolean[] datUsed = new boolean[ite.getNbCombinations()];
+			@Override
+			public boolean isSequential() {
+				return reduction == DataRetrievalOptions.Reduction.SAMPLE;
+			}
+		}
 
-		for (int i = 0 ; i < dat.length ; i++) {
-			dat[i] = new LocalDataSeries(null);
+		private final ChartQuery query;
+		private final int size;
+		// null for the top and bottom values
+		private final Random random;
+		// 1 to keep the largest values, -1 the smallest
+		private final float sign;
+		private final PointsByX points = new PointsByX();
+
+		ReductionSink(ChartQuery query, DataRetrievalOptions.Reduction reduction, int size, long seed) {
+			this.query = query;
+			this.size = size;
+			this.random = (reduction == DataRetrievalOptions.Reduction.SAMPLE) ? new Random(seed) : null;
+			this.sign = (reduction == DataRetrievalOptions.Reduction.BOTTOM) ? -1 : 1;
 		}
-		int used = 0;
 
-		//	ArrayList<InternalDataPoint> aList = new ArrayList<InternalDataPoint>(100);
-		for (InternalExecution exec : getExecListCopy()) {
-			Vector<InternalDataPoint> vec = exec.dataPoints;
-			int size = vec.size();
-			for (int i = 0 ; i < size ; i++) {
-				InternalDataPoint dp = vec.get(i);
-				if (dp.isDefinedForProperty(methodName) == false) {
-					continue;
+		public void add(int j, int xId, float y) {
+			PointsByX.XValues e = points.get(j, xId);
+			e.seen++;
+			if (random != null) {
+				if (e.count < size) {
+					e.append(y);
+				} else {
+					long r = (long)(random.nextDouble() * e.seen);
+					if (r < size) {
+						e.values[(int)r] = y;
+					}
 				}
+			} else {
+				offer(e, y);
+			}
+		}
 
-				if (!noXAxis && dp.isDefinedForProperty(xAxis) == false) {
-					continue;
+		/**
+		 * Keeps the value if it is among the size largest ones (times sign),
+		 * the values forming a heap whose root is the smallest kept
+		 */
+		private void offer(PointsByX.XValues e, float y) {
+			float[] h = e.values;
+			if (e.count < size) {
+				e.append(y);
+				h = e.values;
+				int i = e.count - 1;
+				while (i > 0 && sign * h[(i - 1) >>> 1] > sign * h[i]) {
+					float t = h[i];
+					h[i] = h[(i - 1) >>> 1];
+					h[(i - 1) >>> 1] = t;
+					i = (i - 1) >>> 1;
 				}
-				if (filters != null) {
-					if (filter(dp, filters) == false) {
-						continue;
+			} else if (sign * y > sign * h[0]) {
+				h[0] = y;
+				int i = 0;
+				while (true) {
+					int c = 2 * i + 1;
+					if (c >= e.count) {
+						break;
+					}
+					if (c + 1 < e.count && sign * h[c + 1] < sign * h[c]) {
+						c++;
+					}
+					if (sign * h[i] <= sign * h[c]) {
+						break;
 					}
+					float t = h[i];
+					h[i] = h[c];
+					h[c] = t;
+					i = c;
+				}
+			}
+		}
+
+		public void addAll(PointSink other) {
+			if (random != null) {
+				throw new IllegalStateException("A sample is taken in a single sequence");
+			}
+			for (PointsByX.XValues o : ((ReductionSink)other).points.entries) {
+				PointsByX.XValues e = points.get(o.combination, o.xId);
+				e.seen += o.seen;
+				for (int i = 0 ; i < o.count ; i++) {
+					offer(e, o.values[i]);
 				}
+			}
+		}
 
-				int index = 0;
-				ite = cs.criteriaIterator();
-				for (List<PairList<String, String>> col : ite) {
-					//	dat[index] = new LocalDataSeries(null);
-					if (filterCrit(dp, col, filters)) {
-						float y = Float.parseFloat(dp.getValue(methodName));
-						String x;
-						if (noXAxis)
-							x = "CONSTANT";
-						else
-							x = dp.getValue(xAxis);
-						dat[index].addPoint(x, y);
-						if (datUsed[index] == false) {
-							datUsed[index] = true;
-							used++;
+		/**
+		 * @return the series of the points kept, the ones of largest (or
+		 * smallest) values first for each x value
+		 */
+		public List<DataSeries> getSeries() {
+			List<List<String>> labels = new ArrayList<List<String>>(Collections.<List<String>>nCopies(query.groupBy.combinations, null));
+			int[] counts = new int[query.groupBy.combinations];
+			for (PointsByX.XValues e : points.entries) {
+				if (labels.get(e.combination) == null) {
+					labels.set(e.combination, new ArrayList<String>());
+				}
+				labels.get(e.combination).add(query.xString(e.xId));
+				counts[e.combination] += e.count;
+			}
+			int[][] labelIds = new int[labels.size()][];
+			float[][] ys = new float[labels.size()][];
+			int[] filled = new int[labels.size()];
+			int[] label = new int[labels.size()];
+			for (PointsByX.XValues e : points.entries) {
+				int j = e.combination;
+				if (ys[j] == null) {
+					labelIds[j] = new int[counts[j]];
+					ys[j] = new float[counts[j]];
+				}
+				float[] values = Arrays.copyOf(e.values, e.count);
+				if (random == null) {
+					Arrays.sort(values);
+					if (sign > 0) {
+						for (int i = 0 ; i < values.length / 2 ; i++) {
+							float t = values[i];
+							values[i] = values[values.length - 1 - i];
+							values[values.length - 1 - i] = t;
 						}
 					}
-					dat[index].crit = col;
-					index++;
 				}
+				Arrays.fill(labelIds[j], filled[j], filled[j] + e.count, label[j]++);
+				System.arraycopy(values, 0, ys[j], filled[j], e.count);
+				filled[j] += e.count;
 			}
+			List<DataSeries> toRet = new ArrayList<DataSeries>();
+			for (int j = 0 ; j < labels.size() ; j++) {
+				List<String> l = labels.get(j);
+				if (l != null) {
+					toRet.add(new ArrayDataSeries(query.groupBy.combination(j), l.toArray(new String[l.size()]), labelIds[j], ys[j], counts[j]));
+				}
+			}
+			return toRet;
+		}
+	}
+
+	/**
+	 * Rows of a table, the unit of work of the parallel queries
+	 */
+	private static class Segment {
+		private final ShapeTable table;
+		private final int from;
+		private final int to;
+
+		Segment(ShapeTable table, int from, int to) {
+			this.table = table;
+			this.from = from;
+			this.to = to;
 		}
+	}
 
-		List<DataSeries> toRet = new ArrayList<DataSeries>(used);
+	/**
+	 * Scans a range of segments, splitting it in two halves while it holds
+	 * more than a chunk of data points. The points of the left half come first
+	 * in the merged series, as in a sequential scan.
+	 */
+	private static class ChartTask extends RecursiveTask<PointSink[]> {
+		private static final long serialVersionUID = 1L;
+		private final ChartQuery query;
+		private final List<Segment> segments;
+		private final int from;
+		private final int to;
+		private final int chunk;
+
+		ChartTask(ChartQuery query, List<Segment> segments, int from, int to, int chunk) {
+			this.query = query;
+			this.segments = segments;
+			this.from = from;
+			this.to = to;
+			this.chunk = chunk;
+		}
 
-		for (int i = 0 ; i < dat.length ; i++) {
-			if (datUsed[i] == true) {
-				toRet.add(dat[i]);
+		@Override
+		protected PointSink[] compute() {
+			int rows = 0;
+			for (int i = from ; i < to && rows <= chunk ; i++) {
+				rows += segments.get(i).to - segments.get(i).from;
 			}
+			if (rows <= chunk || to - from < 2) {
+				PointSink[] sinks = query.createSinks();
+				for (int i = from ; i < to ; i++) {
+					Segment s = segments.get(i);
+					query.scan(s.table, s.from, s.to, sinks);
+				}
+				return sinks;
+			}
+			int middle = (from + to) >>> 1;
+			ChartTask left = new ChartTask(query, segments, from, middle, chunk);
+			left.fork();
+			PointSink[] right = new ChartTask(query, segments, middle, to, chunk).compute();
+			PointSink[] sinks = left.join();
+			for (int k = 0 ; k < sinks.length ; k++) {
+				sinks[k].addAll(right[k]);
+			}
+			return sinks;
 		}
-		return toRet;
 	}
 
 	public static class LocalDataSeries extends DataSeries {
 
 		private ArrayList<DataSeries.DataSeriesStruct> list = new ArrayList<DataSeries.DataSeriesStruct>();
+		private boolean sorted = true;
 
 		public LocalDataSeries(List<PairList<String,String>> crit) {
 			super(crit);
 		}
 
+		/**
+		 * The points are sorted once, the series can then be iterated by
+		 * several threads (cached series are shared). Points are only added
+		 * before the series is returned by the collector.
+		 */
 		public Iterator<DataSeries.DataSeriesStruct> iterator() {
-			Collections.sort(list);
-			return list.iterator();
+			synchronized (this) {
+				if (!sorted) {
+					Collections.sort(list);
+					sorted = true;
+				}
+			}
+			return Collections.unmodifiableList(list).iterator();
 		}
 
 		public void addPoint(String x, float y) {
@@ -398,17 +2101,22 @@ public class SmartDataPointCollector extends AbstractInOutDataManager implements
 			s.xVal = x;
 			s.yVal = y;
 			list.add(s);
+			sorted = false;
 		}
 	}
 
+	/**
+	 * @return a view of the chart defined by these options, whose series are
+	 * updated at each refresh with the data points added since the previous
+	 * one
+	 */
+	@Override
+	public LiveChartView registerView(DataRetrievalOptions p, String methodName) {
+		return new LiveChartView(this, p.xAxisProperty, p.getCriteriumSet(), p.getFilters(), methodName);
+	}
+
 	public int getNumberOfStoredDataPoints() {
-		int i = 0;
-		synchronized (execList) {
-			for (InternalExecution exec : execList) {
-				i += exec.dataPoints.size();
-			}
-		}
-		return i;
+		return snapshot().totalDataPoints;
 	}
 
 	@SuppressWarnings("unused")
@@ -462,22 +2170,18 @@ public class SmartDataPointCollector extends AbstractInOutDataManager implements
 		public float meanPropertiesPerDataPoint() {
 			int index = 0;
 			int total = 0;
-			for (InternalExecution exec : execList) {
-				for (InternalDataPoint dp : exec.dataPoints) {
-					index++;
-					total += dp.valuesFloat.size() + dp.valuesString.size();
+			for (ShapeTable[] part : snapshot()) {
+				for (ShapeTable table : part) {
+					index += table.rows;
+					total += table.rows * table.shape.props.length;
 				}
 			}
 			return (float)total/(float)index;
 		}
 
 		public float meanDataPointPerExecution() {
-			int index = 0;
-			int total = 0;
-			for (InternalExecution exec : execList) {
-				index++;
-				total += exec.dataPoints.size();
-			}
+			int index = snapshot().totalExecutions;
+			int total = getNumberOfStoredDataPoints();
 			return (float)total/(float)index;
 		}
 
@@ -519,12 +2223,22 @@ public class SmartDataPointCollector extends AbstractInOutDataManager implements
 					meanNumberOfFloatValuePerProperty());
 		}
 
-		public float getHashMapInstances() {
-			return execList.size() * meanDataPointPerExecution() * 2f;
+		public float getIntArrayInstances() {
+			// one array of value ids per shape and batch
+			int total = 0;
+			for (ShapeTable[] part : snapshot()) {
+				total += part.length;
+			}
+			return total;
+		}
+
+		public float getResidentDataPointBytes() {
+			return residentBytes.get();
 		}
 
-		public float getHashMapEntryInstances() {
-			return execList.size() * meanDataPointPerExecution() * (meanPropertiesPerDataPoint());
+		public float getEstimatedDataPointBytes() {
+			// one value id per defined property, the shapes are shared
+			return getNumberOfStoredDataPoints() * 4f * meanPropertiesPerDataPoint();
 		}
 
 		public int getNumberOfDataPoints() {
@@ -532,13 +2246,30 @@ public class SmartDataPointCollector extends AbstractInOutDataManager implements
 		}
 
 		public int getNumberOfExecutions() {
-			return execList.size();
+			return snapshot().totalExecutions;
 		}
 
 		public int getNumberOfProperties() {
 			return propList.size();
 		}
 
+		public int getNumberOfShapes() {
+			return shapes.size();
+		}
+
+		public long getNumberOfQueryCacheHits() {
+			return queryCache.getHits();
+		}
+
+		public long getNumberOfQueryCacheMisses() {
+			return queryCache.getMisses();
+		}
+
+		public String getLastQueryPlan() {
+			QueryPlan plan = lastPlan;
+			return (plan == null) ? "none" : plan.toString();
+		}
+
 		public int getNumberOfPropertyStringValues() {
 			int total = 0;
 			for (InternalProperty prop : propList.values()) {
@@ -547,6 +2278,41 @@ public class SmartDataPointCollector extends AbstractInOutDataManager implements
 			return total;
 		}
 
+		public float getEstimatedIndexBytes() {
+			long total = 0;
+			for (Batch b : lastBatch.get().chain()) {
+				total += b.getIndexBytes();
+			}
+			return total;
+		}
+
+		public float getEstimatedDictionaryBytes() {
+			long total = 0;
+			for (InternalProperty prop : propList.values()) {
+				total += prop.getEstimatedBytes();
+			}
+			return total;
+		}
+
+		public String getNumberOfPropertiesPerEncoding() {
+			TreeMap<String, Integer> count = new TreeMap<String, Integer>();
+			for (InternalProperty prop : propList.values()) {
+				NumberArray.Encoding e = prop.getEncoding();
+				String key = (e == null) ? "STRING" : e.name();
+				Integer c = count.get(key);
+				count.put(key, (c == null) ? 1 : c + 1);
+			}
+			return count.toString();
+		}
+
+		public int getNumberOfPropertyDoubleOnlyValues() {
+			int total = 0;
+			for (InternalProperty prop : propList.values()) {
+				total += prop.getNumberOfDoubleOnlyValues();
+			}
+			return total;
+		}
+
 		public int getNumberOfPropertyFloatValues() {
 			int total = 0;
 			for (InternalProperty prop : propList.values()) {
@@ -587,6 +2353,9 @@ public class SmartDataPointCollector extends AbstractInOutDataManager implements
 						sb.append("\r\n");
 					}
 				}
+				sb.append("\r\n");
+				sb.append(String.format("%1$-40s %2$s", "getLastQueryPlan", getLastQueryPlan()));
+				sb.append("\r\n");
 			}
 			catch (Exception e) {
 				throw new IllegalStateException(e);
@@ -602,220 +2371,3 @@ public class SmartDataPointCollector extends AbstractInOutDataManager implements
 	}
 
 }
-
-class InternalExecution implements java.io.Serializable {
-
-	private static final long serialVersionUID = 1;
-
-	Vector<InternalDataPoint> dataPoints;
-	public InternalExecution(SmartDataPointCollector db, Execution e) {
-		
-		List<DataPoint> dpList = e.getDataPoints();
-		
-		int size = dpList.size();
-
-		dataPoints = new Vector<InternalDataPoint>(size, 1);
-		
-		for (int i = 0 ; i < size ; i++) {
-			dataPoints.add(new InternalDataPoint(db, dpList.get(i)));
-		}
-		
-		Map<String, InternalProperty> copy = db.getPropListCopy();
-		for (int i = 0 ; i < size ; i++) {
-			InternalDataPoint idp = dataPoints.get(i);
-			for (String ip : idp.valuesString.keySet()) {
-				copy.remove(ip);
-			}
-			for (String ip : idp.valuesFloat.keySet()) {
-				copy.remove(ip);
-			}				
-			for (InternalProperty s : copy.values()) {
-				s.getStringValue(SmartDataPointCollector.WC);
-			}			
-		}
-	}
-
-	@Override
-	public String toString() {
-		return "exec with " + dataPoints.size() + "dps (use toLongString())";
-	}
-
-}
-
-class InternalDataPoint implements Comparable<InternalDataPoint>, java.io.Serializable {
-	private static final long serialVersionUID = 1;
-
-
-	int id;
-
-	private static int gloCounter = 0;
-
-	HashMap<String, String> valuesString = new HashMap<String, String>();
-	HashMap<String, Float> valuesFloat = new HashMap<String, Float>();
-
-	public int compareTo(InternalDataPoint dp) {
-		return this.id - dp.id;
-	}
-
-	public InternalDataPoint(SmartDataPointCollector db, DataPoint dp) {
-		super();
-		this.id = gloCounter++;
-		ArrayList<InternalProperty> interprop = new ArrayList<InternalProperty>(dp.getProperties().size());
-		for (Property p : dp.getProperties()) {
-			String value = p.getValue();
-			if (value == null) {
-				value = SmartDataPointCollector.NULL;
-			}
-			InternalProperty ip = db.getInternalProperty(p.getName());
-			if (ip == null) {
-				ip = new InternalProperty(p);
-				db.addInternalProperty(ip.name, ip);
-				boolean add = false;
-				for (InternalExecution e : db.getExecListCopy()) {
-					for (InternalDataPoint dp__ : e.dataPoints) {
-						if (dp__.isDefinedForProperty(ip.name) == false) {
-							add = true;
-							break;
-						}
-					}
-					if (add) break;
-				}
-				if (add) {
-					ip.getStringValue(SmartDataPointCollector.WC);
-				}
-			}
-			if (SmartDataPointCollector.usingDpHasRef) {
-				ip.addDataPointRef(this);
-			}
-
-			if (!p.isString()) {
-				Float stock = ip.getFloatValue(p.getFloatValue());
-				valuesString.remove(ip.name);
-				valuesFloat.put(ip.name, stock);
-
-			} else {
-				String ipv = ip.getStringValue(value);
-				valuesFloat.remove(ip.name);
-				valuesString.put(ip.name, ipv);
-			}
-			interprop.add(ip);
-		}
-
-		for (int i = 0 ; i < interprop.size() ; i++) {
-			for (int j = 0 ; j < interprop.size() ; j++) {
-				if (i!= j) {
-					interprop.get(i).setRelatedTo(interprop.get(j));
-				}
-			}
-		}
-	}
-
-	public String getValue(String key) {
-		String s = valuesString.get(key);
-		if (s != null) {
-			return s;
-		}
-		Float f = valuesFloat.get(key);
-		if (f != null) {
-			return f.toString();
-		}
-		return null;
-	}
-
-	public boolean isDefinedForProperty(String s) {
-		return (valuesFloat.get(s) != null) || (valuesString.get(s) != null);
-	}
-
-	@Override
-	public String toString() {
-		return "DP:"+valuesString + "," + valuesFloat;
-	}
-}
-
-class InternalProperty implements java.io.Serializable {
-
-	private static final long serialVersionUID = 1;
-
-	private TreeMap<String,String> valuesString = new TreeMap<String,String>();
-	private TreeMap<Float, Float> valuesFloat = new TreeMap<Float, Float>();
-	TreeSet<InternalDataPoint> dpHavingThisProp;
-
-	// test for avoiding null entries
-	HashMap<String, InternalProperty> relatedProperties = new HashMap<String, InternalProperty>();
-
-	byte flags = 0;
-
-	public InternalProperty(Property p) {
-		if (p instanceof ResultProperty) {
-			flags |= 1;
-		}
-		if (SmartDataPointCollector.usingDpHasRef) {
-			this.dpHavingThisProp = new TreeSet<InternalDataPoint>();
-		}
-		this.name = p.getName();
-		this.unit = p.getUnit();
-	}
-
-	public void addDataPointRef(InternalDataPoint dp) {
-		dpHavingThisProp.add(dp);
-	}
-
-	public void setRelatedTo(InternalProperty p) {
-		relatedProperties.put(p.name, p);
-	}
-
-	public boolean isNumbersOnly() {
-		return !((flags & 2) > 0);
-	}
-
-	public boolean isResult() {
-		return ((flags & 1) > 0);
-	}
-
-	public Set<String> getValues() {
-		SimpleSet<String> s = new SimpleSet<String>(valuesFloat.size() + valuesString.size());
-
-		for (Float f : valuesFloat.values()) {
-			s.add(f.toString());
-		}
-		s.addAll(valuesString.values());
-		return s;
-	}
-
-	public Float getFloatValue(Float val) {
-		Float ipv = valuesFloat.get(val);
-		if (ipv == null) {
-			ipv = val;
-			valuesFloat.put(val,val);
-		}
-		return ipv;
-	}
-
-	public String getStringValue(String value) {
-		if (value != SmartDataPointCollector.WC) {
-			flags |= 2;
-		}
-		String ipv = valuesString.get(value);
-		if (ipv == null) {
-			ipv = value;
-			valuesString.put(value, value);
-		}
-		return ipv;
-	}
-
-	Set<String> getStringValues() {
-		return valuesString.keySet();
-	}
-
-	int getNumberOfFloatValues() {
-		return valuesFloat.size();
-	}
-
-	String name;
-	String unit;
-
-	@Override
-	public String toString() {
-		return name + "("+unit+")";
-	}
-}
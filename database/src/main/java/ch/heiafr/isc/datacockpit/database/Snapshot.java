@@ -0,0 +1,110 @@
+/*
+ * This file is part of one of the Data-Cockpit libraries.
+ * 
+ * Copyright (C) 2024 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE (EPFL)
+ * 
+ * Author - Sébastien Rumley (sebastien.rumley@hefr.ch)
+ * 
+ * This open source release is made with the authorization of the EPFL,
+ * the institution where the author was originally employed.
+ * The author is currently affiliated with the HEIA-FR, which is the actual publisher.
+ * 
+ * The Data-Cockpit program is free software, you can redistribute it and/or modify
+ * it under the terms of GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The Data-Cockpit program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ * Contributor list -
+ */
+package ch.heiafr.isc.datacockpit.database;
+
+import java.util.Iterator;
+
+/**
+ * What a reader sees of the store : the published batches, oldest first,
+ * followed by the executions still staged by the ingesting threads. Iterates
+ * over the data points batch per batch, spilled batches being read back one at
+ * a time.
+ */
+class Snapshot implements Iterable<ShapeTable[]> {
+
+	final Batch last;
+	final ShapeTable[] staged;
+	final int totalDataPoints;
+	final int totalExecutions;
+
+	Snapshot(Batch last, InternalExecution[] staged) {
+		this.last = last;
+		this.staged = ShapeTable.tabulate(staged);
+		int dataPoints = last.totalDataPoints;
+		for (ShapeTable t : this.staged) {
+			dataPoints += t.rows;
+		}
+		this.totalDataPoints = dataPoints;
+		this.totalExecutions = last.totalExecutions + staged.length;
+	}
+
+	// of the published batches and of the staged executions, when needed
+	private PropertyCatalog catalog = null;
+
+	PropertyCatalog catalog() {
+		PropertyCatalog c = catalog;
+		if (c == null) {
+			c = last.catalog().extend(PropertyCatalog.summarize(staged));
+			catalog = c;
+		}
+		return c;
+	}
+
+	int countDefining(int propId) {
+		int count = last.catalog().countDefining(propId);
+		for (ShapeTable t : staged) {
+			if (t.shape.positionOf(propId) >= 0) {
+				count += t.rows;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Lets the memory of the data points be freed once the collector is
+	 * cleared, for the snapshots taken by acquireSnapshot
+	 */
+	void release() {
+		last.memory.release();
+	}
+
+	public Iterator<ShapeTable[]> iterator() {
+		final Batch[] chain = last.chain();
+		return new Iterator<ShapeTable[]>() {
+			private int index = 0;
+
+			public boolean hasNext() {
+				return index <= chain.length;
+			}
+
+			public ShapeTable[] next() {
+				if (index > chain.length) {
+					throw new java.util.NoSuchElementException();
+				}
+				if (index == chain.length) {
+					index++;
+					return staged;
+				}
+				return chain[index++].getTables();
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
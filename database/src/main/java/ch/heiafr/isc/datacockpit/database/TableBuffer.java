@@ -0,0 +1,182 @@
+/*
+ * This file is part of one of the Data-Cockpit libraries.
+ * 
+ * Copyright (C) 2024 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE (EPFL)
+ * 
+ * Author - Sébastien Rumley (sebastien.rumley@hefr.ch)
+ * 
+ * This open source release is made with the authorization of the EPFL,
+ * the institution where the author was originally employed.
+ * The author is currently affiliated with the HEIA-FR, which is the actual publisher.
+ * 
+ * The Data-Cockpit program is free software, you can redistribute it and/or modify
+ * it under the terms of GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The Data-Cockpit program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ * Contributor list -
+ */
+package ch.heiafr.isc.datacockpit.database;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.IntBuffer;
+
+/**
+ * The tables of a batch, their value ids laid out one table after the other
+ * in a single array on the heap or buffer outside of it, with only the shape
+ * and the number of rows of each table beside. The tables are views of the
+ * array or buffer created when needed.
+ * <p>
+ * Used for the batches kept off the heap or spilled to disk, and for the
+ * batches of many small tables: when the data points have many different
+ * property sets, a batch has about one table per data point, which as
+ * objects of their own would cost more than their rows.
+ */
+class TableBuffer {
+
+	// below this number of rows per table on average, a batch is packed
+	static final int MIN_ROWS_PER_TABLE = 16;
+
+	private final Shape[] shapes;
+	private final int[] rows;
+	// one of the two is not null
+	private final int[] values;
+	private final IntBuffer buffer;
+
+	private TableBuffer(ShapeTable[] tables, int[] values, IntBuffer buffer) {
+		this.shapes = new Shape[tables.length];
+		this.rows = new int[tables.length];
+		for (int i = 0 ; i < tables.length ; i++) {
+			shapes[i] = tables[i].shape;
+			rows[i] = tables[i].rows;
+		}
+		this.values = values;
+		this.buffer = buffer;
+	}
+
+	/**
+	 * @return true if the tables are too small to be kept as they are
+	 */
+	static boolean isSparse(ShapeTable[] tables) {
+		int rows = 0;
+		for (ShapeTable t : tables) {
+			rows += t.rows;
+		}
+		return isSparse(tables.length, rows);
+	}
+
+	boolean isSparse() {
+		int total = 0;
+		for (int r : rows) {
+			total += r;
+		}
+		return isSparse(rows.length, total);
+	}
+
+	private static boolean isSparse(int tables, int rows) {
+		return tables > 1 && rows < MIN_ROWS_PER_TABLE * tables;
+	}
+
+	/**
+	 * @return the tables, copied in an array on the heap
+	 */
+	static TableBuffer pack(ShapeTable[] tables) {
+		int[] values = new int[ShapeTable.totalSize(tables)];
+		int position = 0;
+		for (ShapeTable t : tables) {
+			for (int j = 0, size = t.size() ; j < size ; j++) {
+				values[position++] = t.get(j);
+			}
+		}
+		return new TableBuffer(tables, values, null);
+	}
+
+	/**
+	 * @return the tables, copied in the given buffer
+	 */
+	static TableBuffer copyTo(ShapeTable[] tables, IntBuffer target) {
+		int position = 0;
+		for (ShapeTable t : tables) {
+			for (int j = 0, size = t.size() ; j < size ; j++) {
+				target.put(position++, t.get(j));
+			}
+		}
+		return new TableBuffer(tables, null, target);
+	}
+
+	/**
+	 * @return the tables, written in a spill file of the memory and then
+	 * read through a read-only view
+	 */
+	static TableBuffer spill(ShapeTable[] tables, OffHeapMemory memory, File directory) throws IOException {
+		IntBuffer target = memory.reserveSpill(directory, ShapeTable.totalSize(tables));
+		copyTo(tables, target);
+		return new TableBuffer(tables, null, target.asReadOnlyBuffer());
+	}
+
+	/**
+	 * @return the tables, reading their value ids in the array or the
+	 * buffer. The tables are always in the same order.
+	 */
+	ShapeTable[] getTables() {
+		ShapeTable[] tables = new ShapeTable[shapes.length];
+		int position = 0;
+		for (int i = 0 ; i < tables.length ; i++) {
+			int size = rows[i] * shapes[i].props.length;
+			if (values != null) {
+				tables[i] = ShapeTable.ofArray(shapes[i], rows[i], values, position);
+			} else {
+				IntBuffer view = buffer.duplicate();
+				view.limit(position + size).position(position);
+				tables[i] = ShapeTable.ofBuffer(shapes[i], rows[i], view.slice());
+			}
+			position += size;
+		}
+		return tables;
+	}
+
+	/**
+	 * @return true if the value ids are in an array on the heap
+	 */
+	boolean isOnHeap() {
+		return values != null;
+	}
+
+	int countDefining(int propId) {
+		int count = 0;
+		for (int i = 0 ; i < shapes.length ; i++) {
+			if (shapes[i].positionOf(propId) >= 0) {
+				count += rows[i];
+			}
+		}
+		return count;
+	}
+
+	int countTablesDefining(int propId) {
+		int count = 0;
+		for (Shape s : shapes) {
+			if (s.positionOf(propId) >= 0) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return the estimated heap size of the tables
+	 */
+	long getEstimatedBytes() {
+		// the shape and row arrays, and the buffer object or the array
+		long bytes = 32 + 2 * 16 + 8L * shapes.length;
+		return isOnHeap() ? bytes + 16 + 4L * values.length : bytes + 48;
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * This file is part of one of the Data-Cockpit libraries.
+ * 
+ * Copyright (C) 2024 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE (EPFL)
+ * 
+ * Author - Sébastien Rumley (sebastien.rumley@hefr.ch)
+ * 
+ * This open source release is made with the authorization of the EPFL,
+ * the institution where the author was originally employed.
+ * The author is currently affiliated with the HEIA-FR, which is the actual publisher.
+ * 
+ * The Data-Cockpit program is free software, you can redistribute it and/or modify
+ * it under the terms of GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The Data-Cockpit program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ * Contributor list -
+ */
+package ch.heiafr.isc.datacockpit.database;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The rows of a table sorted by their value id for one property, to find the
+ * rows having some values without reading the others. Tables never change
+ * once published, an index stays valid as long as its table.
+ */
+class ValueIndex {
+
+	// value ids in increasing order, and the row holding each, the rows of a
+	// same value in increasing order
+	private final int[] values;
+	private final int[] rows;
+
+	private ValueIndex(int[] values, int[] rows) {
+		this.values = values;
+		this.rows = rows;
+	}
+
+	/**
+	 * @param position the position of the property in the rows of the table
+	 */
+	static ValueIndex build(ShapeTable table, int position) {
+		int width = table.shape.props.length;
+		long[] pairs = new long[table.rows];
+		for (int row = 0 ; row < table.rows ; row++) {
+			pairs[row] = ((long)table.get(row * width + position) << 32) | row;
+		}
+		Arrays.sort(pairs);
+		int[] values = new int[pairs.length];
+		int[] rows = new int[pairs.length];
+		for (int i = 0 ; i < pairs.length ; i++) {
+			values[i] = (int)(pairs[i] >>> 32);
+			rows[i] = (int)pairs[i];
+		}
+		return new ValueIndex(values, rows);
+	}
+
+	/**
+	 * @return the rows holding one of the accepted value ids, in increasing
+	 * order
+	 */
+	int[] lookup(BitSet accepted) {
+		int[] found = new int[16];
+		int size = 0;
+		for (int v = accepted.nextSetBit(0) ; v >= 0 ; v = accepted.nextSetBit(v + 1)) {
+			int from = firstIndexOf(v);
+			int to = from;
+			while (to < values.length && values[to] == v) {
+				to++;
+			}
+			if (size + to - from > found.length) {
+				found = Arrays.copyOf(found, Math.max(2 * found.length, size + to - from));
+			}
+			System.arraycopy(rows, from, found, size, to - from);
+			size += to - from;
+		}
+		found = Arrays.copyOf(found, size);
+		if (accepted.cardinality() > 1) {
+			Arrays.sort(found);
+		}
+		return found;
+	}
+
+	private int firstIndexOf(int value) {
+		int low = 0;
+		int high = values.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (values[middle] < value) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	long getEstimatedBytes() {
+		return 32 + 8L * values.length;
+	}
+}
@@ -0,0 +1,365 @@
+/*
+ * This file is part of one of the Data-Cockpit libraries.
+ * 
+ * Copyright (C) 2024 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE (EPFL)
+ * 
+ * Author - Sébastien Rumley (sebastien.rumley@hefr.ch)
+ * 
+ * This open source release is made with the authorization of the EPFL,
+ * the institution where the author was originally employed.
+ * The author is currently affiliated with the HEIA-FR, which is the actual publisher.
+ * 
+ * The Data-Cockpit program is free software, you can redistribute it and/or modify
+ * it under the terms of GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The Data-Cockpit program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ * Contributor list -
+ */
+package ch.heiafr.isc.datacockpit.database.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A file written by ColumnarFileWriter, mapped in memory instead of being
+ * read. Opening it only reads the properties (not their values) and the
+ * headers of the tables, skipping the rest thanks to the lengths stored in
+ * the file. The values of a property are decoded when asked for and the
+ * columns of a table are views of the mapping, the operating system reading
+ * the pages a query touches. Only the files of version 2 can be mapped.
+ * <p>
+ * The file is mapped in regions of at most MAX_REGION bytes, each made of
+ * whole tables or property values, so that a file can exceed the 2 GB a
+ * single mapping can hold. The mappings stay valid once the file is closed,
+ * which it is at the end of open.
+ */
+public class ColumnarFileMap {
+
+	static final long MAX_REGION = 1L << 30;
+
+	public static class PropertyEntry {
+		private final String name;
+		private final String unit;
+		private final byte flags;
+		private final int values;
+		private final long position;
+		private final long bytes;
+		private ByteBuffer buffer;
+
+		private PropertyEntry(String name, String unit, byte flags, int values, long position, long bytes) {
+			this.name = name;
+			this.unit = unit;
+			this.flags = flags;
+			this.values = values;
+			this.position = position;
+			this.bytes = bytes;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getUnit() {
+			return unit;
+		}
+
+		public boolean isResult() {
+			return (flags & ColumnarFileWriter.RESULT) != 0;
+		}
+
+		/**
+		 * @return true if some values are not numbers
+		 */
+		public boolean hasStrings() {
+			return (flags & ColumnarFileWriter.STRINGS) != 0;
+		}
+
+		public int getNumberOfValues() {
+			return values;
+		}
+
+		/**
+		 * Decodes the values of the property, in the order of their ids
+		 */
+		public void readValues(ColumnarFileReader.ValueVisitor visitor) {
+			ByteBuffer in = buffer.duplicate();
+			for (int i = 0 ; i < values ; i++) {
+				if (in.get() == ColumnarFileWriter.STRING) {
+					int length = in.getInt();
+					if (length < 0) {
+						visitor.stringValue(null);
+					} else {
+						byte[] bytes = new byte[length];
+						in.get(bytes);
+						visitor.stringValue(new String(bytes, StandardCharsets.UTF_8));
+					}
+				} else {
+					visitor.numberValue(in.getDouble());
+				}
+			}
+		}
+	}
+
+	public static class TableEntry {
+		private final int[] props;
+		private final int rows;
+		private final int[] constants;
+		private final long position;
+		private ByteBuffer buffer;
+
+		private TableEntry(int[] props, int rows, int[] constants, long position) {
+			this.props = props;
+			this.rows = rows;
+			this.constants = constants;
+			this.position = position;
+		}
+
+		public int[] getProperties() {
+			return props;
+		}
+
+		public int getRows() {
+			return rows;
+		}
+
+		/**
+		 * @return per property, the value id of all the rows or -1
+		 */
+		public int[] getConstants() {
+			return constants;
+		}
+
+		/**
+		 * @return the value ids of the rows for the property at this position
+		 */
+		public IntBuffer getColumn(int k) {
+			ByteBuffer column = buffer.duplicate();
+			column.position(4 * rows * k).limit(4 * rows * (k + 1));
+			return column.slice().asIntBuffer();
+		}
+
+		private long getBytes() {
+			return 4L * rows * props.length;
+		}
+	}
+
+	public static class BatchEntry {
+		private final int executions;
+		private final TableEntry[] tables;
+
+		private BatchEntry(int executions, TableEntry[] tables) {
+			this.executions = executions;
+			this.tables = tables;
+		}
+
+		public int getExecutions() {
+			return executions;
+		}
+
+		public TableEntry[] getTables() {
+			return tables;
+		}
+	}
+
+	private final File file;
+	private final List<PropertyEntry> properties = new ArrayList<PropertyEntry>();
+	private final List<BatchEntry> batches = new ArrayList<BatchEntry>();
+	private long dataPoints;
+	private int executions;
+
+	// the header being parsed, read by windows of the file
+	private FileChannel channel;
+	private ByteBuffer window = ByteBuffer.allocate(1 << 16);
+	private long windowStart = 0;
+	private long position = 0;
+
+	private ColumnarFileMap(File file) {
+		this.file = file;
+		// nothing read yet
+		window.limit(0);
+	}
+
+	public static ColumnarFileMap open(File f) throws IOException {
+		ColumnarFileMap map = new ColumnarFileMap(f);
+		try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+			map.channel = raf.getChannel();
+			map.parse();
+			map.mapRegions();
+		}
+		finally {
+			map.channel = null;
+			map.window = null;
+		}
+		return map;
+	}
+
+	private void parse() throws IOException {
+		if (readInt() != ColumnarFileWriter.MAGIC) {
+			throw new IOException(file + " is not a columnar data point file");
+		}
+		int version = readInt();
+		if (version != ColumnarFileWriter.VERSION) {
+			throw new IOException("Version " + version + " of " + file + " cannot be mapped, it must be loaded");
+		}
+		int count = readInt();
+		for (int i = 0 ; i < count ; i++) {
+			String name = readString();
+			String unit = readString();
+			byte flags = readByte();
+			int values = readInt();
+			long bytes = readLong();
+			if (bytes > Integer.MAX_VALUE) {
+				throw new IOException("Too many values for " + name + " in " + file);
+			}
+			properties.add(new PropertyEntry(name, unit, flags, values, position, bytes));
+			position += bytes;
+		}
+		int tag;
+		while ((tag = readInt()) == ColumnarFileWriter.BATCH) {
+			int batchExecutions = readInt();
+			TableEntry[] tables = new TableEntry[readInt()];
+			for (int t = 0 ; t < tables.length ; t++) {
+				int width = readInt();
+				int rows = readInt();
+				int[] props = new int[width];
+				for (int k = 0 ; k < width ; k++) {
+					props[k] = readInt();
+				}
+				int[] constants = new int[width];
+				for (int k = 0 ; k < width ; k++) {
+					constants[k] = readInt();
+				}
+				tables[t] = new TableEntry(props, rows, constants, position + 8);
+				if (readLong() != tables[t].getBytes() || tables[t].getBytes() > Integer.MAX_VALUE) {
+					throw new IOException("Corrupted or too large table in " + file);
+				}
+				position += tables[t].getBytes();
+				dataPoints += rows;
+			}
+			executions += batchExecutions;
+			batches.add(new BatchEntry(batchExecutions, tables));
+		}
+		if (tag != ColumnarFileWriter.END || readLong() != dataPoints || readInt() != executions) {
+			throw new IOException("Corrupted end of " + file);
+		}
+	}
+
+	/**
+	 * Maps the values of the properties and the columns of the tables, in
+	 * the order of the file
+	 */
+	private void mapRegions() throws IOException {
+		List<long[]> spans = new ArrayList<long[]>();
+		for (PropertyEntry p : properties) {
+			spans.add(new long[]{p.position, p.bytes});
+		}
+		for (BatchEntry b : batches) {
+			for (TableEntry t : b.tables) {
+				spans.add(new long[]{t.position, t.getBytes()});
+			}
+		}
+		ByteBuffer[] buffers = new ByteBuffer[spans.size()];
+		int first = 0;
+		while (first < spans.size()) {
+			long start = spans.get(first)[0];
+			int last = first;
+			while (last + 1 < spans.size() && spans.get(last + 1)[0] + spans.get(last + 1)[1] - start <= MAX_REGION) {
+				last++;
+			}
+			long end = spans.get(last)[0] + spans.get(last)[1];
+			ByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+			for (int i = first ; i <= last ; i++) {
+				ByteBuffer b = region.duplicate();
+				b.position((int)(spans.get(i)[0] - start)).limit((int)(spans.get(i)[0] + spans.get(i)[1] - start));
+				buffers[i] = b.slice();
+			}
+			first = last + 1;
+		}
+		int i = 0;
+		for (PropertyEntry p : properties) {
+			p.buffer = buffers[i++];
+		}
+		for (BatchEntry b : batches) {
+			for (TableEntry t : b.tables) {
+				t.buffer = buffers[i++];
+			}
+		}
+	}
+
+	/**
+	 * @return the buffer positioned on the next length bytes of the file
+	 */
+	private ByteBuffer next(int length) throws IOException {
+		if (position < windowStart || position + length > windowStart + window.limit()) {
+			if (window.capacity() < length) {
+				window = ByteBuffer.allocate(length);
+			}
+			window.clear();
+			windowStart = position;
+			while (window.hasRemaining() && channel.read(window, windowStart + window.position()) >= 0) {}
+			window.flip();
+			if (window.limit() < length) {
+				throw new EOFException("Truncated file " + file);
+			}
+		}
+		window.position((int)(position - windowStart));
+		position += length;
+		return window;
+	}
+
+	private byte readByte() throws IOException {
+		return next(1).get();
+	}
+
+	private int readInt() throws IOException {
+		return next(4).getInt();
+	}
+
+	private long readLong() throws IOException {
+		return next(8).getLong();
+	}
+
+	private String readString() throws IOException {
+		int length = readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		next(length).get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	public List<PropertyEntry> getProperties() {
+		return Collections.unmodifiableList(properties);
+	}
+
+	public List<BatchEntry> getBatches() {
+		return Collections.unmodifiableList(batches);
+	}
+
+	public long getNumberOfDataPoints() {
+		return dataPoints;
+	}
+
+	public int getNumberOfExecutions() {
+		return executions;
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * This file is part of one of the Data-Cockpit libraries.
+ * 
+ * Copyright (C) 2024 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE (EPFL)
+ * 
+ * Author - Sébastien Rumley (sebastien.rumley@hefr.ch)
+ * 
+ * This open source release is made with the authorization of the EPFL,
+ * the institution where the author was originally employed.
+ * The author is currently affiliated with the HEIA-FR, which is the actual publisher.
+ * 
+ * The Data-Cockpit program is free software, you can redistribute it and/or modify
+ * it under the terms of GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The Data-Cockpit program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ * Contributor list -
+ */
+package ch.heiafr.isc.datacockpit.database.io;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads a file written by ColumnarFileWriter in one pass, handing its content
+ * to a visitor in the order it was written. A single table is in memory at
+ * a time.
+ */
+public class ColumnarFileReader {
+
+	public interface ValueVisitor {
+		void numberValue(double value);
+
+		void stringValue(String value);
+	}
+
+	public interface Visitor extends ValueVisitor {
+		/**
+		 * Called before the values of the property, given in the order of
+		 * their ids
+		 */
+		void property(String name, String unit, boolean result, int values);
+
+		/**
+		 * Called before the tables of the batch
+		 */
+		void batch(int executions, int tables);
+
+		/**
+		 * @param columns the value ids of the rows, one array per property.
+		 * The arrays belong to the visitor.
+		 * @param constants per property, the value id of all the rows or -1,
+		 * null for the files of version 1
+		 */
+		void table(int[] props, int rows, int[][] columns, int[] constants);
+	}
+
+	/**
+	 * @return true if the file starts as a file of ColumnarFileWriter
+	 */
+	public static boolean isColumnarFile(File f) {
+		try (DataInputStream in = new DataInputStream(new FileInputStream(f))) {
+			return in.readInt() == ColumnarFileWriter.MAGIC;
+		}
+		catch (IOException e) {
+			return false;
+		}
+	}
+
+	public static void read(File f, Visitor visitor) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1 << 16))) {
+			if (in.readInt() != ColumnarFileWriter.MAGIC) {
+				throw new IOException(f + " is not a columnar data point file");
+			}
+			int version = in.readInt();
+			if (version != 1 && version != ColumnarFileWriter.VERSION) {
+				throw new IOException("Unsupported version " + version + " of " + f);
+			}
+			int properties = in.readInt();
+			for (int i = 0 ; i < properties ; i++) {
+				String name = readString(in);
+				String unit = readString(in);
+				boolean result = (in.readByte() & ColumnarFileWriter.RESULT) != 0;
+				int values = in.readInt();
+				if (version > 1) {
+					in.readLong();
+				}
+				visitor.property(name, unit, result, values);
+				for (int j = 0 ; j < values ; j++) {
+					if (in.readByte() == ColumnarFileWriter.STRING) {
+						visitor.stringValue(readString(in));
+					} else {
+						visitor.numberValue(in.readDouble());
+					}
+				}
+			}
+			long dataPoints = 0;
+			int executions = 0;
+			byte[] buffer = new byte[1 << 16];
+			int tag;
+			while ((tag = in.readInt()) == ColumnarFileWriter.BATCH) {
+				int batchExecutions = in.readInt();
+				int tables = in.readInt();
+				executions += batchExecutions;
+				visitor.batch(batchExecutions, tables);
+				for (int t = 0 ; t < tables ; t++) {
+					int width = in.readInt();
+					int rows = in.readInt();
+					int[] props = new int[width];
+					for (int k = 0 ; k < width ; k++) {
+						props[k] = in.readInt();
+					}
+					int[] constants = null;
+					if (version > 1) {
+						constants = new int[width];
+						for (int k = 0 ; k < width ; k++) {
+							constants[k] = in.readInt();
+						}
+					}
+					if (in.readLong() != 4L * rows * width) {
+						throw new IOException("Corrupted table in " + f);
+					}
+					int[][] columns = new int[width][rows];
+					for (int[] column : columns) {
+						for (int from = 0 ; from < rows ; from += buffer.length / 4) {
+							int length = Math.min(rows - from, buffer.length / 4);
+							in.readFully(buffer, 0, 4 * length);
+							IntBuffer ints = ByteBuffer.wrap(buffer, 0, 4 * length).asIntBuffer();
+							ints.get(column, from, length);
+						}
+					}
+					dataPoints += rows;
+					visitor.table(props, rows, columns, constants);
+				}
+			}
+			if (tag != ColumnarFileWriter.END || in.readLong() != dataPoints || in.readInt() != executions) {
+				throw new IOException("Corrupted end of " + f);
+			}
+		}
+		catch (EOFException e) {
+			throw new IOException("Truncated file " + f, e);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
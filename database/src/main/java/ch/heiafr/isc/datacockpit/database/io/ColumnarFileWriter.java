@@ -0,0 +1,240 @@
+/*
+ * This file is part of one of the Data-Cockpit libraries.
+ * 
+ * Copyright (C) 2024 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE (EPFL)
+ * 
+ * Author - Sébastien Rumley (sebastien.rumley@hefr.ch)
+ * 
+ * This open source release is made with the authorization of the EPFL,
+ * the institution where the author was originally employed.
+ * The author is currently affiliated with the HEIA-FR, which is the actual publisher.
+ * 
+ * The Data-Cockpit program is free software, you can redistribute it and/or modify
+ * it under the terms of GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The Data-Cockpit program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ * Contributor list -
+ */
+package ch.heiafr.isc.datacockpit.database.io;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes a store of data points in a binary columnar file, in one pass :
+ * <pre>
+ * file     : MAGIC VERSION properties property* batch* END dataPoints executions
+ * property : name unit flags values bytes value*
+ * value    : NUMBER double | STRING string
+ * batch    : BATCH executions tables table*
+ * table    : width rows propertyId* constant* bytes column*
+ * column   : the value id of each row, rows ints
+ * string   : length (-1 for null) and UTF-8 bytes
+ * </pre>
+ * The data points of a table share the same property ids, each column holds
+ * the ids (in the dictionary of the property) of the values of one property,
+ * and the constant of a column is the id all its rows have, or -1. The flags
+ * of a property tell if it is a result and if it has non numeric values.
+ * All the numbers are big-endian. The lengths in bytes of the values and of
+ * the columns let a reader skip or map them without reading them.
+ * <p>
+ * Version 1 had neither these lengths nor the constants.
+ */
+public class ColumnarFileWriter implements Closeable {
+
+	static final int MAGIC = 0x44434B43;
+	static final int VERSION = 2;
+
+	static final byte NUMBER = 0;
+	static final byte STRING = 1;
+	static final byte RESULT = 1;
+	static final byte STRINGS = 2;
+
+	static final int BATCH = 0x42415443;
+	static final int END = 0x454E4421;
+
+	private final DataOutputStream out;
+	private int propertiesLeft;
+	private int valuesLeft = 0;
+	// the property being written, until its last value
+	private String name;
+	private String unit;
+	private byte flags;
+	private int values;
+	private final ByteArrayOutputStream valueBytes = new ByteArrayOutputStream();
+	private final DataOutputStream valueOut = new DataOutputStream(valueBytes);
+	private int tablesLeft = 0;
+	private long dataPoints = 0;
+	private int executions = 0;
+
+	/**
+	 * Writes the header, the properties must follow
+	 */
+	public ColumnarFileWriter(File f, int properties) throws IOException {
+		this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), 1 << 16));
+		this.propertiesLeft = properties;
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(properties);
+	}
+
+	/**
+	 * Starts a property, whose values must follow in the order of their ids
+	 */
+	public void writeProperty(String name, String unit, boolean result, int values) throws IOException {
+		if (propertiesLeft == 0 || valuesLeft > 0) {
+			throw new IllegalStateException("No property expected");
+		}
+		propertiesLeft--;
+		this.name = name;
+		this.unit = unit;
+		this.flags = result ? RESULT : 0;
+		this.values = values;
+		valuesLeft = values;
+		valueBytes.reset();
+		if (values == 0) {
+			endProperty();
+		}
+	}
+
+	public void writeNumberValue(double value) throws IOException {
+		checkValueExpected();
+		valueOut.writeByte(NUMBER);
+		valueOut.writeDouble(value);
+		nextValue();
+	}
+
+	public void writeStringValue(String value) throws IOException {
+		checkValueExpected();
+		flags |= STRINGS;
+		valueOut.writeByte(STRING);
+		writeString(valueOut, value);
+		nextValue();
+	}
+
+	private void checkValueExpected() {
+		if (valuesLeft == 0) {
+			throw new IllegalStateException("No value expected");
+		}
+	}
+
+	private void nextValue() throws IOException {
+		if (--valuesLeft == 0) {
+			endProperty();
+		}
+	}
+
+	/**
+	 * Writes the property once its values are known
+	 */
+	private void endProperty() throws IOException {
+		writeString(out, name);
+		writeString(out, unit);
+		out.writeByte(flags);
+		out.writeInt(values);
+		out.writeLong(valueBytes.size());
+		valueBytes.writeTo(out);
+	}
+
+	/**
+	 * Starts a batch of executions, whose tables must follow
+	 */
+	public void writeBatch(int executions, int tables) throws IOException {
+		checkDictionaryWritten();
+		if (tablesLeft > 0) {
+			throw new IllegalStateException(tablesLeft + " tables of the previous batch are missing");
+		}
+		tablesLeft = tables;
+		this.executions += executions;
+		out.writeInt(BATCH);
+		out.writeInt(executions);
+		out.writeInt(tables);
+	}
+
+	/**
+	 * @param props the ids of the properties, one per column
+	 * @param columns the value ids of each column, rows of them
+	 */
+	public void writeTable(int[] props, int rows, int[][] columns) throws IOException {
+		if (tablesLeft == 0) {
+			throw new IllegalStateException("No table expected");
+		}
+		tablesLeft--;
+		dataPoints += rows;
+		out.writeInt(props.length);
+		out.writeInt(rows);
+		for (int p : props) {
+			out.writeInt(p);
+		}
+		for (int[] column : columns) {
+			int constant = (rows == 0) ? -1 : column[0];
+			for (int row = 1 ; row < rows && constant >= 0 ; row++) {
+				if (column[row] != constant) {
+					constant = -1;
+				}
+			}
+			out.writeInt(constant);
+		}
+		out.writeLong(4L * rows * props.length);
+		ByteBuffer buffer = ByteBuffer.allocate(4 * Math.min(rows, 1 << 14));
+		for (int[] column : columns) {
+			for (int from = 0 ; from < rows ; from += buffer.capacity() / 4) {
+				int length = Math.min(rows - from, buffer.capacity() / 4);
+				buffer.clear();
+				buffer.asIntBuffer().put(column, from, length);
+				out.write(buffer.array(), 0, 4 * length);
+			}
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		if (s == null) {
+			out.writeInt(-1);
+		} else {
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private void checkDictionaryWritten() {
+		if (propertiesLeft > 0 || valuesLeft > 0) {
+			throw new IllegalStateException("The properties and their values come first");
+		}
+	}
+
+	/**
+	 * Writes the end of the file, with the total numbers of data points and
+	 * executions, and closes it
+	 */
+	public void close() throws IOException {
+		try {
+			checkDictionaryWritten();
+			if (tablesLeft > 0) {
+				throw new IllegalStateException(tablesLeft + " tables of the last batch are missing");
+			}
+			out.writeInt(END);
+			out.writeLong(dataPoints);
+			out.writeInt(executions);
+		}
+		finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * This file is part of one of the Data-Cockpit libraries.
+ * 
+ * Copyright (C) 2024 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE (EPFL)
+ * 
+ * Author - Sébastien Rumley (sebastien.rumley@hefr.ch)
+ * 
+ * This open source release is made with the authorization of the EPFL,
+ * the institution where the author was originally employed.
+ * The author is currently affiliated with the HEIA-FR, which is the actual publisher.
+ * 
+ * The Data-Cockpit program is free software, you can redistribute it and/or modify
+ * it under the terms of GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The Data-Cockpit program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ * Contributor list -
+ */
+package ch.heiafr.isc.datacockpit.experiments.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import ch.heiafr.isc.datacockpit.database.CsvImporter;
+import ch.heiafr.isc.datacockpit.database.SmartDataPointCollector;
+import ch.heiafr.isc.datacockpit.general_libraries.results.DataPoint;
+import ch.heiafr.isc.datacockpit.general_libraries.results.Execution;
+
+/**
+ * Measures the rows per second imported from a CSV file by the CsvImporter,
+ * compared to reading the file line by line into DataPoints added in
+ * batches. The file holds three parameters and two metrics, one of them
+ * different on every row. The best of a few runs is kept.
+ *
+ * Usage : CsvImportBenchmark [rows] [threads]
+ */
+public class CsvImportBenchmark {
+
+	private static final int ROUNDS = 3;
+	private static final String[] COLUMNS = {"load", "seed", "topology", "latency", "throughput"};
+
+	public static void main(String[] args) throws IOException {
+		int size = 2000000;
+		int threads = Runtime.getRuntime().availableProcessors();
+		if (args.length > 0) {
+			size = Integer.parseInt(args[0]);
+		}
+		if (args.length > 1) {
+			threads = Integer.parseInt(args[1]);
+		}
+		File f = File.createTempFile("import", ".csv");
+		f.deleteOnExit();
+		write(f, size);
+
+		long naive = Long.MAX_VALUE;
+		long imported = Long.MAX_VALUE;
+		// the first round is a warm-up
+		for (int i = 0 ; i <= ROUNDS ; i++) {
+			System.gc();
+			long start = System.nanoTime();
+			SmartDataPointCollector db = new SmartDataPointCollector();
+			readLines(db, f);
+			long time = System.nanoTime() - start;
+			check(db, size);
+			if (i > 0) {
+				naive = Math.min(naive, time);
+			}
+			db = null;
+			System.gc();
+			start = System.nanoTime();
+			db = new SmartDataPointCollector();
+			CsvImporter importer = new CsvImporter(db);
+			importer.mapColumn("latency", "latency", true);
+			importer.mapColumn("throughput", "throughput", true);
+			importer.setThreads(threads);
+			importer.importFile(f);
+			time = System.nanoTime() - start;
+			check(db, size);
+			if (i > 0) {
+				imported = Math.min(imported, time);
+			}
+		}
+		System.out.println(String.format("%d rows (%d MB), %d threads : line by line %d ms (%.2f M rows/s), importer %d ms (%.2f M rows/s)",
+				size, f.length() >> 20, threads, naive / 1000000, size * 1000.0 / naive,
+				imported / 1000000, size * 1000.0 / imported));
+		f.delete();
+	}
+
+	private static void write(File f, int size) throws IOException {
+		Random r = new Random(size);
+		BufferedWriter w = new BufferedWriter(new FileWriter(f));
+		try {
+			w.write(String.join(",", COLUMNS));
+			w.newLine();
+			for (int i = 0 ; i < size ; i++) {
+				w.write((i % 100) + "," + (i % 7) + ",topo" + (i % 5) + "," + r.nextDouble() + "," + (i % 300));
+				w.newLine();
+			}
+		}
+		finally {
+			w.close();
+		}
+	}
+
+	/**
+	 * The reference: each line split and turned into a DataPoint
+	 */
+	private static void readLines(SmartDataPointCollector db, File f) throws IOException {
+		BufferedReader in = new BufferedReader(new FileReader(f));
+		try {
+			String[] header = in.readLine().split(",");
+			List<Execution> batch = new ArrayList<Execution>();
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] cells = line.split(",");
+				DataPoint dp = new DataPoint();
+				for (int i = 0 ; i < cells.length ; i++) {
+					if (i >= 3) {
+						dp.addResultProperty(header[i], cells[i]);
+					} else {
+						dp.addProperty(header[i], cells[i]);
+					}
+				}
+				Execution e = new Execution();
+				e.addDataPoint(dp);
+				batch.add(e);
+				if (batch.size() == 10000) {
+					db.addExecutions(batch);
+					batch.clear();
+				}
+			}
+			db.addExecutions(batch);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	private static void check(SmartDataPointCollector db, int size) {
+		if (db.getNumberOfStoredDataPoints() != size) {
+			throw new IllegalStateException("The collector does not hold all the rows");
+		}
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * This file is part of one of the Data-Cockpit libraries.
+ * 
+ * Copyright (C) 2024 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE (EPFL)
+ * 
+ * Author - Sébastien Rumley (sebastien.rumley@hefr.ch)
+ * 
+ * This open source release is made with the authorization of the EPFL,
+ * the institution where the author was originally employed.
+ * The author is currently affiliated with the HEIA-FR, which is the actual publisher.
+ * 
+ * The Data-Cockpit program is free software, you can redistribute it and/or modify
+ * it under the terms of GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The Data-Cockpit program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ * Contributor list -
+ */
+package ch.heiafr.isc.datacockpit.experiments.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import ch.heiafr.isc.datacockpit.database.AbstractInOutDataManager;
+import ch.heiafr.isc.datacockpit.database.ColumnarDataPointCollector;
+import ch.heiafr.isc.datacockpit.database.SmartDataPointCollector;
+import ch.heiafr.isc.datacockpit.general_libraries.results.Criterium;
+import ch.heiafr.isc.datacockpit.general_libraries.results.CriteriumSet;
+import ch.heiafr.isc.datacockpit.general_libraries.results.DataPoint;
+import ch.heiafr.isc.datacockpit.general_libraries.results.DataRetrievalOptions;
+import ch.heiafr.isc.datacockpit.general_libraries.results.DataSeries;
+import ch.heiafr.isc.datacockpit.general_libraries.results.Execution;
+
+/**
+ * Measures the time of a chart query as the number of criteria combinations
+ * grows, from a single series to a color x shape x size split. The
+ * SmartDataPointCollector finds the combination of a data point in one pass,
+ * its cost should stay flat. The ColumnarDataPointCollector still tests
+ * every combination against every data point and serves as reference.
+ *
+ * Usage : GroupByBenchmark [dataPoints]
+ */
+public class GroupByBenchmark {
+
+	private static final String[][] CRITERIA = {
+		{"CONSTANT"},
+		{"shape"},
+		{"color"},
+		{"color", "shape"},
+		{"color", "shape", "size"}
+	};
+
+	public static void main(String[] args) {
+		int size = 200000;
+		if (args.length > 0) {
+			size = Integer.parseInt(args[0]);
+		}
+		AbstractInOutDataManager smart = new SmartDataPointCollector();
+		AbstractInOutDataManager columnar = new ColumnarDataPointCollector();
+		fill(smart, size);
+		fill(columnar, size);
+
+		// warm-up
+		for (int i = 0 ; i < 3 ; i++) {
+			for (String[] criteria : CRITERIA) {
+				query(smart, criteria);
+			}
+		}
+
+		System.out.println(String.format("%-22s %8s %10s %10s %8s", "criteria", "series", "smart", "columnar", "speedup"));
+		for (String[] criteria : CRITERIA) {
+			long start = System.nanoTime();
+			int series = query(smart, criteria);
+			long smartTime = System.nanoTime() - start;
+			start = System.nanoTime();
+			int reference = query(columnar, criteria);
+			long columnarTime = System.nanoTime() - start;
+			if (series != reference) {
+				throw new IllegalStateException("The collectors do not return the same number of series");
+			}
+			System.out.println(String.format("%-22s %8d %8d ms %8d ms %7.1fx",
+					String.join("x", criteria), series, smartTime / 1000000, columnarTime / 1000000,
+					(double)columnarTime / smartTime));
+		}
+	}
+
+	private static void fill(AbstractInOutDataManager db, int size) {
+		Random r = new Random(size);
+		for (int i = 0 ; i < size ; i++) {
+			DataPoint dp = new DataPoint();
+			dp.addProperty("load", i % 20);
+			dp.addProperty("color", "color" + r.nextInt(40));
+			dp.addProperty("shape", "shape" + r.nextInt(10));
+			dp.addProperty("size", r.nextInt(10));
+			dp.addResultProperty("latency", r.nextDouble());
+			Execution e = new Execution();
+			e.addDataPoint(dp);
+			db.addExecution(e);
+		}
+	}
+
+	/**
+	 * @return the number of series of the chart
+	 */
+	private static int query(AbstractInOutDataManager db, String[] criteria) {
+		CriteriumSet cs = new CriteriumSet(criteria.length);
+		for (String c : criteria) {
+			ArrayList<Criterium> list = new ArrayList<Criterium>(1);
+			list.add(new Criterium(c));
+			cs.add(list);
+		}
+		DataRetrievalOptions options = new DataRetrievalOptions(new String[]{"latency"}, "load", cs, null,
+				true, false, false, false, false, false, 95, false, true);
+		List<DataSeries> series = db.getChartValues(options, "latency");
+		return series.size();
+	}
+}
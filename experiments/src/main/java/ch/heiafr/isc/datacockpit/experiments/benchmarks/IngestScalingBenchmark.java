@@ -0,0 +1,132 @@
+/*
+ * This file is part of one of the Data-Cockpit libraries.
+ * 
+ * Copyright (C) 2024 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE (EPFL)
+ * 
+ * Author - Sébastien Rumley (sebastien.rumley@hefr.ch)
+ * 
+ * This open source release is made with the authorization of the EPFL,
+ * the institution where the author was originally employed.
+ * The author is currently affiliated with the HEIA-FR, which is the actual publisher.
+ * 
+ * The Data-Cockpit program is free software, you can redistribute it and/or modify
+ * it under the terms of GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The Data-Cockpit program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ * Contributor list -
+ */
+package ch.heiafr.isc.datacockpit.experiments.benchmarks;
+
+import java.util.Random;
+
+import ch.heiafr.isc.datacockpit.database.AbstractInOutDataManager;
+import ch.heiafr.isc.datacockpit.database.ColumnarDataPointCollector;
+import ch.heiafr.isc.datacockpit.database.SmartDataPointCollector;
+import ch.heiafr.isc.datacockpit.general_libraries.results.DataPoint;
+import ch.heiafr.isc.datacockpit.general_libraries.results.Execution;
+
+/**
+ * Measures the ingest cost per data point from 10k up to 10M data points.
+ * The cost should stay flat: a growing time per data point means that some
+ * part of the ingest path depends on the size of the database. The
+ * benchmark fails if the cost at some size exceeds the lowest cost measured
+ * at a smaller size by more than maxRatio, the runs being too noisy for a
+ * tighter bound.
+ * 
+ * Usage : IngestScalingBenchmark [maxDataPoints] [smart|columnar] [maxRatio]
+ * (10M data points require a few GB of heap)
+ */
+public class IngestScalingBenchmark {
+	
+	private static final int DP_PER_EXECUTION = 10;
+	private static final double MAX_RATIO = 1.5;
+	
+	public static void main(String[] args) {
+		int max = 10000000;
+		if (args.length > 0) {
+			max = Integer.parseInt(args[0]);
+		}
+		boolean columnar = args.length > 1 && args[1].equals("columnar");
+		double maxRatio = MAX_RATIO;
+		if (args.length > 2) {
+			maxRatio = Double.parseDouble(args[2]);
+		}
+		
+		// warm-up
+		for (int i = 0 ; i < 3 ; i++) {
+			ingest(createCollector(columnar), 100000);
+		}
+		
+		double minCost = Double.MAX_VALUE;
+		double maxGrowth = 1;
+		for (int size = 10000 ; size <= max ; size *= 10) {
+			AbstractInOutDataManager db = createCollector(columnar);
+			System.gc();
+			long time = ingest(db, size);
+			double cost = (double)time / size;
+			maxGrowth = Math.max(maxGrowth, cost / minCost);
+			minCost = Math.min(minCost, cost);
+			System.out.println(String.format("%10d data points : %8d ms, %8.1f ns per data point",
+					size, time / 1000000, cost));
+		}
+		System.out.println(String.format("Max growth of the cost per data point : %.2f", maxGrowth));
+		if (maxGrowth > maxRatio) {
+			throw new IllegalStateException(String.format("The cost per data point grows by more than %.2f", maxRatio));
+		}
+	}
+	
+	private static AbstractInOutDataManager createCollector(boolean columnar) {
+		if (columnar) {
+			return new ColumnarDataPointCollector();
+		} else {
+			return new SmartDataPointCollector();
+		}
+	}
+	
+	/**
+	 * Sweep-like data : a few parameters, two results, some parameters
+	 * only defined by some data points and new properties appearing late
+	 * (at each power of two), which used to trigger a scan of the database.
+	 * Only the time spent in the collector is returned, not the one needed to
+	 * build the data points.
+	 */
+	private static long ingest(AbstractInOutDataManager db, int size) {
+		Random r = new Random(size);
+		int nextNew = 1;
+		int added = 0;
+		long time = 0;
+		while (added < size) {
+			Execution e = new Execution();
+			for (int i = 0 ; i < DP_PER_EXECUTION && added < size ; i++, added++) {
+				DataPoint dp = new DataPoint();
+				dp.addProperty("load", added % 100);
+				dp.addProperty("seed", added % 7);
+				dp.addProperty("topology", "topo" + (added % 5));
+				dp.addProperty("algorithm", (added % 3 == 0) ? "greedy" : "optimal");
+				if (added % 4 == 0) {
+					dp.addProperty("buffer", added % 11);
+				}
+				if (added == nextNew) {
+					dp.addProperty("phase_" + nextNew, "on");
+					nextNew *= 2;
+				}
+				dp.addResultProperty("latency", r.nextDouble());
+				dp.addResultProperty("throughput", r.nextDouble() * 100);
+				e.addDataPoint(dp);
+			}
+			long start = System.nanoTime();
+			db.addExecution(e);
+			time += System.nanoTime() - start;
+		}
+		return time;
+	}
+}
@@ -0,0 +1,141 @@
+/*
+ * This file is part of one of the Data-Cockpit libraries.
+ * 
+ * Copyright (C) 2024 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE (EPFL)
+ * 
+ * Author - Sébastien Rumley (sebastien.rumley@hefr.ch)
+ * 
+ * This open source release is made with the authorization of the EPFL,
+ * the institution where the author was originally employed.
+ * The author is currently affiliated with the HEIA-FR, which is the actual publisher.
+ * 
+ * The Data-Cockpit program is free software, you can redistribute it and/or modify
+ * it under the terms of GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The Data-Cockpit program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ * Contributor list -
+ */
+package ch.heiafr.isc.datacockpit.experiments.benchmarks;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import ch.heiafr.isc.datacockpit.database.SmartDataPointCollector;
+import ch.heiafr.isc.datacockpit.general_libraries.results.DataPoint;
+import ch.heiafr.isc.datacockpit.general_libraries.results.Execution;
+
+/**
+ * Measures the ingest throughput of a SmartDataPointCollector fed by many
+ * threads, with and without a journal, and the time to rebuild it from the
+ * journal. The journal should cost less than a few percent of the
+ * throughput, its records being forced to the disk in groups. Most of
+ * this cost is the encoding of the records by the appending threads, and
+ * on a host with few cores the writer thread competes with them too. The
+ * best of a few alternated runs is kept, the runs being noisy.
+ *
+ * Usage : JournalBenchmark [dataPoints] [threads]
+ */
+public class JournalBenchmark {
+
+	private static final int ROUNDS = 3;
+
+	public static void main(String[] args) throws Exception {
+		int size = 1000000;
+		int threads = 32;
+		if (args.length > 0) {
+			size = Integer.parseInt(args[0]);
+		}
+		if (args.length > 1) {
+			threads = Integer.parseInt(args[1]);
+		}
+		List<Execution> executions = create(size);
+		File f = File.createTempFile("journal", ".log");
+		f.deleteOnExit();
+
+		long plain = Long.MAX_VALUE;
+		long journaled = Long.MAX_VALUE;
+		// the first round is a warm-up
+		for (int i = 0 ; i <= ROUNDS ; i++) {
+			System.gc();
+			long time = ingest(new SmartDataPointCollector(), executions, threads);
+			if (i > 0) {
+				plain = Math.min(plain, time);
+			}
+			f.delete();
+			System.gc();
+			SmartDataPointCollector db = new SmartDataPointCollector();
+			db.openJournal(f, 100, 10000);
+			time = ingest(db, executions, threads);
+			db.closeJournal();
+			if (i > 0) {
+				journaled = Math.min(journaled, time);
+			}
+		}
+
+		long start = System.nanoTime();
+		SmartDataPointCollector rebuilt = new SmartDataPointCollector();
+		rebuilt.openJournal(f, 100, 10000);
+		long replay = System.nanoTime() - start;
+		rebuilt.closeJournal();
+		if (rebuilt.getNumberOfStoredDataPoints() != size) {
+			throw new IllegalStateException("The journal does not hold all the data points");
+		}
+		System.out.println(String.format("%d data points, %d threads : %d ms without journal, %d ms with (%+.1f%%), journal of %d MB rebuilt in %d ms",
+				size, threads, plain / 1000000, journaled / 1000000, 100.0 * (journaled - plain) / plain,
+				f.length() >> 20, replay / 1000000));
+		f.delete();
+	}
+
+	private static List<Execution> create(int size) {
+		List<Execution> executions = new ArrayList<Execution>(size);
+		for (int i = 0 ; i < size ; i++) {
+			DataPoint dp = new DataPoint();
+			dp.addProperty("load", i % 100);
+			dp.addProperty("seed", i % 7);
+			dp.addProperty("topology", "topo" + (i % 5));
+			dp.addResultProperty("latency", (i % 1000) / 7.0);
+			dp.addResultProperty("throughput", i % 300);
+			Execution e = new Execution();
+			e.addDataPoint(dp);
+			executions.add(e);
+		}
+		return executions;
+	}
+
+	/**
+	 * @return the time for the threads to add the executions, each one its
+	 * share
+	 */
+	private static long ingest(final SmartDataPointCollector db, final List<Execution> executions, final int threads) throws InterruptedException {
+		Thread[] workers = new Thread[threads];
+		for (int t = 0 ; t < threads ; t++) {
+			final int first = t;
+			workers[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = first ; i < executions.size() ; i += threads) {
+						db.addExecution(executions.get(i));
+					}
+				}
+			};
+		}
+		long start = System.nanoTime();
+		for (Thread w : workers) {
+			w.start();
+		}
+		for (Thread w : workers) {
+			w.join();
+		}
+		return System.nanoTime() - start;
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ * This file is part of one of the Data-Cockpit libraries.
+ * 
+ * Copyright (C) 2024 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE (EPFL)
+ * 
+ * Author - Sébastien Rumley (sebastien.rumley@hefr.ch)
+ * 
+ * This open source release is made with the authorization of the EPFL,
+ * the institution where the author was originally employed.
+ * The author is currently affiliated with the HEIA-FR, which is the actual publisher.
+ * 
+ * The Data-Cockpit program is free software, you can redistribute it and/or modify
+ * it under the terms of GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The Data-Cockpit program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ * Contributor list -
+ */
+package ch.heiafr.isc.datacockpit.experiments.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import ch.heiafr.isc.datacockpit.database.LiveChartView;
+import ch.heiafr.isc.datacockpit.database.SmartDataPointCollector;
+import ch.heiafr.isc.datacockpit.general_libraries.results.Criterium;
+import ch.heiafr.isc.datacockpit.general_libraries.results.CriteriumSet;
+import ch.heiafr.isc.datacockpit.general_libraries.results.DataPoint;
+import ch.heiafr.isc.datacockpit.general_libraries.results.DataRetrievalOptions;
+import ch.heiafr.isc.datacockpit.general_libraries.results.DataSeries;
+import ch.heiafr.isc.datacockpit.general_libraries.results.Execution;
+
+/**
+ * Checks that a live chart view gives the same means as getChartValues after
+ * each of several refreshes. Every round adds executions whose latencies are
+ * partly new values of the metric, which the view must load before folding
+ * them.
+ * Throws an IllegalStateException at the first series, x value or mean that
+ * differs.
+ *
+ * Usage : LiveChartViewCheck [rounds] [executionsPerRound]
+ */
+public class LiveChartViewCheck {
+
+	public static void main(String[] args) {
+		int rounds = 3;
+		int executions = 1000;
+		if (args.length > 0) {
+			rounds = Integer.parseInt(args[0]);
+		}
+		if (args.length > 1) {
+			executions = Integer.parseInt(args[1]);
+		}
+		SmartDataPointCollector db = new SmartDataPointCollector();
+		DataRetrievalOptions options = options();
+		LiveChartView view = db.registerView(options, "latency");
+		Random r = new Random(rounds * executions);
+		for (int round = 1 ; round <= rounds ; round++) {
+			for (int i = 0 ; i < executions ; i++) {
+				DataPoint dp = new DataPoint();
+				dp.addProperty("load", i % 10);
+				dp.addProperty("color", "color" + r.nextInt(8));
+				dp.addProperty("shape", "shape" + r.nextInt(10));
+				// half of the latencies repeat, the metric does not grow by the
+				// same number of values at each round
+				dp.addResultProperty("latency", r.nextBoolean() ? r.nextDouble() * 1000 : r.nextInt(100));
+				Execution e = new Execution();
+				e.addDataPoint(dp);
+				db.addExecution(e);
+			}
+			Map<String, Map<String, Double>> live = means(view.refresh());
+			Map<String, Map<String, Double>> reference = means(db.getChartValues(options, "latency"));
+			compare(round, live, reference);
+			System.out.println(String.format("round %d: %d series match", round, reference.size()));
+		}
+	}
+
+	private static DataRetrievalOptions options() {
+		CriteriumSet cs = new CriteriumSet(2);
+		for (String c : new String[]{"color", "shape"}) {
+			ArrayList<Criterium> list = new ArrayList<Criterium>(1);
+			list.add(new Criterium(c));
+			cs.add(list);
+		}
+		return new DataRetrievalOptions(new String[]{"latency"}, "load", cs, null,
+				true, false, false, false, false, false, 95, false, true);
+	}
+
+	/**
+	 * @return per legend, the mean of the y values of each x value
+	 */
+	private static Map<String, Map<String, Double>> means(List<? extends DataSeries> series) {
+		Map<String, Map<String, Double>> toRet = new HashMap<String, Map<String, Double>>();
+		for (DataSeries ds : series) {
+			Map<String, double[]> sums = new HashMap<String, double[]>();
+			for (DataSeries.DataSeriesStruct s : ds) {
+				double[] sum = sums.get(s.xVal);
+				if (sum == null) {
+					sum = new double[2];
+					sums.put(s.xVal, sum);
+				}
+				sum[0] += s.yVal;
+				sum[1]++;
+			}
+			Map<String, Double> m = new HashMap<String, Double>();
+			for (Map.Entry<String, double[]> e : sums.entrySet()) {
+				m.put(e.getKey(), e.getValue()[0] / e.getValue()[1]);
+			}
+			toRet.put(ds.getLegend(), m);
+		}
+		return toRet;
+	}
+
+	private static void compare(int round, Map<String, Map<String, Double>> live, Map<String, Map<String, Double>> reference) {
+		if (!live.keySet().equals(reference.keySet())) {
+			throw new IllegalStateException("Round " + round + ": the view has the series " + live.keySet()
+					+ " instead of " + reference.keySet());
+		}
+		for (Map.Entry<String, Map<String, Double>> e : reference.entrySet()) {
+			Map<String, Double> l = live.get(e.getKey());
+			if (!l.keySet().equals(e.getValue().keySet())) {
+				throw new IllegalStateException("Round " + round + ": series " + e.getKey() + " has the x values "
+						+ l.keySet() + " instead of " + e.getValue().keySet());
+			}
+			for (Map.Entry<String, Double> p : e.getValue().entrySet()) {
+				double got = l.get(p.getKey());
+				double expected = p.getValue();
+				if (!(Math.abs(got - expected) <= 1e-4 * Math.abs(expected))) {
+					throw new IllegalStateException("Round " + round + ": series " + e.getKey() + " at x = "
+							+ p.getKey() + " has the mean " + got + " instead of " + expected);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * This file is part of one of the Data-Cockpit libraries.
+ * 
+ * Copyright (C) 2024 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE (EPFL)
+ * 
+ * Author - Sébastien Rumley (sebastien.rumley@hefr.ch)
+ * 
+ * This open source release is made with the authorization of the EPFL,
+ * the institution where the author was originally employed.
+ * The author is currently affiliated with the HEIA-FR, which is the actual publisher.
+ * 
+ * The Data-Cockpit program is free software, you can redistribute it and/or modify
+ * it under the terms of GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The Data-Cockpit program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ * Contributor list -
+ */
+package ch.heiafr.isc.datacockpit.experiments.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import ch.heiafr.isc.datacockpit.database.MappedDataRetriever;
+import ch.heiafr.isc.datacockpit.database.SmartDataPointCollector;
+import ch.heiafr.isc.datacockpit.general_libraries.results.Criterium;
+import ch.heiafr.isc.datacockpit.general_libraries.results.CriteriumSet;
+import ch.heiafr.isc.datacockpit.general_libraries.results.DataPoint;
+import ch.heiafr.isc.datacockpit.general_libraries.results.DataRetrievalOptions;
+import ch.heiafr.isc.datacockpit.general_libraries.results.Execution;
+
+/**
+ * Measures the time to save a SmartDataPointCollector to a columnar file and
+ * to load it back, with the size of the file. The cost of a load is mostly
+ * the reading of the value ids, plus the rebuilding of the dictionaries of
+ * the properties having many distinct values. The file is also opened with
+ * a MappedDataRetriever, whose opening should not depend on the number of
+ * data points, and queried once to show the cost of the first query, which
+ * reads the columns it needs.
+ *
+ * Usage : StorageBenchmark [dataPoints] [distinctValues]
+ */
+public class StorageBenchmark {
+
+	public static void main(String[] args) throws IOException {
+		int size = 1000000;
+		int distinct = 1000;
+		if (args.length > 0) {
+			size = Integer.parseInt(args[0]);
+		}
+		if (args.length > 1) {
+			distinct = Integer.parseInt(args[1]);
+		}
+		SmartDataPointCollector db = new SmartDataPointCollector();
+		fill(db, size, distinct);
+		File f = File.createTempFile("storage", ".dcc");
+		f.deleteOnExit();
+
+		long start = System.nanoTime();
+		db.saveToFile(f);
+		long saveTime = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		SmartDataPointCollector loaded = new SmartDataPointCollector();
+		loaded.loadFromFile(f);
+		long loadTime = System.nanoTime() - start;
+		if (loaded.getNumberOfStoredDataPoints() != size) {
+			throw new IllegalStateException("The loaded collector does not hold all the data points");
+		}
+		System.out.println(String.format("%d data points, %d MB, saved in %d ms, loaded in %d ms",
+				size, f.length() >> 20, saveTime / 1000000, loadTime / 1000000));
+
+		start = System.nanoTime();
+		MappedDataRetriever mapped = new MappedDataRetriever(f);
+		long openTime = System.nanoTime() - start;
+		start = System.nanoTime();
+		int mappedSeries = mapped.getChartValues(options(), "latency").size();
+		long queryTime = System.nanoTime() - start;
+		if (mappedSeries != loaded.getChartValues(options(), "latency").size()) {
+			throw new IllegalStateException("The mapped file does not return the same series");
+		}
+		System.out.println(String.format("mapped in %d ms, first query in %d ms",
+				openTime / 1000000, queryTime / 1000000));
+		f.delete();
+	}
+
+	private static DataRetrievalOptions options() {
+		CriteriumSet cs = new CriteriumSet(1);
+		ArrayList<Criterium> list = new ArrayList<Criterium>(1);
+		list.add(new Criterium("CONSTANT"));
+		cs.add(list);
+		return new DataRetrievalOptions(new String[]{"latency"}, "load", cs, null,
+				true, false, false, false, false, false, 95, false, true);
+	}
+
+	private static void fill(SmartDataPointCollector db, int size, int distinct) {
+		Random r = new Random(size);
+		List<Execution> batch = new ArrayList<Execution>();
+		for (int i = 0 ; i < size ; i++) {
+			DataPoint dp = new DataPoint();
+			dp.addProperty("load", i % 20);
+			dp.addProperty("user", "user" + r.nextInt(distinct));
+			dp.addProperty("seed", i % distinct);
+			dp.addResultProperty("latency", r.nextInt(distinct) / 7.0);
+			dp.addResultProperty("throughput", r.nextInt(1000));
+			Execution e = new Execution();
+			e.addDataPoint(dp);
+			batch.add(e);
+			if (batch.size() == 10000) {
+				db.addExecutions(batch);
+				batch = new ArrayList<Execution>();
+			}
+		}
+		db.addExecutions(batch);
+	}
+}
@@ -26,6 +26,8 @@
  */
 package ch.heiafr.isc.datacockpit.general_libraries.results;
 
+import java.util.Collection;
+
 public interface AbstractResultsManager {
 
 	public void addExecution(Execution e);
@@ -34,4 +36,26 @@ public interface AbstractResultsManager {
 
 	public void addDataPoint(DataPoint dp);
 
+	/**
+	 * Adds several executions at once. Managers able to store them in one
+	 * operation should override this method.
+	 */
+	public default void addExecutions(Collection<Execution> executions) {
+		for (Execution e : executions) {
+			addExecution(e);
+		}
+	}
+
+	/**
+	 * Adds the data points of one run (for instance one per time step) as a
+	 * single execution, instead of one execution per data point.
+	 */
+	public default void addDataPoints(Collection<DataPoint> dataPoints) {
+		Execution e = new Execution();
+		for (DataPoint dp : dataPoints) {
+			e.addDataPoint(dp);
+		}
+		addExecution(e);
+	}
+
 }
\ No newline at end of file
@@ -26,8 +26,50 @@
  */
 package ch.heiafr.isc.datacockpit.general_libraries.results;
 
+import java.util.ArrayList;
 import java.util.List;
 
 public interface AdvancedDataRetriever extends  AbstractDataRetriever {
 	public abstract List<DataSeries> getChartValues(DataRetrievalOptions options, String methodName);
+
+	/**
+	 * Returns the series of the chart with, per x value, the statistics of
+	 * the points instead of the points. Retrievers able to compute them while
+	 * going through their data should override this method.
+	 */
+	public default List<AggregatedDataSeries> getAggregatedChartValues(DataRetrievalOptions options, String methodName) {
+		return AggregatedDataSeries.aggregate(getChartValues(options, methodName), options.is95);
+	}
+
+	/**
+	 * Returns, for each metric, the series getChartValues returns for it:
+	 * the series of a same criteria combination come in the same order.
+	 * Retrievers able to fill them in one pass over their data should
+	 * override this method.
+	 */
+	public default List<List<DataSeries>> getChartValues(DataRetrievalOptions options, String[] methodNames) {
+		List<List<DataSeries>> toRet = new ArrayList<List<DataSeries>>(methodNames.length);
+		for (String methodName : methodNames) {
+			toRet.add(getChartValues(options, methodName));
+		}
+		return toRet;
+	}
+
+	public default List<List<AggregatedDataSeries>> getAggregatedChartValues(DataRetrievalOptions options, String[] methodNames) {
+		List<List<AggregatedDataSeries>> toRet = new ArrayList<List<AggregatedDataSeries>>(methodNames.length);
+		for (String methodName : methodNames) {
+			toRet.add(getAggregatedChartValues(options, methodName));
+		}
+		return toRet;
+	}
+
+	/**
+	 * Returns a view of the chart defined by these options, updated with the
+	 * data points added since its previous refresh. Retrievers able to fold
+	 * the new data points into a chart should override this method.
+	 * @return the view, null if the retriever does not keep live charts
+	 */
+	public default LiveChart registerView(DataRetrievalOptions options, String methodName) {
+		return null;
+	}
 }
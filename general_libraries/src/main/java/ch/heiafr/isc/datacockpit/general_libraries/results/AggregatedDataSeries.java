@@ -0,0 +1,249 @@
+/*
+ * This file is part of one of the Data-Cockpit libraries.
+ * 
+ * Copyright (C) 2024 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE (EPFL)
+ * 
+ * Author - Sébastien Rumley (sebastien.rumley@hefr.ch)
+ * 
+ * This open source release is made with the authorization of the EPFL,
+ * the institution where the author was originally employed.
+ * The author is currently affiliated with the HEIA-FR, which is the actual publisher.
+ * 
+ * The Data-Cockpit program is free software, you can redistribute it and/or modify
+ * it under the terms of GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The Data-Cockpit program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ * Contributor list -
+ */
+package ch.heiafr.isc.datacockpit.general_libraries.results;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ch.heiafr.isc.datacockpit.general_libraries.utils.PairList;
+
+/**
+ * A series holding, instead of its points, the statistics of the points of
+ * each x value. Iterating it gives one point per x value, sorted by x, whose
+ * y value is the mean.
+ */
+public class AggregatedDataSeries extends DataSeries {
+
+	private final ArrayList<Statistics> statistics = new ArrayList<Statistics>();
+	private boolean sorted = true;
+
+	public AggregatedDataSeries(List<PairList<String,String>> crit) {
+		super(crit);
+	}
+
+	public void add(Statistics s) {
+		statistics.add(s);
+		sorted = false;
+	}
+
+	/**
+	 * @return the statistics of each x value, sorted by x
+	 */
+	public synchronized List<Statistics> getStatistics() {
+		if (!sorted) {
+			Collections.sort(statistics);
+			sorted = true;
+		}
+		return Collections.unmodifiableList(statistics);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@Override
+	public Iterator<DataSeriesStruct> iterator() {
+		return (Iterator)getStatistics().iterator();
+	}
+
+	/**
+	 * Computes the statistics of series of points, for the retrievers not
+	 * able to compute them while going through their data
+	 * @param is95 true for the 5 and 95 percentiles instead of the quartiles
+	 */
+	public static List<AggregatedDataSeries> aggregate(List<DataSeries> series, boolean is95) {
+		List<AggregatedDataSeries> toRet = new ArrayList<AggregatedDataSeries>(series.size());
+		for (DataSeries ds : series) {
+			LinkedHashMap<String, Values> values = new LinkedHashMap<String, Values>();
+			for (DataSeriesStruct s : ds) {
+				Values v = values.get(s.xVal);
+				if (v == null) {
+					v = new Values();
+					values.put(s.xVal, v);
+				}
+				v.add(s.yVal);
+			}
+			AggregatedDataSeries agg = new AggregatedDataSeries(ds.crit);
+			for (Map.Entry<String, Values> e : values.entrySet()) {
+				agg.add(new Statistics(e.getKey(), e.getValue().values, e.getValue().count, is95));
+			}
+			toRet.add(agg);
+		}
+		return toRet;
+	}
+
+	private static class Values {
+		private float[] values = new float[4];
+		private int count = 0;
+
+		void add(float v) {
+			if (count == values.length) {
+				values = Arrays.copyOf(values, 2 * count);
+			}
+			values[count++] = v;
+		}
+	}
+
+	/**
+	 * The statistics of the points of a series having the same x value. They
+	 * are computed as the visualizer does on the points, in float, the order
+	 * statistics being the elements of the sorted values at count/2, count/4
+	 * and 3*count/4 (or count/20 and 19*count/20).
+	 */
+	public static class Statistics extends DataSeriesStruct {
+		private final int count;
+		private final float mean;
+		private final float variance;
+		private final float median;
+		private final float lower;
+		private final float upper;
+		private final float min;
+		private final float max;
+		private final float first;
+		private final boolean finite;
+
+		/**
+		 * @param values the y values of the points, in the order of the series,
+		 * the first count are used
+		 * @param is95 true for the 5 and 95 percentiles instead of the quartiles
+		 */
+		public Statistics(String x, float[] values, int count, boolean is95) {
+			if (count < 1) {
+				throw new IllegalArgumentException("No value for x=" + x);
+			}
+			float total = 0;
+			boolean allFinite = true;
+			for (int i = 0 ; i < count ; i++) {
+				total += values[i];
+				allFinite &= !(Float.isNaN(values[i]) || Float.isInfinite(values[i]));
+			}
+			float m = total / (float)count;
+			float squares = 0;
+			for (int i = 0 ; i < count ; i++) {
+				squares += Math.pow(values[i] - (double)m, 2);
+			}
+			float[] s = Arrays.copyOf(values, count);
+			Arrays.sort(s);
+
+			this.xVal = x;
+			this.yVal = m;
+			this.count = count;
+			this.mean = m;
+			this.variance = squares / (count - 1);
+			this.median = s[count / 2];
+			this.lower = is95 ? s[count / 20] : s[count / 4];
+			this.upper = is95 ? s[count * 19 / 20] : s[count * 3 / 4];
+			this.min = s[0];
+			this.max = s[count - 1];
+			this.first = values[0];
+			this.finite = allFinite;
+		}
+
+		/**
+		 * For the retrievers maintaining the statistics as points are added,
+		 * without keeping the values
+		 * @param lower the lower quartile, or the 5 percentile
+		 * @param upper the upper quartile, or the 95 percentile
+		 */
+		public Statistics(String x, int count, float mean, float variance, float median, float lower, float upper,
+				float min, float max, float first) {
+			if (count < 1) {
+				throw new IllegalArgumentException("No value for x=" + x);
+			}
+			this.xVal = x;
+			this.yVal = mean;
+			this.count = count;
+			this.mean = mean;
+			this.variance = variance;
+			this.median = median;
+			this.lower = lower;
+			this.upper = upper;
+			this.min = min;
+			this.max = max;
+			this.first = first;
+			this.finite = !(Float.isNaN(mean) || Float.isInfinite(mean) || Float.isNaN(min) || Float.isInfinite(min)
+					|| Float.isNaN(max) || Float.isInfinite(max));
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+		public float getMean() {
+			return mean;
+		}
+
+		/**
+		 * @return the sample variance, not a number for a single value
+		 */
+		public float getVariance() {
+			return variance;
+		}
+
+		public float getMedian() {
+			return median;
+		}
+
+		/**
+		 * @return the lower quartile, or the 5 percentile
+		 */
+		public float getLower() {
+			return lower;
+		}
+
+		/**
+		 * @return the upper quartile, or the 95 percentile
+		 */
+		public float getUpper() {
+			return upper;
+		}
+
+		public float getMin() {
+			return min;
+		}
+
+		public float getMax() {
+			return max;
+		}
+
+		/**
+		 * @return the value of the first point of the series with this x value
+		 */
+		public float getFirst() {
+			return first;
+		}
+
+		/**
+		 * @return false if some values are infinite or not numbers
+		 */
+		public boolean isFinite() {
+			return finite;
+		}
+	}
+}
@@ -0,0 +1,200 @@
+/*
+ * This file is part of one of the Data-Cockpit libraries.
+ * 
+ * Copyright (C) 2024 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE (EPFL)
+ * 
+ * Author - Sébastien Rumley (sebastien.rumley@hefr.ch)
+ * 
+ * This open source release is made with the authorization of the EPFL,
+ * the institution where the author was originally employed.
+ * The author is currently affiliated with the HEIA-FR, which is the actual publisher.
+ * 
+ * The Data-Cockpit program is free software, you can redistribute it and/or modify
+ * it under the terms of GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The Data-Cockpit program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ * Contributor list -
+ */
+package ch.heiafr.isc.datacockpit.general_libraries.results;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import ch.heiafr.isc.datacockpit.general_libraries.utils.PairList;
+
+/**
+ * A series whose points are held in primitive arrays, sorted by x once when
+ * the series is built. The x values are given by a dictionary of labels,
+ * each point referring to its label by index, along with their numeric
+ * value (not a number for the labels that are not numbers).
+ * <p>
+ * The arrays are shared, they must not be modified.
+ */
+public class ArrayDataSeries extends DataSeries {
+
+	private final String[] labels;
+	private final int[] labelIds;
+	private final double[] xs;
+	private final float[] ys;
+
+	/**
+	 * @param labels the x values of the points
+	 * @param labelIds the index of the label of each point, the first size
+	 * points are used
+	 * @param ys the y value of each point
+	 */
+	public ArrayDataSeries(List<PairList<String,String>> crit, String[] labels, int[] labelIds, float[] ys, int size) {
+		super(crit);
+		this.labels = labels;
+		// the labels are sorted as the points of the other series, a rank per
+		// group of equal labels (expId holding the index of the label)
+		DataSeriesStruct[] sorted = new DataSeriesStruct[labels.length];
+		for (int i = 0 ; i < labels.length ; i++) {
+			sorted[i] = new DataSeriesStruct();
+			sorted[i].xVal = labels[i];
+			sorted[i].expId = i;
+		}
+		Arrays.sort(sorted);
+		int[] rank = new int[labels.length];
+		int ranks = 0;
+		for (int i = 0 ; i < sorted.length ; i++) {
+			if (i > 0 && sorted[i].compareTo(sorted[i - 1]) != 0) {
+				ranks++;
+			}
+			rank[sorted[i].expId] = ranks;
+		}
+		// counting sort of the points by rank, stable
+		int[] start = new int[ranks + 2];
+		for (int i = 0 ; i < size ; i++) {
+			start[rank[labelIds[i]] + 1]++;
+		}
+		for (int r = 0 ; r <= ranks ; r++) {
+			start[r + 1] += start[r];
+		}
+		double[] numbers = new double[labels.length];
+		for (int i = 0 ; i < labels.length ; i++) {
+			numbers[i] = parse(labels[i]);
+		}
+		this.labelIds = new int[size];
+		this.xs = new double[size];
+		this.ys = new float[size];
+		for (int i = 0 ; i < size ; i++) {
+			int label = labelIds[i];
+			int pos = start[rank[label]]++;
+			this.labelIds[pos] = label;
+			this.xs[pos] = numbers[label];
+			this.ys[pos] = ys[i];
+		}
+	}
+
+	private static double parse(String s) {
+		try {
+			return Double.parseDouble(s);
+		}
+		catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	public int size() {
+		return ys.length;
+	}
+
+	/**
+	 * @return the numeric x value of each point, sorted
+	 */
+	public double[] getXs() {
+		return xs;
+	}
+
+	public float[] getYs() {
+		return ys;
+	}
+
+	/**
+	 * @return the index in the labels of the x value of each point
+	 */
+	public int[] getLabelIds() {
+		return labelIds;
+	}
+
+	public String[] getLabels() {
+		return labels;
+	}
+
+	@Override
+	public float[] getMeanedYs() {
+		// labels of the same number are merged, as in DataSeries
+		HashMap<String, Integer> groups = new HashMap<String, Integer>();
+		int[] groupOf = new int[labels.length];
+		for (int i = 0 ; i < labels.length ; i++) {
+			double x = parse(labels[i]);
+			String key = Double.isNaN(x) && !"NaN".equals(labels[i]) ? labels[i] : x + "";
+			Integer g = groups.get(key);
+			if (g == null) {
+				g = groups.size();
+				groups.put(key, g);
+			}
+			groupOf[i] = g;
+		}
+		float[] sums = new float[groups.size()];
+		int[] counts = new int[groups.size()];
+		for (int i = 0 ; i < ys.length ; i++) {
+			int g = groupOf[labelIds[i]];
+			sums[g] += ys[i];
+			counts[g]++;
+		}
+		float[] tab = new float[sums.length];
+		int index = 0;
+		for (int g = 0 ; g < sums.length ; g++) {
+			if (counts[g] > 0) {
+				tab[index++] = sums[g] / counts[g];
+			}
+		}
+		return Arrays.copyOf(tab, index);
+	}
+
+	/**
+	 * Creates a DataSeriesStruct per point, for the callers not using the
+	 * arrays
+	 */
+	@Override
+	public Iterator<DataSeriesStruct> iterator() {
+		return new Iterator<DataSeriesStruct>() {
+			private int next = 0;
+
+			@Override
+			public boolean hasNext() {
+				return next < ys.length;
+			}
+
+			@Override
+			public DataSeriesStruct next() {
+				if (next >= ys.length) {
+					throw new NoSuchElementException();
+				}
+				DataSeriesStruct s = new DataSeriesStruct();
+				s.xVal = labels[labelIds[next]];
+				s.yVal = ys[next++];
+				return s;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
@@ -31,6 +31,20 @@ import java.util.Map;
 
 public class DataRetrievalOptions {
 
+	/**
+	 * How the points of each series and x value are reduced to a preview
+	 */
+	public enum Reduction {
+		// all the points
+		NONE,
+		// a uniform sample, the same for the same seed and data
+		SAMPLE,
+		// the points with the largest values
+		TOP,
+		// the points with the smallest values
+		BOTTOM
+	}
+
 	public String[] method;
 	public String xAxisProperty;
 	public Map<String, List<String>> filters;
@@ -44,6 +58,11 @@ public class DataRetrievalOptions {
 	public int confInt;
 	public boolean isMeanInsteadOfSum;
 	public CriteriumSet criterias;
+	// at most reductionSize points per series and x value, the statistics
+	// are always computed on all the points
+	public Reduction reduction = Reduction.NONE;
+	public int reductionSize;
+	public long samplingSeed;
 
     public DataRetrievalOptions(String[] method, String xAxisProperty, CriteriumSet criterias,
 			Map<String, List<String>> filters,
@@ -70,6 +89,20 @@ public class DataRetrievalOptions {
 		this.criterias = criterias;
 	}
 
+	/**
+	 * Keeps, of the points of each series and x value, only the given number
+	 * of points, chosen as the reduction says
+	 * @param seed the seed of the sample, unused by the other reductions
+	 */
+	public void setReduction(Reduction reduction, int size, long seed) {
+		if (reduction != Reduction.NONE && size <= 0) {
+			throw new IllegalArgumentException("The number of points kept must be positive");
+		}
+		this.reduction = reduction;
+		this.reductionSize = size;
+		this.samplingSeed = seed;
+	}
+
 	public String getYLabel() {
 		if (method.length > 1 && !method[1].isEmpty()) {
 			return method[0] + " & " + method[1];
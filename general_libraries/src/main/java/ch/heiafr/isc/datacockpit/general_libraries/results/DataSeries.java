@@ -159,7 +159,16 @@ public abstract class DataSeries implements Iterable<DataSeries.DataSeriesStruct
 				return acum/values.size();
 			}
 
+			/**
+			 * @return the number of points with this x value
+			 */
+			public int count() {
+				return (statistics == null) ? values.size() : statistics.getCount();
+			}
+
 			public Vector<Float> values = new Vector<Float>();
+			// set for aggregated series, values then only holds the mean
+			public AggregatedDataSeries.Statistics statistics = null;
 			public Float numericXValue = null;
 			public String alphaXValue;
 			public boolean nativeX = false;
@@ -174,6 +183,25 @@ public abstract class DataSeries implements Iterable<DataSeries.DataSeriesStruct
 
 		private TreeMap<String, XEntry> getEntryTreeMap(DataSeries ds) {
 			TreeMap<String, XEntry> xEntriesMap = new TreeMap<String, XEntry>();
+			if (ds instanceof ArrayDataSeries) {
+				// one entry per label, the points are taken from the arrays
+				ArrayDataSeries array = (ArrayDataSeries)ds;
+				String[] labels = array.getLabels();
+				XEntry[] entries = new XEntry[labels.length];
+				for (int i = 0 ; i < labels.length ; i++) {
+					entries[i] = xEntriesMap.get(labels[i]);
+					if (entries[i] == null) {
+						entries[i] = new XEntry(labels[i]);
+						xEntriesMap.put(labels[i], entries[i]);
+					}
+				}
+				int[] labelIds = array.getLabelIds();
+				float[] ys = array.getYs();
+				for (int i = 0 ; i < ys.length ; i++) {
+					entries[labelIds[i]].values.add(ys[i]);
+				}
+				return xEntriesMap;
+			}
 
 			for (DataSeriesStruct s : ds) {
 				XEntry entry = xEntriesMap.get(s.xVal);
@@ -182,6 +210,9 @@ public abstract class DataSeries implements Iterable<DataSeries.DataSeriesStruct
 					xEntriesMap.put(s.xVal, entry);
 				}
 				entry.values.add(s.yVal);
+				if (s instanceof AggregatedDataSeries.Statistics) {
+					entry.statistics = (AggregatedDataSeries.Statistics)s;
+				}
 			}
 			return xEntriesMap;
 		}
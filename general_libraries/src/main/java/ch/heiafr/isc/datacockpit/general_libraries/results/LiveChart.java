@@ -0,0 +1,44 @@
+/*
+ * This file is part of one of the Data-Cockpit libraries.
+ * 
+ * Copyright (C) 2024 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE (EPFL)
+ * 
+ * Author - Sébastien Rumley (sebastien.rumley@hefr.ch)
+ * 
+ * This open source release is made with the authorization of the EPFL,
+ * the institution where the author was originally employed.
+ * The author is currently affiliated with the HEIA-FR, which is the actual publisher.
+ * 
+ * The Data-Cockpit program is free software, you can redistribute it and/or modify
+ * it under the terms of GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The Data-Cockpit program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ * Contributor list -
+ */
+package ch.heiafr.isc.datacockpit.general_libraries.results;
+
+import java.util.List;
+
+/**
+ * A chart kept up to date by its retriever while data points are added, see
+ * AdvancedDataRetriever.registerView.
+ */
+public interface LiveChart {
+
+	/**
+	 * @param is95 true for the 5 and 95 percentiles instead of the quartiles
+	 * @return the series of the chart with the statistics of each x value, as
+	 * getAggregatedChartValues, including the data points added since the
+	 * previous call
+	 */
+	public List<AggregatedDataSeries> refreshStatistics(boolean is95);
+}
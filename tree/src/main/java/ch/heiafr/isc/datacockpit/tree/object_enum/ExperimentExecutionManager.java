@@ -26,6 +26,8 @@
  */
 package ch.heiafr.isc.datacockpit.tree.object_enum;
 
+import java.io.File;
+import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
@@ -34,6 +36,7 @@ import ch.heiafr.isc.datacockpit.tree.experiment_aut.Experiment;
 import ch.heiafr.isc.datacockpit.tree.experiment_aut.WrongExperimentException;
 import ch.heiafr.isc.datacockpit.tree.clazzes.ClassRepository;
 import ch.heiafr.isc.datacockpit.general_libraries.results.ResultDisplayService;
+import ch.heiafr.isc.datacockpit.database.AbstractInOutDataManager;
 import ch.heiafr.isc.datacockpit.database.SmartDataPointCollector;
 
 /**
@@ -50,17 +53,84 @@ public class ExperimentExecutionManager<T extends Experiment> extends AbstractEn
 	final private static String DEFAULT_RESULT_DISPLAY_SERVICE_ENV_VAR_NAME =
 			"object_enum.ch.heiafr.isc.tree.ExperimentExecutionManager.ResultDisplayService";
 
-	// A passer dans le constructeur
-	protected SmartDataPointCollector db = new SmartDataPointCollector();
+	// the file where the results are journaled, see SmartDataPointCollector.openJournal
+	final private static String JOURNAL_ENV_VAR_NAME =
+			"object_enum.ch.heiafr.isc.tree.ExperimentExecutionManager.Journal";
+	final private static long JOURNAL_SYNC_MILLIS = 100;
+	final private static int JOURNAL_SYNC_RECORDS = 10000;
+	// if set, the results read back from the journal are discarded when the experiments are run again
+	final private static String DISCARD_REPLAYED_ENV_VAR_NAME =
+			"object_enum.ch.heiafr.isc.tree.ExperimentExecutionManager.DiscardReplayed";
+
+	// null if the results go to another manager
+	protected SmartDataPointCollector db;
+	// the manager receiving the results, db if it is a SmartDataPointCollector
+	private final AbstractInOutDataManager results;
+	// the journal of the results, null if none
+	private File journal = null;
+	private volatile boolean journalOpen = false;
+	// the results of a run that died, not yet announced to the next run
+	private int replayed = 0;
+	private final boolean discardReplayed = System.getenv(DISCARD_REPLAYED_ENV_VAR_NAME) != null;
 	protected int i;
 	protected long start;
 	protected boolean success = true;
 	SimpleDateFormat sdf = new SimpleDateFormat("HH:mm.ss"); 
 	private static ArrayList<Class> registeredCachedClasses = new ArrayList<Class>();
 
+	public ExperimentExecutionManager() {
+		this(new SmartDataPointCollector());
+	}
+
+	/**
+	 * If the environment variable JOURNAL_ENV_VAR_NAME names a file and the
+	 * collector is a SmartDataPointCollector, the results are journaled in
+	 * this file, and the results of a run that died are read back from it.
+	 * These results are kept when the experiments are run again. As the
+	 * journal does not record which experiments produced them, the
+	 * experiments are not skipped: only those whose results are missing
+	 * should be run again, the others would add their results a second time.
+	 * If the environment variable DISCARD_REPLAYED_ENV_VAR_NAME is set, the
+	 * results read back are instead discarded when the experiments are run
+	 * again. The journal is closed at the end of each run, so that its last
+	 * results are on the disk, and opened again by the next run.
+	 * @param db the collector receiving the results, e.g. a ColumnarDataPointCollector
+	 * to compare its footprint with the default SmartDataPointCollector
+	 */
+	public ExperimentExecutionManager(AbstractInOutDataManager db) {
+		this.results = db;
+		if (db instanceof SmartDataPointCollector) {
+			this.db = (SmartDataPointCollector)db;
+		}
+		String journal = System.getenv(JOURNAL_ENV_VAR_NAME);
+		if (journal != null && this.db != null) {
+			this.journal = new File(journal);
+			try {
+				replayed = this.db.openJournal(this.journal, JOURNAL_SYNC_MILLIS, JOURNAL_SYNC_RECORDS);
+				journalOpen = true;
+			}
+			catch (IOException e) {
+				throw new IllegalStateException("Cannot open the journal " + journal, e);
+			}
+			System.out.println(replayed + " executions read back from the journal " + journal);
+			if (replayed > 0 && discardReplayed) {
+				System.out.println("They will be discarded when the experiments are run again");
+			}
+		}
+	}
+
+	/**
+	 * Clears the results, and empties the journal if any: the results
+	 * cleared must not be read back at the next start.
+	 */
 	@Override
-	public void clearEnumerationResults() {
-		db.clear();
+	public synchronized void clearEnumerationResults() {
+		// an open journal is emptied by the collector
+		results.clear();
+		if (journal != null && !journalOpen && journal.exists() && !journal.delete()) {
+			throw new IllegalStateException("Cannot delete the journal " + journal);
+		}
+		replayed = 0;
 	}
 	
 	@Override
@@ -76,10 +146,44 @@ public class ExperimentExecutionManager<T extends Experiment> extends AbstractEn
 
 	@Override
 	public void beforeIteration() {
+		synchronized (this) {
+			if (replayed > 0) {
+				if (discardReplayed) {
+					System.out.println("The " + replayed + " executions read back from the journal are discarded");
+					clearEnumerationResults();
+				} else {
+					System.out.println("The " + replayed + " executions read back from the journal are kept, "
+							+ "experiments run again add their results a second time");
+					replayed = 0;
+				}
+			}
+			if (journal != null && !journalOpen) {
+				try {
+					// its executions are those of the previous runs, already in db
+					db.reopenJournal(journal, JOURNAL_SYNC_MILLIS, JOURNAL_SYNC_RECORDS);
+					journalOpen = true;
+				}
+				catch (IOException e) {
+					throw new IllegalStateException("Cannot open the journal " + journal, e);
+				}
+			}
+		}
 		this.start = System.currentTimeMillis();
 		this.i = 1;
 	}
 
+	private synchronized void closeJournal() {
+		if (journalOpen) {
+			journalOpen = false;
+			try {
+				db.closeJournal();
+			}
+			catch (IOException e) {
+				System.out.println("Warning: the last results may be missing from the journal " + journal + ": " + e.getMessage());
+			}
+		}
+	}
+
 	@Override
 	public void iterating(Experiment object) throws Exception {
 		success = true;
@@ -92,7 +196,7 @@ public class ExperimentExecutionManager<T extends Experiment> extends AbstractEn
 			++this.i;
 		}
 		try {
-			object.run(db, null);
+			object.run(results, null);
 		}
 		catch (WrongExperimentException e) {
 			System.out.println("Warning: wrong experiment: " + e.getMessage());
@@ -109,6 +213,8 @@ public class ExperimentExecutionManager<T extends Experiment> extends AbstractEn
 
 	@Override
 	public void afterIteration() {
+		// the writer thread of the journal does not keep the JVM alive
+		closeJournal();
 		if (success) {
 			System.out.println(this.i - 1 + " experiments run in: "
 					+ (System.currentTimeMillis() - this.start) + " ms");
@@ -122,7 +228,7 @@ public class ExperimentExecutionManager<T extends Experiment> extends AbstractEn
 				try {
 					Class<?> clazz = Class.forName(defaultResultDisplayServiceClass);
 					ResultDisplayService service = (ResultDisplayService) clazz.getDeclaredConstructor().newInstance();
-					service.displayResults(db);
+					service.displayResults(results);
 					System.out.println("Visualizer found and display method invoked.");
 					return;
 				} catch (Exception e) {
@@ -141,7 +247,7 @@ public class ExperimentExecutionManager<T extends Experiment> extends AbstractEn
 				ResultDisplayService service = defaultClassRepo.
 						getClasses((Class<ResultDisplayService>)ResultDisplayService.class).iterator().next().
 						getDeclaredConstructor().newInstance();
-				service.displayResults(db);
+				service.displayResults(results);
 				System.out.println("Visualizer found and display method invoked.");
 				return;
 			} catch (Exception e) {
@@ -150,8 +256,16 @@ public class ExperimentExecutionManager<T extends Experiment> extends AbstractEn
 		}
 	}
 
+	/**
+	 * @return the manager receiving the results, which is db unless another
+	 * manager was given to the constructor
+	 */
+	public AbstractInOutDataManager getResultsManager() {
+		return results;
+	}
+
 	@Override
 	public Object getObjectToWaitFor() {
-		return db;
+		return results;
 	}
 }
@@ -28,9 +28,9 @@ package ch.heiafr.isc.datacockpit.visualizer.display;
 
 import java.awt.Color;
 import java.awt.Paint;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -139,138 +139,22 @@ public class BarChartProvider extends AbstractChartProvider {
 			constantValues += "\r\n";
 		}
 
-		Map<String, List<String>> params = new HashMap<String, List<String>>(
-				nbParams);
-		Map<String, Set<String>> temp = new HashMap<String, Set<String>>(
-				nbParams);
-
-		Iterator<PairList<String, String>> it = legends.iterator();
-		while (it.hasNext()) {
-			PairList<String, String> next = it.next();
-			for (Pair<String, String> exp : next) {
-				String param = exp.getFirst();
-				String value = exp.getSecond();
-				if (temp.containsKey(param)) {
-					temp.get(param).add(value);
-				} else {
-					Set<String> newSet = new HashSet<String>();
-					newSet.add(value);
-					temp.put(param, newSet);
-				}
-			}
-		}
-		for (Entry<String, Set<String>> e : temp.entrySet()) {
-			params.put(e.getKey(), new ArrayList<String>(e.getValue()));
-		}
-		temp = null;
-		List<String> exps = new ArrayList<String>();
-		List<String> allValues = new ArrayList<String>();
-		List<String> paramsKey = new ArrayList<String>(params.keySet());
-		Collections.sort(paramsKey);
-		int totalSize = 1;
-		for (Entry<String, List<String>> e : params.entrySet()) {
-			Collections.sort(e.getValue());
-			totalSize *= e.getValue().size();
-		}
-		List<Iterator<String>> iterators = new ArrayList<Iterator<String>>();
-		String[] currentValue = new String[paramsKey.size()];
-		for (int i = 0; i < paramsKey.size(); ++i) {
-			iterators.add(params.get(paramsKey.get(i)).iterator());
-			currentValue[i] = iterators.get(i).next();
-		}
-		for (int i = 0; i < totalSize; ++i) {
-			String exp = "";
-			boolean next = false;
-			for (int j = 0; j < iterators.size(); ++j) {
-				exp += paramsKey.get(j) + "=" + currentValue[j];
-				allValues.add(currentValue[j]);
-				if (!next) {
-					if (iterators.get(j).hasNext()) {
-						currentValue[j] = iterators.get(j).next();
-						next = true;
-					} else {
-						iterators.set(j, params.get(paramsKey.get(j))
-								.iterator());
-						currentValue[j] = iterators.get(j).next();
-					}
-				}
-			}
-			exps.add(exp);
-		}
-
-		String[][][] data = new String[9][exps.size() + 1][xVals.size()
-		                                                   + 1 + nbParams];
-		HashMap<String, Integer> xValsCor = new HashMap<String, Integer>();
-		int j = nbParams + 1;
-		Collection<String> xv = sort(xVals);
-		for (String s : xv) {
-			xValsCor.put(s, j);
-			for (int k = 0; k < 9; ++k) {
-				data[k][0][j] = s;
-			}
-			j++;
-		}
-
-		String[] header = new String[] { "mean or val\r\n", "med\r\n",
-				"lConf\r\n", "hConf\r\n", "min\r\n", "max\r\n",
-				"1q\r\n", "3q\r\n", "first\r\n" };
-		int i = 1;
-		for (String s : paramsKey) {
-			for (int k = 0; k < 9; ++k) {
-				data[k][0][0] = header[k];
-				data[k][0][i] = s;
-			}
-			++i;
-		}
-		i = 1;
-		Iterator<String> paramIt = allValues.iterator();
-		for (String s : exps) {
-			for (Association a : assosList) {
-				int col = xValsCor.get(a.xValOrString);
-				if (a.legend.contains(s)) {
-					for (int k = 0; k < 9; ++k) {
-						data[k][i][col] = a.stats[k] + "";
-					}
-				}
-			}
-			for (int m = 1; m <= nbParams; ++m) {
-				String toAdd = paramIt.next();
-				for (int k = 0; k < 9; ++k) {
-					data[k][i][m] = toAdd;
-				}
-			}
-			++i;
-		}
-
-		java.io.FileWriter fw = new java.io.FileWriter("Data" + DateAndTimeFormatter.getDateAndTime(System.currentTimeMillis()) + ".csv");
-		if (constantValues != null) {
-			fw.append(constantValues);
-		}
-		fw.append("WARNING: BAR CHART DOESN'T TAKE FILETERED VALUES INTO ACCOUNT !!!!! \r\n");
-		for (int m = 0; m < 9; m++) {
-			for (i = 0; i < data[m].length; i++) {
-				for (int k = 0; k < data[m][i].length; ++k) {
-					if (data[m][i][k] != null) {
-						fw.append(data[m][i][k] + separator);
-					} else {
-						fw.append(separator);
-					}
-				}
-				fw.append("\r\n");
-			}
-			fw.append("\r\n");
-			fw.append("\r\n");
-		}
-		fw.flush();
-		fw.close();
+		String preamble = ((constantValues == null) ? "" : constantValues)
+				+ "WARNING: BAR CHART DOESN'T TAKE FILETERED VALUES INTO ACCOUNT !!!!! \r\n";
+		Path file = Paths.get("Data" + DateAndTimeFormatter.getDateAndTime(System.currentTimeMillis()) + ".csv");
+		new ExcelDataWriter(separator.charAt(0), false).write(file, preamble, ExcelDataWriter.parametersOf(legends),
+				sort(xVals), assosList, false);
 	}
 
 	private ChartContainer createScalarChart(String meth2, DataRetrievalOptions options, AdvancedDataRetriever retriever) {
-		List<DataSeries> data1 = retriever.getChartValues(options, options.method[0]/*.method, p*/);
+		List<DataSeries> data1;
 		List<DataSeries> data2;
 		if (/*options.hasSecondMethod()*/!meth2.equals("")) {
-			data2 = retriever.getChartValues(options, meth2/*options.method[1]/*meth2, p*/);
+			List<List<DataSeries>> data = retriever.getChartValues(options, new String[] {options.method[0], meth2});
+			data1 = data.get(0);
+			data2 = data.get(1);
 		} else {
+			data1 = retriever.getChartValues(options, options.method[0]/*.method, p*/);
 			data2 = new ArrayList<DataSeries>(0);
 		}
 		int length = Math.min(data1.size(), data2.size());
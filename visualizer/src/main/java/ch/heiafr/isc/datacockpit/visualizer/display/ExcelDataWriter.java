@@ -0,0 +1,286 @@
+/*
+ * This file is part of one of the Data-Cockpit libraries.
+ * 
+ * Copyright (C) 2024 ECOLE POLYTECHNIQUE FEDERALE DE LAUSANNE (EPFL)
+ * 
+ * Author - Sébastien Rumley (sebastien.rumley@hefr.ch)
+ * 
+ * This open source release is made with the authorization of the EPFL,
+ * the institution where the author was originally employed.
+ * The author is currently affiliated with the HEIA-FR, which is the actual publisher.
+ * 
+ * The Data-Cockpit program is free software, you can redistribute it and/or modify
+ * it under the terms of GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The Data-Cockpit program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ * Contributor list -
+ */
+package ch.heiafr.isc.datacockpit.visualizer.display;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+import ch.heiafr.isc.datacockpit.general_libraries.utils.Pair;
+import ch.heiafr.isc.datacockpit.general_libraries.utils.PairList;
+import ch.heiafr.isc.datacockpit.visualizer.display.AbstractChartProvider.Association;
+
+/**
+ * Writes the points of a chart as nine tables, one per statistic (mean,
+ * median, confidence bounds, min and max, quartiles and first value), each
+ * with a row per series and a column per x value. The points are grouped
+ * by series in a single pass, and the rows are then written one after the
+ * other through a buffered writer. Neither the series not present in the
+ * chart nor a matrix of all the cells are built, so the cost grows with
+ * the number of points and not with series x x values.
+ * <p>
+ * The series come in the order of their values, the first criterion
+ * varying the fastest, and a point given twice keeps its last statistics.
+ */
+class ExcelDataWriter {
+
+	private static final String[] LAYERS = {"mean or val", "med", "lConf", "hConf", "min", "max", "1q", "3q", "first"};
+
+	/**
+	 * The points of a series, in the order they were given
+	 */
+	private static class Row {
+		private final String[] values;
+		private final List<int[]> columns = new ArrayList<int[]>();
+		private final List<float[]> stats = new ArrayList<float[]>();
+
+		Row(String[] values) {
+			this.values = values;
+		}
+	}
+
+	private final char separator;
+	// if true, the cells that are not finite numbers are quoted
+	private final boolean quote;
+	private final HashMap<String, String> formatted = new HashMap<String, String>();
+
+	ExcelDataWriter(char separator, boolean quote) {
+		this.separator = separator;
+		this.quote = quote;
+	}
+
+	/**
+	 * @param preamble the lines written before the tables, null if none
+	 * @param xValues the x values of the columns, as sorted by
+	 * AbstractChartProvider.sort
+	 * @param skipEmptyRows if true, the rows without any value for a
+	 * statistic are left out of its table
+	 */
+	void write(Path file, String preamble, List<String> parameters, Collection<String> xValues,
+			Collection<Association> associations, boolean skipEmptyRows) throws IOException {
+		HashMap<String, Integer> columnOf = new HashMap<String, Integer>();
+		// the numbers are sorted and written as doubles, "1" being "1.0"
+		boolean numericX = true;
+		for (String x : xValues) {
+			columnOf.put(x, columnOf.size());
+			numericX &= isDouble(x);
+		}
+		HashMap<List<String>, Row> rows = new HashMap<List<String>, Row>();
+		for (Association a : associations) {
+			Integer column = columnOf.get(numericX ? normalize(a.xValOrString) : a.xValOrString);
+			if (column == null) {
+				continue;
+			}
+			String[] values = valuesOf(a.legend, parameters);
+			List<String> key = Arrays.asList(values);
+			Row row = rows.get(key);
+			if (row == null) {
+				row = new Row(values);
+				rows.put(key, row);
+			}
+			row.columns.add(new int[]{column, row.columns.size()});
+			row.stats.add(a.stats);
+		}
+		List<Row> sorted = new ArrayList<Row>(rows.values());
+		Collections.sort(sorted, new Comparator<Row>() {
+			@Override
+			public int compare(Row r1, Row r2) {
+				for (int i = r1.values.length - 1 ; i >= 0 ; i--) {
+					int c = compareValues(r1.values[i], r2.values[i]);
+					if (c != 0) {
+						return c;
+					}
+				}
+				return 0;
+			}
+		});
+		for (Row row : sorted) {
+			// by column, the last point of a column last
+			Collections.sort(row.columns, new Comparator<int[]>() {
+				@Override
+				public int compare(int[] c1, int[] c2) {
+					return (c1[0] != c2[0]) ? Integer.compare(c1[0], c2[0]) : Integer.compare(c1[1], c2[1]);
+				}
+			});
+		}
+
+		BufferedWriter w = Files.newBufferedWriter(file, Charset.defaultCharset());
+		try {
+			if (preamble != null) {
+				w.write(preamble);
+			}
+			for (int k = 0 ; k < LAYERS.length ; k++) {
+				if (!xValues.isEmpty() || !skipEmptyRows) {
+					w.write(cell(LAYERS[k] + "\r\n"));
+					w.write(separator);
+					for (String p : parameters) {
+						w.write(cell(p));
+						w.write(separator);
+					}
+					for (String x : xValues) {
+						w.write(cell(x));
+						w.write(separator);
+					}
+					w.write("\r\n");
+				}
+				for (Row row : sorted) {
+					writeRow(w, row, k, xValues.size(), skipEmptyRows);
+				}
+				w.write("\r\n");
+				w.write("\r\n");
+			}
+		}
+		finally {
+			w.close();
+		}
+	}
+
+	private void writeRow(BufferedWriter w, Row row, int layer, int width, boolean skipIfEmpty) throws IOException {
+		boolean hasValues = false;
+		for (float[] s : row.stats) {
+			hasValues |= layer < s.length;
+		}
+		if (!hasValues && skipIfEmpty) {
+			return;
+		}
+		w.write(separator);
+		for (String v : row.values) {
+			if (v != null) {
+				w.write(cell(v));
+			}
+			w.write(separator);
+		}
+		int column = 0;
+		for (int i = 0 ; i < row.columns.size() ; i++) {
+			int[] c = row.columns.get(i);
+			float[] stats = row.stats.get(c[1]);
+			if (layer >= stats.length || (i + 1 < row.columns.size() && row.columns.get(i + 1)[0] == c[0])) {
+				// no value, or overridden by the next point
+				continue;
+			}
+			for ( ; column < c[0] ; column++) {
+				w.write(separator);
+			}
+			float v = stats[layer];
+			String s = Float.toString(v);
+			w.write((quote && Float.isInfinite(v)) ? "'" + s + "'" : s);
+			w.write(separator);
+			column++;
+		}
+		for ( ; column < width ; column++) {
+			w.write(separator);
+		}
+		w.write("\r\n");
+	}
+
+	/**
+	 * @return the text of a cell, quoted if it is not a finite number
+	 */
+	private String cell(String s) {
+		if (!quote) {
+			return s;
+		}
+		String f = formatted.get(s);
+		if (f == null) {
+			f = s;
+			try {
+				if (Float.isInfinite(Float.parseFloat(s))) {
+					f = "'" + s + "'";
+				}
+			}
+			catch (NumberFormatException e) {
+				f = "'" + s + "'";
+			}
+			formatted.put(s, f);
+		}
+		return f;
+	}
+
+	/**
+	 * @return the x value as written by AbstractChartProvider.sort for the
+	 * numbers
+	 */
+	private static String normalize(String x) {
+		try {
+			return Double.parseDouble(x) + "";
+		}
+		catch (NumberFormatException e) {
+			return x;
+		}
+	}
+
+	private static boolean isDouble(String x) {
+		try {
+			Double.parseDouble(x);
+			return true;
+		}
+		catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	private static String[] valuesOf(PairList<String, String> legend, List<String> parameters) {
+		String[] values = new String[parameters.size()];
+		for (Pair<String, String> p : legend) {
+			int i = parameters.indexOf(p.getFirst());
+			if (i >= 0) {
+				values[i] = p.getSecond();
+			}
+		}
+		return values;
+	}
+
+	private static int compareValues(String v1, String v2) {
+		if (v1 == null || v2 == null) {
+			return (v1 == null) ? ((v2 == null) ? 0 : -1) : 1;
+		}
+		return v1.compareTo(v2);
+	}
+
+	/**
+	 * @return the names of the parameters of the series, sorted
+	 */
+	static List<String> parametersOf(Collection<PairList<String, String>> legends) {
+		TreeSet<String> names = new TreeSet<String>();
+		for (PairList<String, String> legend : legends) {
+			for (Pair<String, String> p : legend) {
+				names.add(p.getFirst());
+			}
+		}
+		return new ArrayList<String>(names);
+	}
+}
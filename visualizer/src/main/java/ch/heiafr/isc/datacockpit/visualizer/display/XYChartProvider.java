@@ -30,7 +30,8 @@ import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Paint;
 import java.awt.Shape;
-import java.util.ArrayList;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -40,9 +41,7 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.TreeMap;
-import java.util.Map.Entry;
 import java.util.Vector;
 
 import ch.heiafr.isc.datacockpit.visualizer.display.panels.MatlabPlot;
@@ -66,8 +65,10 @@ import ch.heiafr.isc.datacockpit.visualizer.charts.CustomXYIntervalSeries;
 import ch.heiafr.isc.datacockpit.visualizer.charts.CustomXYIntervalSeriesCollection;
 import ch.heiafr.isc.datacockpit.visualizer.charts.Problem;
 import ch.heiafr.isc.datacockpit.general_libraries.results.AdvancedDataRetriever;
+import ch.heiafr.isc.datacockpit.general_libraries.results.Criterium;
 import ch.heiafr.isc.datacockpit.general_libraries.results.DataRetrievalOptions;
 import ch.heiafr.isc.datacockpit.general_libraries.results.DataSeries;
+import ch.heiafr.isc.datacockpit.general_libraries.results.LiveChart;
 import ch.heiafr.isc.datacockpit.general_libraries.utils.DateAndTimeFormatter;
 import ch.heiafr.isc.datacockpit.general_libraries.utils.Mapper;
 import ch.heiafr.isc.datacockpit.general_libraries.utils.Pair;
@@ -100,6 +101,8 @@ public class XYChartProvider extends AbstractChartProvider {
 	public boolean isWithContinuousColors;		
 	public boolean isUsingLegend;
 	public boolean isLogColors;	
+	// with lines, the statistics are taken from a live view of the collector
+	public boolean isLive;
 	
 	public String xaxis;
 	public String yaxis;
@@ -108,6 +111,13 @@ public class XYChartProvider extends AbstractChartProvider {
 	public HashSet<PairList<String, String>> legends = new HashSet<PairList<String, String>>();
 	public LinkedList<Association> assosList = new LinkedList<Association>();
 
+	// the series of each method of the chart being built
+	private List<? extends List<? extends DataSeries>> fetched = null;
+
+	// the view of the live chart and what it was registered for
+	private LiveChart liveView = null;
+	private List<Object> liveKey = null;
+
 
 
 	
@@ -130,8 +140,9 @@ public class XYChartProvider extends AbstractChartProvider {
 	}
 
 	private ChartContainer createScalarChart(DataRetrievalOptions options, AdvancedDataRetriever retriever) {
-		List<DataSeries> data1 = retriever.getChartValues(options, options.method[0]);
-		List<DataSeries> data2 = retriever.getChartValues(options, options.method[1]);
+		List<List<DataSeries>> data = retriever.getChartValues(options, options.method);
+		List<DataSeries> data1 = data.get(0);
+		List<DataSeries> data2 = data.get(1);
 		int length = (int) Math.min(data1.size(), data2.size());
 		double[] scalarValue = new double[length];
 		JFreeChart jFreeChart;
@@ -207,6 +218,7 @@ public class XYChartProvider extends AbstractChartProvider {
 		ChartContainer chart = new ChartContainer();
 		chart.setChart(jFreeChart);
 
+		fetched = null;
 		boolean mult = buildOneMethod(chart, options, stroke1, 0, retriever);
 
 		if( options.method.length > 1 && !options.method[1].equals("") ) {
@@ -223,6 +235,7 @@ public class XYChartProvider extends AbstractChartProvider {
 
 		}
 		chart.setMultiple(mult);
+		fetched = null;
 		if( isLogX) {
 			xAxis = new CustomLogAxis(xAxisLabel);
 			plot.setDomainAxis(xAxis);
@@ -235,6 +248,47 @@ public class XYChartProvider extends AbstractChartProvider {
 		return chart;
 	}
 
+	/**
+	 * @return the series of the method at this index, the series of all the
+	 * methods of the chart being fetched together the first time
+	 */
+	private List<? extends DataSeries> getSeries(DataRetrievalOptions options, int idx, AdvancedDataRetriever retriever) {
+		if( fetched == null ) {
+			if( isLive && isWithLines && options.method[1].equals("") && options.reduction == DataRetrievalOptions.Reduction.NONE
+					&& getLiveView(options, retriever) != null ) {
+				fetched = Collections.singletonList(getLiveView(options, retriever).refreshStatistics(options.is95));
+			} else if( isWithLines ) {
+				fetched = retriever.getAggregatedChartValues(options, options.method);
+			} else {
+				fetched = retriever.getChartValues(options, options.method);
+			}
+		}
+		return fetched.get(idx);
+	}
+
+	/**
+	 * @return the live view of this chart, registered again when the chart
+	 * changes (the previous one is then dropped), null if the retriever does
+	 * not keep live charts
+	 */
+	private LiveChart getLiveView(DataRetrievalOptions options, AdvancedDataRetriever db) {
+		List<List<String>> criteria = new LinkedList<List<String>>();
+		for (List<Criterium> l : options.getCriteriumSet()) {
+			List<String> names = new LinkedList<String>();
+			for (Criterium c : l) {
+				names.add(c.getName());
+			}
+			criteria.add(names);
+		}
+		Map<String, List<String>> filters = (options.getFilters() == null) ? null : new HashMap<String, List<String>>(options.getFilters());
+		List<Object> key = Arrays.<Object>asList(db, options.xAxisProperty, criteria, filters, options.method[0]);
+		if( !key.equals(liveKey) ) {
+			liveView = db.registerView(options, options.method[0]);
+			liveKey = key;
+		}
+		return liveView;
+	}
+
 	protected boolean buildOneMethod(ChartContainer chart, DataRetrievalOptions options, BasicStroke stroke, int idx, AdvancedDataRetriever retriever) {
 		XYPlot plot = chart.getChart().getXYPlot();
 		CustomXYIntervalSeriesCollection seriesCollection = new CustomXYIntervalSeriesCollection(options);
@@ -275,7 +329,8 @@ public class XYChartProvider extends AbstractChartProvider {
 
 		TreeMap<Double, String> tickEquivalenceMap = new TreeMap<Double, String>();
 		
-		List<DataSeries> dataSeries = retriever.getChartValues(options, options.method[idx]);
+		// with lines, only the statistics of the points of each x are drawn
+		List<? extends DataSeries> dataSeries = getSeries(options, idx, retriever);
 	
 		HashSet<String> toSortAndEvalFromZeroToOne = new HashSet<String>();
 		
@@ -328,9 +383,9 @@ public class XYChartProvider extends AbstractChartProvider {
 				}
 				if( isLogX && x <= 0.0 )
 					continue;
-				if( xeValues.size() > 1 && isWithLines ) {
+				if( xe.count() > 1 && isWithLines ) {
 					float[] all;
-					boolean break_ = false;
+					boolean break_ = xe.statistics != null && !xe.statistics.isFinite();
 					for (int i = 0 ; i < xeValues.size() ; i++) {
 						Float sample = xeValues.get(i);
 						if (sample.isInfinite() || sample.isNaN()) {
@@ -346,14 +401,16 @@ public class XYChartProvider extends AbstractChartProvider {
 						assosList.add(new Association(xe.alphaXValue, cv.getSerieCriteria(), all, xe.numericXValue));
 						break;
 					}
-					if( !options.is95 ) {
+					if( xe.statistics != null ) {
+						all = Formulas.getAll(xe.statistics, (float) options.confInt / 100);
+					} else if( !options.is95 ) {
 						all = Formulas.getAll(xe.values, (float) options.confInt / 100);
 					} else {
 						all = Formulas.getAll95(xe.values, (float) options.confInt / 100);
 					}
 					float[] allAndFirstAndX = new float[all.length + 2];
 					System.arraycopy(all, 0, allAndFirstAndX, 0, all.length);
-					allAndFirstAndX[8] = xe.values.get(0);
+					allAndFirstAndX[8] = (xe.statistics != null) ? xe.statistics.getFirst() : xe.values.get(0);
 					allAndFirstAndX[9] = x; //xe.numericXValue;
 					//Check if 0 for log scale
 					if( isNormalisedWithX ) {
@@ -370,7 +427,9 @@ public class XYChartProvider extends AbstractChartProvider {
 							break;
 					}
 					serie__.add(allAndFirstAndX);
-					assosList.add(new Association(xe.alphaXValue, cv.getSerieCriteria(), all, xe.numericXValue));
+					float[] allAndFirst = Arrays.copyOf(all, all.length + 1);
+					allAndFirst[8] = (xe.statistics != null) ? xe.statistics.getFirst() : xe.values.get(0);
+					assosList.add(new Association(xe.alphaXValue, cv.getSerieCriteria(), allAndFirst, xe.numericXValue));
 
 				} else {
 					for( Float y : xe.values ) {
@@ -716,148 +775,9 @@ public class XYChartProvider extends AbstractChartProvider {
 			if( constantValues != null )
 				constantValues += "\r\n";
 
-			Map<String, List<String>> params = new HashMap<String, List<String>>(nbParams);
-			Map<String, Set<String>> temp = new HashMap<String, Set<String>>(nbParams);
-
-			Iterator<PairList<String, String>> it = legends.iterator();
-			while (it.hasNext()) {
-				PairList<String, String> next = it.next();
-				for( Pair<String, String> exp : next ) {
-					String param = exp.getFirst();
-					String value = exp.getSecond();
-					if( temp.containsKey(param) ) {
-						temp.get(param).add(value);
-					} else {
-						Set<String> newSet = new HashSet<String>();
-						newSet.add(value);
-						temp.put(param, newSet);
-					}
-				}
-			}
-			for( Entry<String, Set<String>> e : temp.entrySet() ) {
-				params.put(e.getKey(), new ArrayList<String>(e.getValue()));
-			}
-			temp = null;
-			ArrayList<PairList<String, String>> exps = new ArrayList<PairList<String, String>>();
-			List<String> allValues = new ArrayList<String>();
-			List<String> paramsKey = new ArrayList<String>(params.keySet());
-			Collections.sort(paramsKey);
-			int totalSize = 1;
-			for( Entry<String, List<String>> e : params.entrySet() ) {
-				Collections.sort(e.getValue());
-				totalSize *= e.getValue().size();
-			}
-			List<Iterator<String>> iterators = new ArrayList<Iterator<String>>();
-			String[] currentValue = new String[paramsKey.size()];
-			for( int i = 0; i < paramsKey.size(); ++i ) {
-				iterators.add(params.get(paramsKey.get(i)).iterator());
-				currentValue[i] = iterators.get(i).next();
-			}
-			for( int i = 0; i < totalSize; ++i ) {
-				PairList<String, String> exp = new PairList<String, String>();
-				boolean next = false;
-				for( int j = 0; j < iterators.size(); ++j ) {
-					exp.add(paramsKey.get(j), currentValue[j]);
-					//	exp += paramsKey.get(j) + "=" + currentValue[j];
-					allValues.add(currentValue[j]);
-					if( !next ) {
-						if( iterators.get(j).hasNext() ) {
-							currentValue[j] = iterators.get(j).next();
-							next = true;
-						} else {
-							iterators.set(j, params.get(paramsKey.get(j)).iterator());
-							currentValue[j] = iterators.get(j).next();
-						}
-					}
-				}
-				exps.add(exp);
-			}
-
-			String[][][] data = new String[9][exps.size() + 1][xVals.size() + 1 + nbParams];
-			HashMap<String, Integer> xValsCor = new HashMap<String, Integer>();
-			int j = nbParams + 1;
-			Collection<String> xv = sort(xVals);
-			for( String s : xv ) {
-				xValsCor.put(s, j);
-				for( int k = 0; k < 9; ++k )
-					data[k][0][j] = s;
-				j++;
-			}
-
-			String[] header = new String[] { "mean or val\r\n", "med\r\n", "lConf\r\n", "hConf\r\n", "min\r\n", "max\r\n", "1q\r\n", "3q\r\n", "first\r\n" };
-			int i = 1;
-			for( String s : paramsKey ) {
-				for( int k = 0; k < 9; ++k ) {
-					data[k][0][0] = header[k];
-					data[k][0][i] = s;
-				}
-				++i;
-			}
-			i = 1;
-			Iterator<String> paramIt = allValues.iterator();
-
-			// VERY UGLY, FIX with bug
-			TreeMap<String, String> bugSet = new TreeMap<String, String>();
-
-			for( PairList<String, String> s : exps ) {
-				for( Association a : assosList ) {
-					int col = xValsCor.get(a.xValOrString);
-					if( s.equalsNotOrdered(a.legend) ) {
-						for( int k = 0; k < 8; ++k ) {
-
-							// BEGIN BUGFIX (temporary)
-							if( k == 0 ) {
-								String bugTest = bugSet.get(k + "-" + i + "-" + col);
-								if( bugTest != null )
-									System.err.println("Point (" + a.xValOrString + "," + a.stats[0] + " overrides " + data[k][i][col]);
-								bugSet.put(k + "-" + i + "-" + col, k + "-" + i + "-" + col);
-							}
-							// END BUGFIX
-							data[k][i][col] = a.stats[k] + "";
-						}
-					}
-				}
-				for( int m = 1; m <= nbParams; ++m ) {
-					String toAdd = paramIt.next();
-					for( int k = 0; k < 9; ++k ) {
-						data[k][i][m] = toAdd;
-					}
-				}
-				++i;
-			}
-
-			java.io.FileWriter fw = new java.io.FileWriter("Data" + DateAndTimeFormatter.getDateAndTime(System.currentTimeMillis()) + ".csv");
-			if( constantValues != null )
-				fw.append(constantValues);
-			for( int m = 0; m < 9; m++ ) {
-				for( i = 0; i < data[m].length; i++ ) {
-					boolean hasValues = false;
-					for( int k = 0; k < data[m][i].length && !hasValues; ++k ) {
-						hasValues = hasValues || (k > nbParams && data[m][i][k] != null);
-					}
-					if( hasValues ) {
-						for( int k = 0; k < data[m][i].length; ++k ) {
-							if( data[m][i][k] != null ) {
-								String toAppend = data[m][i][k];
-								try {
-									if( Float.isInfinite(Float.parseFloat(toAppend)) )
-										toAppend = "'" + toAppend + "'";
-								} catch (NumberFormatException e) {
-									toAppend = "'" + toAppend + "'";
-								}
-								fw.append(toAppend + separator);
-							} else
-								fw.append(separator);
-						}
-						fw.append("\r\n");
-					}
-				}
-				fw.append("\r\n");
-				fw.append("\r\n");
-			}
-
-			fw.flush();
-			fw.close();
+			Path file = Paths.get("Data" + DateAndTimeFormatter.getDateAndTime(System.currentTimeMillis()) + ".csv");
+			new ExcelDataWriter(separator, true).write(file, constantValues, ExcelDataWriter.parametersOf(legends),
+					sort(xVals), assosList, true);
 		}
 	}
 }
@@ -43,6 +43,7 @@ import javax.swing.JPanel;
 import javax.swing.JRadioButton;
 import javax.swing.JScrollPane;
 import javax.swing.JTree;
+import javax.swing.Timer;
 
 import ch.heiafr.isc.datacockpit.visualizer.charts.ChartContainer;
 import ch.heiafr.isc.datacockpit.visualizer.charts.paints.Texture;
@@ -58,6 +59,8 @@ import ch.heiafr.isc.datacockpit.visualizer.display.AbstractChartProvider.Descri
 public class XYLineChartPanel extends AbstractChartPanel implements ActionListener {
 	
 	public final static Font defaultFont = new Font("Helvetica", 0, 9);
+	// milliseconds between two computations of a live chart
+	public final static int LIVE_PERIOD = 1000;
 
 	private JPanel optionPanel;
 	private JCheckBox logScaleX;
@@ -69,6 +72,9 @@ public class XYLineChartPanel extends AbstractChartPanel implements ActionListen
 	private JCheckBox useLegend;
 	private JCheckBox normaliseWithX;
 	private JCheckBox withoutIdenticalHigh;
+	private JCheckBox liveUpdate;
+	private Timer liveTimer;
+	private ComplexDisplayPanel displayPanel;
 	private ButtonGroup lines;
 	private JRadioButton withLines;
 	private JRadioButton withoutLines;
@@ -102,6 +108,12 @@ public class XYLineChartPanel extends AbstractChartPanel implements ActionListen
 		this.withoutIdenticalHigh.addActionListener(listener);
 		this.normaliseWithX = new JCheckBox("Normalise with X axis");
 		this.normaliseWithX.addActionListener(listener);
+		// the chart follows the data points added to the retriever, queried
+		// again at each period if it does not keep live charts
+		this.liveUpdate = new JCheckBox("Live update");
+		this.liveUpdate.addActionListener(listener);
+		this.liveUpdate.addActionListener(this);
+		this.liveTimer = new Timer(LIVE_PERIOD, this);
 		this.lines = new ButtonGroup();
 		this.withLines = new JRadioButton("Lines");
 		this.withLines.addActionListener(listener);
@@ -133,6 +145,7 @@ public class XYLineChartPanel extends AbstractChartPanel implements ActionListen
 
 	@Override
 	public JPanel getConfigurationPanel(ComplexDisplayPanel panel) {
+		this.displayPanel = panel;
 		return this.optionPanel;
 	}
 
@@ -161,6 +174,16 @@ public class XYLineChartPanel extends AbstractChartPanel implements ActionListen
 				this.logScaleX.setSelected(false);
 		} else if (source == continuousColors) {
 			logColors.setEnabled(continuousColors.isSelected());
+		} else if (source == liveUpdate) {
+			if (liveUpdate.isSelected()) {
+				liveTimer.start();
+			} else {
+				liveTimer.stop();
+			}
+		} else if (source == liveTimer) {
+			if (displayPanel != null) {
+				displayPanel.compute();
+			}
 		}
 	}
 
@@ -239,12 +262,13 @@ public class XYLineChartPanel extends AbstractChartPanel implements ActionListen
 		pan4.add(this.withLines);
 		pan4.add(this.withLinesWA);
 		pan4.add(this.withoutLines);
-		JPanel pan5 = new JPanel(new GridLayout(5, 1));
+		JPanel pan5 = new JPanel(new GridLayout(6, 1));
 		pan5.add(this.withoutIdenticalHigh);
 		pan5.add(this.normaliseWithX);
 		pan5.add(this.sortOnY);
 		pan5.add(this.continuousColors);
 		pan5.add(this.logColors);
+		pan5.add(this.liveUpdate);
 		JPanel viewPanel = new JPanel(new GridBagLayout());
 		viewPanel.add(pan1, gb1);
 		viewPanel.add(pan2, gb2);
@@ -281,6 +305,7 @@ public class XYLineChartPanel extends AbstractChartPanel implements ActionListen
 		xyDisp.isWithContinuousColors = continuousColors.isSelected();
 		xyDisp.isLogColors = logColors.isSelected();
 		xyDisp.isUsingLegend = useLegend.isSelected();
+		xyDisp.isLive = liveUpdate.isSelected();
 		Description d = (Description) this.listGraphs2.getSelectedItem();
 		options.method = new String[]{options.method[0], d== null ? "" : d.nom};
 		return xyDisp.computeChart(options, retriever);
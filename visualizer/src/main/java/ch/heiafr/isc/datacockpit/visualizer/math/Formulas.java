@@ -26,6 +26,7 @@
  */
 package ch.heiafr.isc.datacockpit.visualizer.math;
 
+import ch.heiafr.isc.datacockpit.general_libraries.results.AggregatedDataSeries;
 import umontreal.ssj.probdist.StudentDist;
 
 import java.util.Arrays;
@@ -67,6 +68,20 @@ public class Formulas {
         return dcop;
     }
 
+    /**
+     * Same as getAll on the values, from the statistics computed by the retriever
+     */
+    public static float[] getAll(AggregatedDataSeries.Statistics s, float confidence) {
+        float[] confInter;
+        if (s.getCount() > 1) {
+            confInter = getConfidenceIntervalInternal(s.getCount(), s.getMean(), s.getVariance(), confidence);
+        } else {
+            confInter = new float[]{s.getMean(), s.getMean()};
+        }
+        return new float[]{s.getMean(), s.getMedian(), confInter[0], confInter[1],
+                s.getMin(), s.getMax(), s.getLower(), s.getUpper()};
+    }
+
     public static float[] getAll95(Collection<Float> f, float confidence) {
         float mean = getMeanF(f);
         float var = getVarianceInternalF(f, mean);
@@ -126,8 +141,13 @@ public class Formulas {
 
     private static float[] getConfidenceIntervalInternal(Collection<Float> d,
                                                          float mean, float var, float confidenceLevel) {
-        float studT = (float)-StudentDist.inverseF(d.size()-1, (1-confidenceLevel)/2);
-        float term1 = (float)Math.pow((var/d.size()), 0.5);
+        return getConfidenceIntervalInternal(d.size(), mean, var, confidenceLevel);
+    }
+
+    private static float[] getConfidenceIntervalInternal(int size,
+                                                         float mean, float var, float confidenceLevel) {
+        float studT = (float)-StudentDist.inverseF(size-1, (1-confidenceLevel)/2);
+        float term1 = (float)Math.pow((var/size), 0.5);
         return new float[]{(mean - (studT*term1)), (mean + (studT*term1))};
     }
 